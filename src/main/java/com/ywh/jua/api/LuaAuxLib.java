@@ -1,5 +1,7 @@
 package com.ywh.jua.api;
 
+import com.ywh.jua.string.LuaBuffer;
+
 import java.util.Map;
 
 /**
@@ -206,6 +208,71 @@ public interface LuaAuxLib {
      */
     boolean callMeta(int obj, String e);
 
+    /**
+     * 在注册表中创建名为 tname 的元表（已存在则返回 false），并把它推入栈顶。
+     * 新元表的 __name 字段为 tname，用于错误信息。
+     *
+     * @param tname
+     * @return
+     */
+    boolean newMetatable(String tname);
+
+    /**
+     * 把注册表中名为 tname 的元表推入栈顶
+     *
+     * @param tname
+     * @return
+     */
+    LuaType getMetatable2(String tname);
+
+    /**
+     * 把栈顶值的元表设置为注册表中名为 tname 的元表
+     *
+     * @param tname
+     */
+    void setMetatable2(String tname);
+
+    /**
+     * 参数是元表为 tname 的用户数据时返回其包装的对象，否则返回 null
+     *
+     * @param arg
+     * @param tname
+     * @return
+     */
+    Object testUdata(int arg, String tname);
+
+    /**
+     * 确保参数是元表为 tname 的用户数据，返回其包装的对象
+     *
+     * @param arg
+     * @param tname
+     * @return
+     */
+    Object checkUdata(int arg, String tname);
+
+    /* Buffer functions */
+
+    /**
+     * 创建字符串缓冲区
+     *
+     * @return
+     */
+    LuaBuffer buffInit();
+
+    /**
+     * 弹出栈顶的字符串（或数字）并追加到缓冲区
+     *
+     * @param b
+     */
+    void addValue(LuaBuffer b);
+
+    /**
+     * 把缓冲区的内容作为字符串推入栈顶
+     *
+     * @param b
+     */
+    void pushResult(LuaBuffer b);
+
     /**
      * 启用标准库
      */
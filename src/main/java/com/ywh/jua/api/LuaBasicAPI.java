@@ -1,6 +1,10 @@
 package com.ywh.jua.api;
 
+import com.ywh.jua.chunk.Prototype;
 import com.ywh.jua.state.LuaStateImpl;
+import com.ywh.jua.string.LuaBuffer;
+
+import java.io.InputStream;
 
 /**
  * 基础 API
@@ -185,6 +189,14 @@ public interface LuaBasicAPI {
      */
     boolean isFunction(int idx);
 
+    /**
+     * 是否（完全）用户数据
+     *
+     * @param idx
+     * @return
+     */
+    boolean isUserdata(int idx);
+
     // ========== 转换索引位置的值的类型并返回 ==========
 
     boolean toBoolean(int idx);
@@ -199,6 +211,14 @@ public interface LuaBasicAPI {
 
     String toString(int idx);
 
+    /**
+     * 取用户数据包装的 Java 对象，不是用户数据则返回 null
+     *
+     * @param idx
+     * @return
+     */
+    Object toUserdata(int idx);
+
     // ========== 指定类型的值入栈 ==========
 
     /* push functions (Go -> stack); */
@@ -277,6 +297,13 @@ public interface LuaBasicAPI {
      */
     void createTable(int nArr, int nRec);
 
+    /**
+     * 创建包装 Java 对象的完全用户数据（没有元表），将其推入栈顶。
+     *
+     * @param data
+     */
+    void newUserdata(Object data);
+
     /**
      * 根据索引从栈中取表，再根据从栈顶弹出的键取值（并将其推入栈顶）。
      *
@@ -346,6 +373,34 @@ public interface LuaBasicAPI {
      */
     ThreadStatus load(byte[] chunk, String chunkName, String mode);
 
+    /**
+     * 从输入流加载二进制 chunk 或 Lua 脚本，把主函数原型实例化为闭包并推入栈顶。
+     * 文本脚本按块读取并编译，无需先把整个源码读入内存。
+     *
+     * @param in
+     * @param chunkName
+     * @param mode
+     * @return
+     */
+    ThreadStatus load(InputStream in, String chunkName, String mode);
+
+    /**
+     * 把已编译的函数原型（比如预编译的模块）实例化为闭包并推入栈顶。
+     *
+     * @param proto
+     * @return
+     */
+    ThreadStatus load(Prototype proto);
+
+    /**
+     * 把栈顶的 Lua 函数序列化为二进制 chunk，栈顶的函数不会被弹出。
+     * 如果栈顶不是 Lua 函数（比如 Java 函数），返回 null。
+     *
+     * @param strip 是否去除调试信息
+     * @return
+     */
+    byte[] dump(boolean strip);
+
     /**
      * 调用 Lua 函数
      * 在执行之前，必须先把被调用函数入栈，然后把参数值依次入栈；
@@ -456,6 +511,76 @@ public interface LuaBasicAPI {
      */
     void setMetatable(int idx);
 
+    // ========== 数组部分的批量操作 ==========
+
+    /**
+     * 可批量操作的数组长度
+     * 值是表，且没有 __index、__newindex、__len 元方法时返回数组部分的长度（即 #t），否则返回 -1，只能逐个元素访问。
+     *
+     * @param idx
+     * @return
+     */
+    int arrayLength(int idx);
+
+    /**
+     * 把数组部分 [i, j] 的元素依次推入栈顶
+     *
+     * @param idx
+     * @param i   1 <= i
+     * @param j   j <= arrayLength(idx)
+     */
+    void arrayPush(int idx, int i, int j);
+
+    /**
+     * 弹出栈顶值插入到数组部分的 pos 处，后面的元素后移
+     *
+     * @param idx
+     * @param pos 1 <= pos <= arrayLength(idx) + 1
+     */
+    void arrayInsert(int idx, int pos);
+
+    /**
+     * 删除数组部分 pos 处的元素并推入栈顶，后面的元素前移
+     *
+     * @param idx
+     * @param pos 1 <= pos <= arrayLength(idx)
+     */
+    void arrayRemove(int idx, int pos);
+
+    /**
+     * 把 idx1 数组部分 [f, e] 的元素复制到 idx2 从 t 开始的位置
+     *
+     * @param idx1
+     * @param f    1 <= f <= e
+     * @param e    e <= arrayLength(idx1)
+     * @param t    1 <= t <= arrayLength(idx2) + 1
+     * @param idx2
+     * @return false 表示区间内有 nil，需要逐个元素复制
+     */
+    boolean arrayMove(int idx1, int f, int e, int t, int idx2);
+
+    /**
+     * 用 sep 连接数组部分 [i, j] 的元素写入缓冲区
+     *
+     * @param idx
+     * @param sep
+     * @param i   1 <= i
+     * @param j   j <= arrayLength(idx)
+     * @param b
+     * @return 0，或者第一个不是字符串或数字的元素下标
+     */
+    int arrayConcat(int idx, String sep, int i, int j, LuaBuffer b);
+
+    /**
+     * 对表的 [1, n] 排序
+     * 表没有 __index、__newindex、__len 元方法且 n 等于数组长度时直接在数组部分上原地排序，否则逐个元素读写（遵循元方法）。
+     *
+     * @param idx
+     * @param n
+     * @param comp 比较函数的索引，0 表示使用 <
+     */
+    void sortTable(int idx, int n, int comp);
+
     /**
      * 取长度（忽略元方法）
      *
@@ -56,4 +56,23 @@ public interface LuaVM extends LuaState {
      * @param a
      */
     void closeUpvalues(int a);
+
+    /**
+     * 通过全局绑定单元读取 Upvalue 表的字段并推入栈顶（GETTABUP 的快速路径）
+     *
+     * @param idx Upvalue 索引（从 1 开始）
+     * @param rk  键
+     * @return 无法走快速路径（键不是字符串常量、Upvalue 不是表、需要元方法）时返回 false，栈不变
+     */
+    boolean getTabUpFast(int idx, int rk);
+
+    /**
+     * 通过全局绑定单元写入 Upvalue 表的字段（SETTABUP 的快速路径）
+     *
+     * @param idx   Upvalue 索引（从 1 开始）
+     * @param rkKey 键
+     * @param rkVal 值
+     * @return 无法走快速路径时返回 false
+     */
+    boolean setTabUpFast(int idx, int rkKey, int rkVal);
 }
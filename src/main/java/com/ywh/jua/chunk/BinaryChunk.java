@@ -1,5 +1,8 @@
 package com.ywh.jua.chunk;
 
+import com.ywh.jua.string.LuaString;
+
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
@@ -82,6 +85,17 @@ public class BinaryChunk {
         return true;
     }
 
+    /**
+     * 判断 Lua 字符串是否二进制 chunk（string.dump 的结果）
+     *
+     * @param s
+     * @return
+     */
+    public static boolean isBinaryChunk(String s) {
+        return s.length() >= LUA_SIGNATURE.length && s.charAt(0) == LUA_SIGNATURE[0]
+            && s.startsWith("Lua", 1);
+    }
+
     /**
      * 解析二进制 chunk 为函数原型。
      *
@@ -99,6 +113,54 @@ public class BinaryChunk {
     }
 
 
+    /**
+     * 把函数原型序列化为二进制 chunk（与 luac 5.3 格式一致，可以被 undump 解析）。
+     *
+     * @param proto
+     * @param strip 是否去除调试信息（来源、行号表、局部变量表和 Upvalue 名列表）
+     * @return
+     */
+    public static byte[] dump(Prototype proto, boolean strip) {
+        return dump(proto, strip, false);
+    }
+
+    /**
+     * 序列化函数原型，可以保留 Upvalue 的按值捕获标记。
+     * 保留标记的 chunk 只能由 Jua 加载，用于编译缓存。
+     *
+     * @param proto
+     * @param strip       是否去除调试信息
+     * @param keepByValue 是否保留按值捕获标记
+     * @return
+     */
+    public static byte[] dump(Prototype proto, boolean strip, boolean keepByValue) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dumpHead(out);
+        // size_upvalues
+        out.write(proto.getUpvalues().length);
+        proto.write(out, null, strip, keepByValue);
+        return out.toByteArray();
+    }
+
+    /**
+     * 写入头部，与 checkHead 校验的内容一一对应。
+     *
+     * @param out
+     */
+    private static void dumpHead(ByteArrayOutputStream out) {
+        out.write(LUA_SIGNATURE, 0, LUA_SIGNATURE.length);
+        out.write(LUAC_VERSION);
+        out.write(LUAC_FORMAT);
+        out.write(LUAC_DATA, 0, LUAC_DATA.length);
+        out.write(CINT_SIZE);
+        out.write(CSIZET_SIZE);
+        out.write(INSTRUCTION_SIZE);
+        out.write(LUA_INTEGER_SIZE);
+        out.write(LUA_NUMBER_SIZE);
+        putLong(out, LUAC_INT);
+        putLong(out, Double.doubleToLongBits(LUAC_NUM));
+    }
+
     /**
      * 校验头部，即依次检查含签名、版本号、格式号、各种整数类型占用的字节数，以及大小端和浮点数格式识别信息等。
      *
@@ -178,9 +240,54 @@ public class BinaryChunk {
             size = (int) buf.getLong();
         }
         byte[] a = getBytes(buf, size - 1);
+        return LuaString.valueOf(a);
+    }
+
+    /**
+     * 写入字符串（null 表示 NULL，长度记为 0）
+     *
+     * @param out
+     * @param s
+     */
+    static void putLuaString(ByteArrayOutputStream out, String s) {
+        if (s == null) {
+            out.write(0);
+            return;
+        }
+        byte[] a = LuaString.getBytes(s);
+        int size = a.length + 1;
+        if (size < 0xFF) {
+            out.write(size);
+        } else {
+            out.write(0xFF);
+            // size_t
+            putLong(out, size);
+        }
+        out.write(a, 0, a.length);
+    }
 
-        // TODO
-        return new String(a);
+    /**
+     * 按小端序写入 C int
+     *
+     * @param out
+     * @param v
+     */
+    static void putInt(ByteArrayOutputStream out, int v) {
+        for (int i = 0; i < CINT_SIZE; i++) {
+            out.write(v >>> (i * 8));
+        }
+    }
+
+    /**
+     * 按小端序写入 8 字节整数（lua_Integer、size_t 以及 lua_Number 的位模式）
+     *
+     * @param out
+     * @param v
+     */
+    static void putLong(ByteArrayOutputStream out, long v) {
+        for (int i = 0; i < LUA_INTEGER_SIZE; i++) {
+            out.write((int) (v >>> (i * 8)));
+        }
     }
 
     /**
@@ -1,5 +1,6 @@
 package com.ywh.jua.chunk;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -46,4 +47,10 @@ public class LocVar {
         endPC = buf.getInt();
     }
 
+    void write(ByteArrayOutputStream out) {
+        BinaryChunk.putLuaString(out, varName);
+        BinaryChunk.putInt(out, startPC);
+        BinaryChunk.putInt(out, endPC);
+    }
+
 }
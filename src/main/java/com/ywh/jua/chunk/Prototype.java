@@ -1,6 +1,10 @@
 package com.ywh.jua.chunk;
 
+import com.ywh.jua.string.LuaString;
+
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 /**
  * 函数原型，Lua 编译器以函数为单位进行编译（自动添加一个 main 函数）。
@@ -22,6 +26,11 @@ public class Prototype {
 
     private static final int TAG_LONG_STR = 0x14;
 
+    /**
+     * 短字符串最大长度（LUAI_MAXSHORTLEN）
+     */
+    private static final int MAX_SHORT_STR_LEN = 40;
+
     /**
      * 源文件（debug），即函数的来源，记录二进制 chunk 从哪个源文件编译出来的，只有在主函数原型中该字段才有值，否则为空串；
      * 如果以“@”开头，表示该二进制 chunk 是从 Lua 源文件编译而来的，去掉“@”才是真正文件名；
@@ -89,6 +98,49 @@ public class Prototype {
      */
     private String[] upvalueNames;
 
+    /**
+     * 尚未生成的函数体（惰性编译），为 null 表示函数原型已完整。
+     * 生成结果只会被采用一次，之后由其他线程看到的 null 保证其余字段已经写入。
+     */
+    private volatile Supplier<Prototype> lazyBody;
+
+    /**
+     * 确保函数体已经生成（惰性编译的函数在首次实例化为闭包或序列化前调用）
+     *
+     * @return this
+     */
+    public Prototype load() {
+        if (lazyBody != null) {
+            synchronized (this) {
+                Supplier<Prototype> body = lazyBody;
+                if (body != null) {
+                    Prototype proto = body.get();
+                    maxStackSize = proto.maxStackSize;
+                    code = proto.code;
+                    constants = proto.constants;
+                    upvalues = proto.upvalues;
+                    protos = proto.protos;
+                    lineInfo = proto.lineInfo;
+                    locVars = proto.locVars;
+                    upvalueNames = proto.upvalueNames;
+                    for (Prototype subProto : protos) {
+                        subProto.setSource(source);
+                    }
+                    lazyBody = null;
+                }
+            }
+        }
+        return this;
+    }
+
+    public boolean isLoaded() {
+        return lazyBody == null;
+    }
+
+    public void setLazyBody(Supplier<Prototype> lazyBody) {
+        this.lazyBody = lazyBody;
+    }
+
     public String getSource() {
         return source;
     }
@@ -190,6 +242,92 @@ public class Prototype {
         readUpvalueNames(buf);
     }
 
+    /**
+     * 序列化函数原型，字段顺序与 read 一致。
+     * 与 luac 相同，子函数来源与父函数相同时不重复写入。
+     *
+     * @param out
+     * @param parentSource
+     * @param strip
+     * @param keepByValue
+     */
+    void write(ByteArrayOutputStream out, String parentSource, boolean strip, boolean keepByValue) {
+        load();
+        BinaryChunk.putLuaString(out, strip || source == null || source.equals(parentSource) ? null : source);
+        BinaryChunk.putInt(out, lineDefined);
+        BinaryChunk.putInt(out, lastLineDefined);
+        out.write(numParams);
+        out.write(isVararg);
+        out.write(maxStackSize);
+
+        BinaryChunk.putInt(out, code.length);
+        for (int inst : code) {
+            BinaryChunk.putInt(out, inst);
+        }
+
+        BinaryChunk.putInt(out, constants.length);
+        for (Object constant : constants) {
+            writeConstant(out, constant);
+        }
+
+        BinaryChunk.putInt(out, upvalues.length);
+        for (Upvalue upvalue : upvalues) {
+            upvalue.write(out, keepByValue);
+        }
+
+        BinaryChunk.putInt(out, protos.length);
+        for (Prototype proto : protos) {
+            proto.write(out, source, strip, keepByValue);
+        }
+
+        // 调试信息
+        if (strip) {
+            BinaryChunk.putInt(out, 0);
+            BinaryChunk.putInt(out, 0);
+            BinaryChunk.putInt(out, 0);
+            return;
+        }
+        BinaryChunk.putInt(out, lineInfo.length);
+        for (int line : lineInfo) {
+            BinaryChunk.putInt(out, line);
+        }
+        BinaryChunk.putInt(out, locVars.length);
+        for (LocVar locVar : locVars) {
+            locVar.write(out);
+        }
+        BinaryChunk.putInt(out, upvalueNames.length);
+        for (String name : upvalueNames) {
+            BinaryChunk.putLuaString(out, name);
+        }
+    }
+
+    /**
+     * 写入常量
+     *
+     * @param out
+     * @param constant
+     */
+    private void writeConstant(ByteArrayOutputStream out, Object constant) {
+        if (constant == null) {
+            out.write(TAG_NIL);
+        } else if (constant instanceof Boolean) {
+            out.write(TAG_BOOLEAN);
+            out.write((Boolean) constant ? 1 : 0);
+        } else if (constant instanceof Long) {
+            out.write(TAG_INTEGER);
+            BinaryChunk.putLong(out, (Long) constant);
+        } else if (constant instanceof Double) {
+            out.write(TAG_NUMBER);
+            BinaryChunk.putLong(out, Double.doubleToLongBits((Double) constant));
+        } else if (constant instanceof String) {
+            String s = (String) constant;
+            out.write(s.length() <= MAX_SHORT_STR_LEN ? TAG_SHORT_STR : TAG_LONG_STR);
+            BinaryChunk.putLuaString(out, s);
+        } else {
+            throw new RuntimeException("unknown constant type: " + constant.getClass().getName());
+        }
+    }
+
     public void setSource(String source) {
         this.source = source;
     }
@@ -284,7 +422,7 @@ public class Prototype {
                 return buf.getDouble();
             case TAG_SHORT_STR:
             case TAG_LONG_STR:
-                return BinaryChunk.getLuaString(buf);
+                return LuaString.intern(BinaryChunk.getLuaString(buf));
             default:
                 // TODO
                 throw new RuntimeException("corrupted!");
@@ -1,5 +1,6 @@
 package com.ywh.jua.chunk;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -10,6 +11,8 @@ import java.nio.ByteBuffer;
  */
 public class Upvalue {
 
+    private static final int BY_VALUE_BIT = 0x02;
+
     /**
      *
      */
@@ -20,6 +23,12 @@ public class Upvalue {
      */
     private byte idx;
 
+    /**
+     * 按值捕获（捕获的局部变量从未被重新赋值）。
+     * 序列化时放在 instack 字节的第二位，只有编译缓存写入，string.dump 的结果不带这个标记，与 luac 一致。
+     */
+    private boolean byValue;
+
     public byte getInstack() {
         return instack;
     }
@@ -36,9 +45,24 @@ public class Upvalue {
         this.idx = idx;
     }
 
+    public boolean isByValue() {
+        return byValue;
+    }
+
+    public void setByValue(boolean byValue) {
+        this.byValue = byValue;
+    }
+
     void read(ByteBuffer buf) {
-        instack = buf.get();
+        byte b = buf.get();
+        instack = (byte) (b & ~BY_VALUE_BIT);
+        byValue = (b & BY_VALUE_BIT) != 0;
         idx = buf.get();
     }
 
+    void write(ByteArrayOutputStream out, boolean keepByValue) {
+        out.write(keepByValue && byValue ? instack | BY_VALUE_BIT : instack);
+        out.write(idx);
+    }
+
 }
@@ -0,0 +1,194 @@
+package com.ywh.jua.compiler;
+
+import com.ywh.jua.chunk.BinaryChunk;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.string.LuaString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * 磁盘编译缓存（可选）
+ * 以“源码内容 + chunk 名 + 编译器版本、优化级别和延迟编译模式”的 SHA-256 作为文件名，把编译得到的函数原型以二进制 chunk 的形式保存在缓存目录；
+ * 文件内容为二进制 chunk 的摘要后接二进制 chunk 本身，读取时重新计算摘要校验，损坏的文件视为未命中。
+ * 写入时先写临时文件再原子重命名，多个进程共享同一目录也不会读到写了一半的文件。
+ *
+ * 默认关闭，可通过 setDirectory 或系统属性 jua.chunk.cache.dir 开启。
+ *
+ * @author ywh
+ * @since 2020/8/18 11:26
+ */
+public class ChunkCache {
+
+    /**
+     * 指定缓存目录的系统属性
+     */
+    public static final String DIR_PROPERTY = "jua.chunk.cache.dir";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final String SUFFIX = ".luac";
+
+    /**
+     * 缓存目录，为 null 表示不启用
+     */
+    private static volatile Path directory;
+
+    static {
+        String dir = System.getProperty(DIR_PROPERTY);
+        if (dir != null && !dir.isEmpty()) {
+            directory = Paths.get(dir);
+        }
+    }
+
+    private ChunkCache() {
+    }
+
+    /**
+     * 设置缓存目录，传入 null 关闭缓存。
+     *
+     * @param dir
+     */
+    public static void setDirectory(Path dir) {
+        directory = dir;
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 编译源码：缓存命中则直接解析缓存的二进制 chunk，否则编译并写入缓存。
+     * 未启用缓存时等同于 Compiler.compile。
+     *
+     * @param chunk
+     * @param chunkName
+     * @return
+     */
+    public static Prototype compile(byte[] chunk, String chunkName) {
+        Path dir = directory;
+        if (dir == null) {
+            return Compiler.compile(LuaString.valueOf(chunk), chunkName);
+        }
+
+        Path file = dir.resolve(key(chunk, chunkName) + SUFFIX);
+        Prototype proto = read(file);
+        if (proto == null) {
+            proto = Compiler.compile(LuaString.valueOf(chunk), chunkName);
+            write(dir, file, BinaryChunk.dump(proto, false, true));
+        }
+        return proto;
+    }
+
+    /**
+     * 计算缓存键（缓存文件名，同时用作 ProtoCache 的键）
+     *
+     * @param chunk
+     * @param chunkName
+     * @return
+     */
+    static String key(byte[] chunk, String chunkName) {
+        MessageDigest md = newDigest();
+        md.update(Compiler.VERSION.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update((byte) Compiler.getOptLevel());
+        md.update((byte) (Compiler.isLazy() ? 1 : 0));
+        md.update(chunkName.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(chunk);
+
+        StringBuilder sb = new StringBuilder(DIGEST_LENGTH * 2);
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 读取并校验缓存文件，不存在或校验失败返回 null。
+     *
+     * @param file
+     * @return
+     */
+    private static Prototype read(Path file) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            return null;
+        }
+        if (data.length > DIGEST_LENGTH) {
+            byte[] digest = Arrays.copyOf(data, DIGEST_LENGTH);
+            byte[] binChunk = Arrays.copyOfRange(data, DIGEST_LENGTH, data.length);
+            if (Arrays.equals(digest, newDigest().digest(binChunk))) {
+                try {
+                    return BinaryChunk.undump(binChunk);
+                } catch (RuntimeException e) {
+                    // 格式不兼容，按未命中处理
+                }
+            }
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // ignore
+        }
+        return null;
+    }
+
+    /**
+     * 原子写入缓存文件，写入失败不影响加载。
+     *
+     * @param dir
+     * @param file
+     * @param binChunk
+     */
+    private static void write(Path dir, Path file, byte[] binChunk) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            byte[] digest = newDigest().digest(binChunk);
+            byte[] data = Arrays.copyOf(digest, DIGEST_LENGTH + binChunk.length);
+            System.arraycopy(binChunk, 0, data, DIGEST_LENGTH, binChunk.length);
+            Files.write(tmp, data);
+            try {
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -4,8 +4,11 @@ package com.ywh.jua.compiler;
 import com.ywh.jua.chunk.Prototype;
 import com.ywh.jua.compiler.ast.Block;
 import com.ywh.jua.compiler.codegen.CodeGen;
+import com.ywh.jua.compiler.parser.AstOptimizer;
 import com.ywh.jua.compiler.parser.Parser;
 
+import java.io.Reader;
+
 /**
  * 编译器
  *
@@ -14,6 +17,52 @@ import com.ywh.jua.compiler.parser.Parser;
  */
 public class Compiler {
 
+    /**
+     * 编译器版本，代码生成的结果发生变化时需要更新（用作编译缓存键的一部分）
+     */
+    public static final String VERSION = "jua-5.3.5-alpha.5";
+
+    /**
+     * 指定 AST 优化级别的系统属性（见 AstOptimizer）
+     */
+    public static final String OPT_LEVEL_PROPERTY = "jua.opt.level";
+
+    private static volatile int optLevel = Integer.getInteger(OPT_LEVEL_PROPERTY, AstOptimizer.LEVEL_INLINE);
+
+    /**
+     * 开启惰性编译的系统属性：嵌套函数在首次实例化为闭包时才生成代码，
+     * 适合定义了大量函数但每次只调用其中少数几个的大型模块（函数体中的部分编译错误也会推迟到那时报告）。
+     */
+    public static final String LAZY_PROPERTY = "jua.lazy.compile";
+
+    private static volatile boolean lazy = Boolean.getBoolean(LAZY_PROPERTY);
+
+    /**
+     * 设置是否惰性编译嵌套函数
+     *
+     * @param enabled
+     */
+    public static void setLazy(boolean enabled) {
+        lazy = enabled;
+    }
+
+    public static boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * 设置 AST 优化级别
+     *
+     * @param level
+     */
+    public static void setOptLevel(int level) {
+        optLevel = level;
+    }
+
+    public static int getOptLevel() {
+        return optLevel;
+    }
+
     /**
      * 编译
      *
@@ -22,8 +71,22 @@ public class Compiler {
      * @return
      */
     public static Prototype compile(String chunk, String chunkName) {
-        Block ast = Parser.parse(chunk, chunkName);
-        Prototype proto = CodeGen.genProto(ast);
+        return compile(Parser.parse(chunk, chunkName), chunkName);
+    }
+
+    /**
+     * 编译（从 Reader 中按块读取源码，无需一次性读入整个文件）
+     *
+     * @param reader
+     * @param chunkName
+     * @return
+     */
+    public static Prototype compile(Reader reader, String chunkName) {
+        return compile(Parser.parse(reader, chunkName), chunkName);
+    }
+
+    private static Prototype compile(Block ast, String chunkName) {
+        Prototype proto = CodeGen.genProto(AstOptimizer.optimize(ast, optLevel), lazy);
         setSource(proto, chunkName);
         return proto;
     }
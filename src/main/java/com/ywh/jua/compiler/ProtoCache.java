@@ -0,0 +1,102 @@
+package com.ywh.jua.compiler;
+
+import com.ywh.jua.chunk.Prototype;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 进程级函数原型缓存（可选）
+ * 函数原型在编译完成后不再修改，可以在多个 LuaState 之间共享，新建的 LuaState 只需实例化闭包和 Upvalue。
+ * 以 chunk 名、编译选项（编译器版本、优化级别、延迟编译）和 chunk 内容的 SHA-256 摘要为键，不保留源码本身；
+ * 按 LRU 淘汰，超过容量时移除最久未使用的原型。
+ *
+ * 默认关闭，可通过 setMaxSize 或系统属性 jua.proto.cache.size 设置容量开启，为 0 表示不缓存。
+ *
+ * @author ywh
+ * @since 2020/8/18 11:26
+ */
+public class ProtoCache {
+
+    /**
+     * 指定容量的系统属性
+     */
+    public static final String SIZE_PROPERTY = "jua.proto.cache.size";
+
+    private static final int DEFAULT_MAX_SIZE = 0;
+
+    private static volatile int maxSize = Integer.getInteger(SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+
+    /**
+     * 按访问顺序排列的缓存，所有访问都在其监视器上同步。
+     */
+    private static final LinkedHashMap<String, Prototype> CACHE = new LinkedHashMap<String, Prototype>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Prototype> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private ProtoCache() {
+    }
+
+    /**
+     * 设置容量（会立即淘汰多出的原型）
+     *
+     * @param size
+     */
+    public static void setMaxSize(int size) {
+        synchronized (CACHE) {
+            maxSize = Math.max(size, 0);
+            while (CACHE.size() > maxSize) {
+                CACHE.remove(CACHE.keySet().iterator().next());
+            }
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * 取缓存的原型，未命中则调用 loader 生成并放入缓存。
+     * loader 在锁外执行，并发未命中时同一 chunk 可能被重复编译，但只有一个结果保留在缓存中。
+     *
+     * @param chunk     chunk 内容（源码或二进制 chunk）
+     * @param chunkName
+     * @param loader
+     * @return
+     */
+    public static Prototype get(byte[] chunk, String chunkName, Supplier<Prototype> loader) {
+        if (maxSize <= 0) {
+            return loader.get();
+        }
+        String key = ChunkCache.key(chunk, chunkName);
+        synchronized (CACHE) {
+            Prototype proto = CACHE.get(key);
+            if (proto != null) {
+                return proto;
+            }
+        }
+        Prototype proto = loader.get();
+        synchronized (CACHE) {
+            Prototype cached = CACHE.putIfAbsent(key, proto);
+            return cached != null ? cached : proto;
+        }
+    }
+
+}
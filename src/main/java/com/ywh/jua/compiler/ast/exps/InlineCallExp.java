@@ -0,0 +1,63 @@
+package com.ywh.jua.compiler.ast.exps;
+
+import com.ywh.jua.compiler.ast.BaseExp;
+
+import java.util.List;
+
+/**
+ * 内联函数调用表达式（由优化器生成）
+ * 相当于在调用处声明参数对应的局部变量并求值函数体的返回表达式：
+ *
+ * f(a, b) => (local x, y = a, b; <exp>)
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class InlineCallExp extends BaseExp {
+
+    /**
+     * 形参列表
+     */
+    private List<String> parList;
+
+    /**
+     * 实参列表
+     */
+    private List<BaseExp> args;
+
+    /**
+     * 函数体的返回表达式
+     */
+    private BaseExp exp;
+
+    public InlineCallExp(int line, List<String> parList, List<BaseExp> args, BaseExp exp) {
+        setLine(line);
+        this.parList = parList;
+        this.args = args;
+        this.exp = exp;
+    }
+
+    public List<String> getParList() {
+        return parList;
+    }
+
+    public void setParList(List<String> parList) {
+        this.parList = parList;
+    }
+
+    public List<BaseExp> getArgs() {
+        return args;
+    }
+
+    public void setArgs(List<BaseExp> args) {
+        this.args = args;
+    }
+
+    public BaseExp getExp() {
+        return exp;
+    }
+
+    public void setExp(BaseExp exp) {
+        this.exp = exp;
+    }
+}
@@ -4,10 +4,13 @@ package com.ywh.jua.compiler.ast.exps;
 import com.ywh.jua.compiler.ast.BaseExp;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * 表构造表达式
+ * 数据型 chunk 中绝大多数字段都是字面量，为每个字段创建两个节点对象的开销远大于源码本身，因此字段采用紧凑存储：
+ * 每个字段占键、值两个槽位，槽位的类型、数值（整数、浮点数的位模式或引用下标）和行号分别保存在基本类型数组中，
+ * 只有字符串和非字面量表达式才放入引用表。读取字段时按需创建字面量节点（短命对象）。
  *
  * @author ywh
  * @since 2020/8/25 11:26
@@ -15,37 +18,204 @@ import java.util.List;
 public class TableConstructorExp extends BaseExp {
 
     /**
-     * 键列表
+     * 槽位类型：无键（数组部分）
      */
-    private List<BaseExp> keyExps = new ArrayList<>();
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_NIL = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_TRUE = 3;
+    private static final byte TAG_INTEGER = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_STRING = 6;
 
     /**
-     * 值列表
+     * 槽位类型：非字面量表达式节点
      */
-    private List<BaseExp> valExps = new ArrayList<>();
+    private static final byte TAG_NODE = 7;
 
-    public List<BaseExp> getKeyExps() {
-        return keyExps;
+    private static final int INIT_SLOTS = 8;
+
+    /**
+     * 字段个数
+     */
+    private int size;
+
+    /**
+     * 槽位类型，字段 i 的键和值分别位于 2i 和 2i+1
+     */
+    private byte[] tags = new byte[INIT_SLOTS];
+
+    /**
+     * 槽位数值：整数值、浮点数的位模式，或者字符串、节点在引用表中的下标
+     */
+    private long[] bits = new long[INIT_SLOTS];
+
+    /**
+     * 槽位行号
+     */
+    private int[] lines = new int[INIT_SLOTS];
+
+    /**
+     * 引用表（字符串和节点）
+     */
+    private ArrayList<Object> refs = new ArrayList<>();
+
+    /**
+     * 字段个数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
     }
 
-    public void setKeyExps(List<BaseExp> keyExps) {
-        this.keyExps = keyExps;
+    /**
+     * 是否数组部分的字段（无键）
+     *
+     * @param i
+     * @return
+     */
+    public boolean isArrayField(int i) {
+        return tags[2 * i] == TAG_NONE;
     }
 
-    public List<BaseExp> getValExps() {
-        return valExps;
+    /**
+     * 键是否非字面量表达式（字面量不需要解析和优化）
+     *
+     * @param i
+     * @return
+     */
+    public boolean hasKeyNode(int i) {
+        return tags[2 * i] == TAG_NODE;
     }
 
-    public void setValExps(List<BaseExp> valExps) {
-        this.valExps = valExps;
+    /**
+     * 值是否非字面量表达式
+     *
+     * @param i
+     * @return
+     */
+    public boolean hasValNode(int i) {
+        return tags[2 * i + 1] == TAG_NODE;
+    }
+
+    /**
+     * 取键，数组部分的字段返回 null
+     *
+     * @param i
+     * @return
+     */
+    public BaseExp getKeyExp(int i) {
+        return get(2 * i);
+    }
+
+    public BaseExp getValExp(int i) {
+        return get(2 * i + 1);
+    }
+
+    public void setKeyExp(int i, BaseExp key) {
+        put(2 * i, key);
+    }
+
+    public void setValExp(int i, BaseExp val) {
+        put(2 * i + 1, val);
     }
 
+    /**
+     * 添加字段的键（数组部分传入 null），随后调用 addVal 添加值
+     *
+     * @param key
+     */
     public void addKey(BaseExp key) {
-        keyExps.add(key);
+        if (2 * size == tags.length) {
+            int n = tags.length * 2;
+            tags = Arrays.copyOf(tags, n);
+            bits = Arrays.copyOf(bits, n);
+            lines = Arrays.copyOf(lines, n);
+        }
+        size++;
+        put(2 * size - 2, key);
     }
 
     public void addVal(BaseExp val) {
-        valExps.add(val);
+        put(2 * size - 1, val);
+    }
+
+    /**
+     * 释放多余的容量（解析完成后调用）
+     */
+    public void trimToSize() {
+        tags = Arrays.copyOf(tags, 2 * size);
+        bits = Arrays.copyOf(bits, 2 * size);
+        lines = Arrays.copyOf(lines, 2 * size);
+        refs.trimToSize();
+    }
+
+    private BaseExp get(int slot) {
+        int line = lines[slot];
+        switch (tags[slot]) {
+            case TAG_NIL:
+                return new NilExp(line);
+            case TAG_FALSE:
+                return new FalseExp(line);
+            case TAG_TRUE:
+                return new TrueExp(line);
+            case TAG_INTEGER:
+                return new IntegerExp(line, bits[slot]);
+            case TAG_FLOAT:
+                return new FloatExp(line, Double.longBitsToDouble(bits[slot]));
+            case TAG_STRING:
+                return new StringExp(line, (String) refs.get((int) bits[slot]));
+            case TAG_NODE:
+                return (BaseExp) refs.get((int) bits[slot]);
+            default:
+                return null;
+        }
+    }
+
+    private void put(int slot, BaseExp exp) {
+        byte oldTag = tags[slot];
+        int ref = oldTag == TAG_STRING || oldTag == TAG_NODE ? (int) bits[slot] : -1;
+        Object obj = null;
+        long val = 0;
+        byte tag;
+        if (exp == null) {
+            tag = TAG_NONE;
+        } else if (exp instanceof NilExp) {
+            tag = TAG_NIL;
+        } else if (exp instanceof FalseExp) {
+            tag = TAG_FALSE;
+        } else if (exp instanceof TrueExp) {
+            tag = TAG_TRUE;
+        } else if (exp instanceof IntegerExp) {
+            tag = TAG_INTEGER;
+            val = ((IntegerExp) exp).getVal();
+        } else if (exp instanceof FloatExp) {
+            tag = TAG_FLOAT;
+            val = Double.doubleToRawLongBits(((FloatExp) exp).getVal());
+        } else if (exp instanceof StringExp) {
+            tag = TAG_STRING;
+            obj = ((StringExp) exp).getStr();
+        } else {
+            tag = TAG_NODE;
+            obj = exp;
+        }
+
+        if (obj != null) {
+            // 复用原来的引用槽位
+            if (ref >= 0) {
+                refs.set(ref, obj);
+            } else {
+                ref = refs.size();
+                refs.add(obj);
+            }
+            val = ref;
+        } else if (ref >= 0) {
+            refs.set(ref, null);
+        }
+        tags[slot] = tag;
+        bits[slot] = val;
+        lines[slot] = exp != null ? exp.getLine() : 0;
     }
 
 }
@@ -28,6 +28,11 @@ public class LocalVarDeclStat extends BaseStat {
      */
     private List<BaseExp> expList;
 
+    /**
+     * 声明之后从未被赋值（包括在闭包中）的变量，由 AST 优化器标记；闭包可以按值捕获这些变量。
+     */
+    private boolean[] constVars;
+
     public LocalVarDeclStat(int lastLine, List<String> nameList, List<BaseExp> expList) {
         setLastLine(lastLine);
         this.nameList = nameList != null ? nameList : Collections.emptyList();
@@ -49,4 +54,12 @@ public class LocalVarDeclStat extends BaseStat {
     public void setExpList(List<BaseExp> expList) {
         this.expList = expList;
     }
+
+    public boolean isConstVar(int i) {
+        return constVars != null && constVars[i];
+    }
+
+    public void setConstVars(boolean[] constVars) {
+        this.constVars = constVars;
+    }
 }
@@ -13,15 +13,29 @@ import com.ywh.jua.compiler.ast.exps.FuncDefExp;
 public class CodeGen {
 
     public static Prototype genProto(Block chunk) {
+        return genProto(chunk, false);
+    }
+
+    /**
+     * 生成主函数原型
+     *
+     * @param chunk
+     * @param lazy  是否惰性编译嵌套函数（主函数总是立即生成）
+     * @return
+     */
+    public static Prototype genProto(Block chunk, boolean lazy) {
         FuncDefExp fd = new FuncDefExp();
         fd.setLastLine(chunk.getLastLine());
         fd.setVararg(true);
         fd.setBlock(chunk);
 
         FuncInfo fi = new FuncInfo(null, fd);
+        fi.lazy = lazy;
         fi.addLocVar("_ENV", 0);
-        ExpProcessor.processFuncDefExp(fi, fd, 0);
-        return Fi2Proto.toProto(fi.subFuncs.get(0));
+        FuncInfo mainFI = new FuncInfo(fi, fd);
+        fi.subFuncs.add(mainFI);
+        ExpProcessor.processFuncBody(mainFI, fd);
+        return Fi2Proto.toProto(mainFI);
     }
 
 }
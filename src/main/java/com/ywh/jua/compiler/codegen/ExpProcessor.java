@@ -2,6 +2,7 @@ package com.ywh.jua.compiler.codegen;
 
 import com.ywh.jua.compiler.ast.BaseExp;
 import com.ywh.jua.compiler.ast.exps.*;
+import com.ywh.jua.compiler.ast.stats.LocalVarDeclStat;
 import com.ywh.jua.vm.OpCode;
 
 import java.util.Collections;
@@ -82,9 +83,26 @@ class ExpProcessor {
             processTableAccessExp(fi, (TableAccessExp) node, a);
         } else if (node instanceof FuncCallExp) {
             processFuncCallExp(fi, (FuncCallExp) node, a, n);
+        } else if (node instanceof InlineCallExp) {
+            processInlineCallExp(fi, (InlineCallExp) node, a);
         }
     }
 
+    /**
+     * 处理内联函数调用表达式
+     * 在新的作用域中把实参赋给以形参命名的局部变量（位于目标寄存器之上），再把返回表达式的值写入目标寄存器。
+     *
+     * @param fi
+     * @param node
+     * @param a
+     */
+    private static void processInlineCallExp(FuncInfo fi, InlineCallExp node, int a) {
+        fi.enterScope(false);
+        StatProcessor.processStat(fi, new LocalVarDeclStat(node.getLine(), node.getParList(), node.getArgs()));
+        processExp(fi, node.getExp(), a, 1);
+        fi.exitScope(fi.pc() + 1);
+    }
+
     /**
      * 处理 Vararg 表达式
      *
@@ -113,18 +131,32 @@ class ExpProcessor {
         FuncInfo subFI = new FuncInfo(fi, node);
         fi.subFuncs.add(subFI);
 
+        if (fi.lazy) {
+            UpvalResolver.resolve(subFI, node);
+        } else {
+            processFuncBody(subFI, node);
+        }
+
+        int bx = fi.subFuncs.size() - 1;
+        fi.emitClosure(node.getLastLine(), a, bx);
+    }
+
+    /**
+     * 生成函数体
+     *
+     * @param fi
+     * @param node
+     */
+    static void processFuncBody(FuncInfo fi, FuncDefExp node) {
         if (node.getParList() != null) {
             for (String param : node.getParList()) {
-                subFI.addLocVar(param, 0);
+                fi.addLocVar(param, 0);
             }
         }
 
-        processBlock(subFI, node.getBlock());
-        subFI.exitScope(subFI.pc() + 2);
-        subFI.emitReturn(node.getLastLine(), 0, 0);
-
-        int bx = fi.subFuncs.size() - 1;
-        fi.emitClosure(node.getLastLine(), a, bx);
+        processBlock(fi, node.getBlock());
+        fi.exitScope(fi.pc() + 2);
+        fi.emitReturn(node.getLastLine(), 0, 0);
     }
 
     /**
@@ -136,20 +168,21 @@ class ExpProcessor {
      */
     private static void processTableConstructorExp(FuncInfo fi, TableConstructorExp node, int a) {
         int nArr = 0;
-        for (BaseExp keyExp : node.getKeyExps()) {
-            if (keyExp == null) {
+        int nExps = node.size();
+        for (int i = 0; i < nExps; i++) {
+            if (node.isArrayField(i)) {
                 nArr++;
             }
         }
-        int nExps = node.getKeyExps().size();
-        boolean multRet = nExps > 0 && ExpHelper.isVarargOrFuncCall(node.getValExps().get(nExps - 1));
+        boolean multRet = nExps > 0 && ExpHelper.isVarargOrFuncCall(node.getValExp(nExps - 1));
 
         fi.emitNewTable(node.getLine(), a, nArr, nExps - nArr);
 
         int arrIdx = 0;
-        for (int i = 0; i < node.getKeyExps().size(); i++) {
-            BaseExp keyExp = node.getKeyExps().get(i);
-            BaseExp valExp = node.getValExps().get(i);
+        for (int i = 0; i < nExps; i++) {
+            // 字面量字段在这里才创建节点，用完即可回收
+            BaseExp keyExp = node.getKeyExp(i);
+            BaseExp valExp = node.getValExp(i);
 
             if (keyExp == null) {
                 arrIdx++;
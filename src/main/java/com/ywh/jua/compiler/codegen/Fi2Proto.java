@@ -3,6 +3,8 @@ package com.ywh.jua.compiler.codegen;
 import com.ywh.jua.chunk.LocVar;
 import com.ywh.jua.chunk.Prototype;
 import com.ywh.jua.chunk.Upvalue;
+import com.ywh.jua.compiler.ast.exps.FuncDefExp;
+import com.ywh.jua.string.LuaString;
 
 import java.util.List;
 
@@ -21,6 +23,10 @@ class Fi2Proto {
      * @return
      */
     static Prototype toProto(FuncInfo fi) {
+        if (fi.pendingBody != null) {
+            return toLazyProto(fi);
+        }
+        Peephole.optimize(fi);
         Prototype proto = new Prototype();
         proto.setLineDefined(fi.line);
         proto.setLastLineDefined(fi.lastLine);
@@ -49,13 +55,38 @@ class Fi2Proto {
         return proto;
     }
 
+    /**
+     * 转换惰性编译的函数：Upvalue 表已经确定，函数体在首次实例化时生成
+     *
+     * @param fi
+     * @return
+     */
+    private static Prototype toLazyProto(FuncInfo fi) {
+        Prototype proto = new Prototype();
+        proto.setLineDefined(fi.line);
+        proto.setLastLineDefined(fi.lastLine);
+        proto.setNumParams((byte) fi.numParams);
+        proto.setIsVararg((byte) (fi.isVararg ? 1 : 0));
+        proto.setUpvalues(getUpvalues(fi));
+        proto.setUpvalueNames(getUpvalueNames(fi));
+        proto.setProtos(new Prototype[0]);
+        proto.setLazyBody(() -> {
+            FuncDefExp body = fi.pendingBody;
+            fi.pendingBody = null;
+            ExpProcessor.processFuncBody(fi, body);
+            return toProto(fi);
+        });
+        return proto;
+    }
+
     private static Prototype[] toProtos(List<FuncInfo> fis) {
         return fis.stream().map(Fi2Proto::toProto).toArray(Prototype[]::new);
     }
 
     private static Object[] getConstants(FuncInfo fi) {
         Object[] consts = new Object[fi.constants.size()];
-        fi.constants.forEach((c, idx) -> consts[idx] = c);
+        // 常量折叠等产生的字符串也需要驻留
+        fi.constants.forEach((c, idx) -> consts[idx] = c instanceof String ? LuaString.intern((String) c) : c);
         return consts;
     }
 
@@ -81,6 +112,7 @@ class Fi2Proto {
             if (uvInfo.locVarSlot >= 0) {
                 upval.setInstack((byte) 1);
                 upval.setIdx((byte) uvInfo.locVarSlot);
+                upval.setByValue(uvInfo.byValue);
             } else {
                 upval.setInstack((byte) 0);
                 upval.setIdx((byte) uvInfo.upvalIndex);
@@ -53,6 +53,11 @@ class FuncInfo {
          *  Upvalue 再函数中出现的顺序。
          */
         int index;
+
+        /**
+         * 捕获的局部变量从未被重新赋值，实例化闭包时直接复制值，不需要开放 Upvalue。
+         */
+        boolean byValue;
     }
 
     /**
@@ -100,6 +105,11 @@ class FuncInfo {
          * 是否被闭包捕获
          */
         boolean captured;
+
+        /**
+         * 声明之后是否从未被赋值（可以按值捕获）
+         */
+        boolean immutable;
     }
 
     /**
@@ -174,8 +184,19 @@ class FuncInfo {
      */
     boolean isVararg;
 
+    /**
+     * 是否惰性编译子函数：子函数只解析 Upvalue，函数体在首次实例化时才生成（子函数继承该设置）
+     */
+    boolean lazy;
+
+    /**
+     * 尚未生成代码的函数体（惰性编译），为 null 表示已生成
+     */
+    FuncDefExp pendingBody;
+
     FuncInfo(FuncInfo parent, FuncDefExp fd) {
         this.parent = parent;
+        lazy = parent != null && parent.lazy;
         line = fd.getLine();
         lastLine = fd.getLastLine();
         numParams = fd.getParList() != null ? fd.getParList().size() : 0;
@@ -348,6 +369,15 @@ class FuncInfo {
         return newVar.slot;
     }
 
+    /**
+     * 标记当前作用域中的局部变量从未被重新赋值
+     *
+     * @param name
+     */
+    void markImmutable(String name) {
+        locNames.get(name).immutable = true;
+    }
+
     /**
      * 检查局部变量名是否已经和某个寄存器绑定，是则返回寄存器索引，否则返回 -1。
      *
@@ -378,6 +408,13 @@ class FuncInfo {
 
     /* upvalues */
 
+    /**
+     * 断开与父函数的关联（惰性编译的函数在 Upvalue 解析完毕后，父函数的状态不再有效）
+     */
+    void detachParent() {
+        parent = null;
+    }
+
     /**
      * 判断名字是否已经与 Upvalue 绑定，是则返回 Upvalue 索引，否则尝试绑定然后返回索引，绑定失败返回 -1。
      *
@@ -396,7 +433,10 @@ class FuncInfo {
                 upval.locVarSlot = locVar.slot;
                 upval.upvalIndex = -1;
                 upval.index = idx;
+                upval.byValue = locVar.immutable;
                 upvalues.put(name, upval);
+                // 按值捕获的变量在 Jua 中不需要闭合，但 string.dump 的结果不带按值捕获标记，
+                // 官方实现加载后仍按引用捕获，需要在离开作用域时闭合
                 locVar.captured = true;
                 return idx;
             }
@@ -0,0 +1,935 @@
+package com.ywh.jua.compiler.codegen;
+
+import com.ywh.jua.vm.OpCode;
+
+import java.util.BitSet;
+
+import static com.ywh.jua.vm.Instruction.*;
+import static com.ywh.jua.vm.OpCode.*;
+
+/**
+ * 窥孔优化
+ * 在 Fi2Proto 生成函数原型之前，对 FuncInfo 中已生成的指令做局部优化，同步维护行号表和局部变量的起止 pc：
+ *      跳转线程化：跳转到无条件跳转的跳转直接跳到最终目标，删除跳到下一条指令的跳转；
+ *      分支合并与反转：比较指令生成的布尔值只被 TEST 使用时直接用比较指令跳转，“条件跳过 + 跳转 + 跳转”反转条件；
+ *      复制传播与死存储消除：消除临时寄存器上的 MOVE、LOADK 以及不会被读取的赋值和函数开头多余的 LOADNIL。
+ * 寄存器活跃性通过数据流分析得到，被闭包捕获的局部变量所在的寄存器视为始终活跃，不参与优化。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+class Peephole {
+
+    /**
+     * RK 操作数中常量的标记位
+     */
+    private static final int BIT_RK = 0x100;
+
+    /**
+     * 寄存器数量上限
+     */
+    private static final int MAX_REGS = 256;
+
+    /**
+     * 最大优化轮数
+     */
+    private static final int MAX_ROUNDS = 8;
+
+    private final FuncInfo fi;
+
+    private int[] code;
+
+    private int[] lines;
+
+    private int n;
+
+    private boolean[] removed;
+
+    /**
+     * 被闭包捕获的寄存器
+     */
+    private final BitSet captured = new BitSet();
+
+    /**
+     * 每条指令除顺序执行以外的入口数量（跳转目标、条件跳过的目标）
+     */
+    private int[] entries;
+
+    /**
+     * 每条指令执行后活跃的寄存器
+     */
+    private BitSet[] liveOut;
+
+    /**
+     * 本轮已被修改、活跃性信息已失效的寄存器
+     */
+    private final BitSet dirty = new BitSet();
+
+    private Peephole(FuncInfo fi) {
+        this.fi = fi;
+        n = fi.insts.size();
+        code = new int[n];
+        lines = new int[n];
+        removed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            code[i] = fi.insts.get(i);
+            lines[i] = fi.lineNums.get(i);
+        }
+        for (FuncInfo.LocVarInfo locVar : fi.locVars) {
+            if (locVar.captured) {
+                captured.set(locVar.slot);
+            }
+        }
+        for (FuncInfo sub : fi.subFuncs) {
+            for (FuncInfo.UpvalInfo uv : sub.upvalues.values()) {
+                if (uv.locVarSlot >= 0) {
+                    captured.set(uv.locVarSlot);
+                }
+            }
+        }
+    }
+
+    /**
+     * 优化函数的指令
+     *
+     * @param fi
+     */
+    static void optimize(FuncInfo fi) {
+        new Peephole(fi).run();
+    }
+
+    private void run() {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = optimizeJumps();
+            changed |= compact();
+            changed |= optimizeRegisters();
+            changed |= compact();
+            if (!changed) {
+                break;
+            }
+        }
+        fi.insts.clear();
+        fi.lineNums.clear();
+        for (int i = 0; i < n; i++) {
+            fi.insts.add(code[i]);
+            fi.lineNums.add(lines[i]);
+        }
+    }
+
+    // ========== 控制流优化 ==========
+
+    /**
+     * 跳转线程化、删除空跳转、反转条件
+     *
+     * @return
+     */
+    private boolean optimizeJumps() {
+        boolean changed = false;
+
+        // 跳转到无条件跳转（不闭合 Upvalue）的跳转，直接跳到最终目标。
+        for (int i = 0; i < n; i++) {
+            if (getOpCode(code[i]) != JMP) {
+                continue;
+            }
+            int target = target(i);
+            for (int hops = 0; hops < n && target < n && target != i; hops++) {
+                int t = code[target];
+                if (getOpCode(t) != JMP || getA(t) != 0) {
+                    break;
+                }
+                target = target(target);
+            }
+            if (target != target(i)) {
+                code[i] = setSBx(code[i], target - i - 1);
+                changed = true;
+            }
+        }
+
+        computeEntries();
+        for (int i = 0; i < n; i++) {
+            if (removed[i]) {
+                continue;
+            }
+            OpCode op = getOpCode(code[i]);
+
+            // JMP 0 0：跳到下一条指令
+            if (op == JMP && getA(code[i]) == 0 && getSBx(code[i]) == 0 && !isBound(i)) {
+                removed[i] = true;
+                changed = true;
+                continue;
+            }
+
+            // test; JMP L1; JMP L2; L1: => !test; JMP L2; L1:
+            if ((op == EQ || op == LT || op == LE || op == TEST) && i + 3 < n
+                && isJmp(i + 1) && getA(code[i + 1]) == 0 && target(i + 1) == i + 3
+                && isJmp(i + 2) && entries[i + 1] == 0 && entries[i + 2] == 1) {
+                code[i] = op == TEST ? setC(code[i], 1 - getC(code[i])) : setA(code[i], 1 - getA(code[i]));
+                removed[i + 1] = true;
+                changed = true;
+                i += 2;
+            }
+        }
+        return changed;
+    }
+
+    // ========== 寄存器优化 ==========
+
+    /**
+     * 基于活跃性分析的优化；同一轮中修改过的寄存器不再参与优化，留待下一轮重新分析。
+     *
+     * @return
+     */
+    private boolean optimizeRegisters() {
+        computeEntries();
+        computeLiveness();
+        dirty.clear();
+        boolean changed = false;
+
+        // 函数开头的 LOADNIL：固定参数以外的寄存器在调用时已经是 nil。
+        for (int i = 0; i < n && getOpCode(code[i]) == LOADNIL && entries[i] == 0; i++) {
+            if (getA(code[i]) >= fi.numParams) {
+                removed[i] = true;
+                changed = true;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (removed[i]) {
+                continue;
+            }
+            changed |= fuseCompare(i) || constantTest(i) || mergeLoadNil(i) || coalesceMove(i)
+                || propagateCopy(i) || removeDeadStore(i);
+        }
+        return changed;
+    }
+
+    /**
+     * 比较结果只用于条件跳转：
+     * EQ A B C; JMP 1; LOADBOOL r 0 1; LOADBOOL r 1 0; TEST r c; JMP L => EQ A' B C; JMP L
+     *
+     * @param i
+     * @return
+     */
+    private boolean fuseCompare(int i) {
+        OpCode op = getOpCode(code[i]);
+        if ((op != EQ && op != LT && op != LE) || i + 5 >= n) {
+            return false;
+        }
+        int r = getA(code[i + 2]);
+        if (!isJmp(i + 1) || getA(code[i + 1]) != 0 || getSBx(code[i + 1]) != 1
+            || !is(i + 2, LOADBOOL) || getB(code[i + 2]) != 0 || getC(code[i + 2]) == 0
+            || !is(i + 3, LOADBOOL) || getA(code[i + 3]) != r || getB(code[i + 3]) == 0 || getC(code[i + 3]) != 0
+            || !is(i + 4, TEST) || getA(code[i + 4]) != r || !isJmp(i + 5)
+            || entries[i + 1] != 0 || entries[i + 2] != 1 || entries[i + 3] != 1 || entries[i + 4] != 1
+            || entries[i + 5] != 0 || !isDead(r, i + 4)) {
+            return false;
+        }
+        int c = getC(code[i + 4]) != 0 ? 1 : 0;
+        code[i] = setA(code[i], getA(code[i]) == c ? 1 : 0);
+        for (int k = i + 1; k <= i + 4; k++) {
+            removed[k] = true;
+        }
+        dirty.set(r);
+        return true;
+    }
+
+    /**
+     * 对常量布尔值的条件跳转：LOADBOOL r b 0; TEST r c; JMP L => JMP L 或者直接删除
+     *
+     * @param i
+     * @return
+     */
+    private boolean constantTest(int i) {
+        if (!is(i, LOADBOOL) || getC(code[i]) != 0 || i + 2 >= n || isBound(i)) {
+            return false;
+        }
+        int r = getA(code[i]);
+        if (!is(i + 1, TEST) || getA(code[i + 1]) != r || !isJmp(i + 2)
+            || entries[i + 1] != 0 || entries[i + 2] != 0 || !isDead(r, i + 1)) {
+            return false;
+        }
+        boolean jump = (getB(code[i]) != 0) == (getC(code[i + 1]) != 0);
+        if (jump) {
+            code[i] = setSBx(code[i + 2], target(i + 2) - i - 1);
+        } else {
+            removed[i] = true;
+        }
+        removed[i + 1] = true;
+        removed[i + 2] = true;
+        dirty.set(r);
+        return true;
+    }
+
+    /**
+     * 合并相邻的 LOADNIL：LOADNIL a b; LOADNIL a+b+1 b2 => LOADNIL a b+b2+1
+     *
+     * @param i
+     * @return
+     */
+    private boolean mergeLoadNil(int i) {
+        if (!is(i, LOADNIL) || i + 1 >= n || !is(i + 1, LOADNIL) || entries[i + 1] != 0) {
+            return false;
+        }
+        int a = getA(code[i]);
+        int b = getB(code[i]);
+        if (getA(code[i + 1]) != a + b + 1) {
+            return false;
+        }
+        code[i] = setB(code[i], b + getB(code[i + 1]) + 1);
+        removed[i + 1] = true;
+        return true;
+    }
+
+    /**
+     * 结果先写入临时寄存器再复制：OP r ...; MOVE x r => OP x ...
+     *
+     * @param i
+     * @return
+     */
+    private boolean coalesceMove(int i) {
+        if (i + 1 >= n || !is(i + 1, MOVE) || !isSingleDef(i) || entries[i + 1] != 0) {
+            return false;
+        }
+        int r = getA(code[i]);
+        int x = getA(code[i + 1]);
+        if (getB(code[i + 1]) != r || x == r || !isDead(r, i + 1) || dirty.get(x)) {
+            return false;
+        }
+        code[i] = setA(code[i], x);
+        removed[i + 1] = true;
+        dirty.set(r);
+        dirty.set(x);
+        return true;
+    }
+
+    /**
+     * 复制（常量）传播：MOVE r s（或 LOADK r k）; ...; OP ... r ... => OP ... s（或 k） ...
+     * r 只被后面同一基本块中的一条指令读取，且中间 s 没有被修改。
+     *
+     * @param i
+     * @return
+     */
+    private boolean propagateCopy(int i) {
+        OpCode op = getOpCode(code[i]);
+        int r = getA(code[i]);
+        int src;
+        if (op == MOVE) {
+            src = getB(code[i]);
+            if (captured.get(src) || dirty.get(src) || src == r) {
+                return false;
+            }
+        } else if (op == LOADK && getBx(code[i]) < BIT_RK) {
+            src = BIT_RK | getBx(code[i]);
+        } else {
+            return false;
+        }
+        if (captured.get(r) || dirty.get(r) || isBound(i)) {
+            return false;
+        }
+
+        // 在同一基本块中找到第一条读取 r 的指令
+        BitSet use = new BitSet();
+        BitSet def = new BitSet();
+        for (int j = i + 1; j < n; j++) {
+            if (removed[j]) {
+                continue;
+            }
+            if (entries[j] != 0) {
+                return false;
+            }
+            use.clear();
+            def.clear();
+            useDef(j, use, def, new BitSet());
+            if (use.get(r)) {
+                int replaced = replaceUse(code[j], r, src);
+                if (replaced == code[j] || (!def.get(r) && !isDead(r, j))) {
+                    return false;
+                }
+                code[j] = replaced;
+                removed[i] = true;
+                dirty.set(r);
+                if (src < BIT_RK) {
+                    dirty.set(src);
+                }
+                return true;
+            }
+            if (def.get(r) || src < BIT_RK && def.get(src) || isBranch(j)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 删除结果不会被读取、且没有副作用的指令
+     *
+     * @param i
+     * @return
+     */
+    private boolean removeDeadStore(int i) {
+        OpCode op = getOpCode(code[i]);
+        if (op != MOVE && op != LOADK && op != LOADNIL && op != GETUPVAL && op != NOT && op != NEWTABLE
+            && !(op == LOADBOOL && getC(code[i]) == 0)) {
+            return false;
+        }
+        if (isBound(i)) {
+            return false;
+        }
+        int a = getA(code[i]);
+        int last = op == LOADNIL ? a + getB(code[i]) : a;
+        for (int r = a; r <= last; r++) {
+            if (!isDead(r, i)) {
+                return false;
+            }
+        }
+        removed[i] = true;
+        dirty.set(a, last + 1);
+        return true;
+    }
+
+    /**
+     * 把指令中读取寄存器 r 的操作数替换为 src（寄存器或 RK 常量），无法替换时返回原指令。
+     *
+     * @param i
+     * @param r
+     * @param src
+     * @return
+     */
+    private static int replaceUse(int i, int r, int src) {
+        OpCode op = getOpCode(i);
+        boolean isConst = src >= BIT_RK;
+        int a = getA(i);
+        int b = getB(i);
+        int c = getC(i);
+        switch (op) {
+            case MOVE:
+            case UNM:
+            case BNOT:
+            case NOT:
+            case LEN:
+            case TESTSET:
+                return isConst || b != r ? i : setB(i, src);
+            case TEST:
+            case SETUPVAL:
+                return isConst || a != r ? i : setA(i, src);
+            case GETTABLE:
+            case SELF:
+                if (b == r) {
+                    if (isConst || c == r) {
+                        return i;
+                    }
+                    return setB(i, src);
+                }
+                return c == r ? setC(i, src) : i;
+            case GETTABUP:
+                return c == r ? setC(i, src) : i;
+            case SETTABLE:
+                if (a == r && isConst) {
+                    return i;
+                }
+                if (a == r) {
+                    i = setA(i, src);
+                }
+                if (b == r) {
+                    i = setB(i, src);
+                }
+                return c == r ? setC(i, src) : i;
+            case SETTABUP:
+            case ADD:
+            case SUB:
+            case MUL:
+            case MOD:
+            case POW:
+            case DIV:
+            case IDIV:
+            case BAND:
+            case BOR:
+            case BXOR:
+            case SHL:
+            case SHR:
+            case EQ:
+            case LT:
+            case LE:
+                if (b == r) {
+                    i = setB(i, src);
+                }
+                return c == r ? setC(i, src) : i;
+            default:
+                return i;
+        }
+    }
+
+    // ========== 数据流分析 ==========
+
+    /**
+     * 统计每条指令除顺序执行以外的入口数量
+     */
+    private void computeEntries() {
+        entries = new int[n + 2];
+        for (int i = 0; i < n; i++) {
+            OpCode op = getOpCode(code[i]);
+            switch (op) {
+                case JMP:
+                case FORLOOP:
+                case FORPREP:
+                case TFORLOOP:
+                    entries[target(i)]++;
+                    break;
+                case EQ:
+                case LT:
+                case LE:
+                case TEST:
+                case TESTSET:
+                    entries[i + 2]++;
+                    break;
+                case LOADBOOL:
+                    if (getC(code[i]) != 0) {
+                        entries[i + 2]++;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 寄存器活跃性分析（逆向迭代直到不动点）
+     */
+    private void computeLiveness() {
+        BitSet[] use = new BitSet[n];
+        BitSet[] def = new BitSet[n];
+        liveOut = new BitSet[n];
+        BitSet[] liveIn = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            use[i] = new BitSet();
+            def[i] = new BitSet();
+            useDef(i, use[i], def[i], new BitSet());
+            liveOut[i] = new BitSet();
+            liveIn[i] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; i--) {
+                BitSet out = new BitSet();
+                for (int s : successors(i)) {
+                    if (s < n) {
+                        BitSet live = liveIn[s];
+                        int kill = edgeDef(i, s);
+                        if (kill >= 0 && live.get(kill)) {
+                            live = (BitSet) live.clone();
+                            live.clear(kill);
+                        }
+                        out.or(live);
+                    }
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(def[i]);
+                in.or(use[i]);
+                if (!in.equals(liveIn[i]) || !out.equals(liveOut[i])) {
+                    liveIn[i] = in;
+                    liveOut[i] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 寄存器 r 在指令 i 执行后是否不再被读取
+     *
+     * @param r
+     * @param i
+     * @return
+     */
+    private boolean isDead(int r, int i) {
+        return !captured.get(r) && !dirty.get(r) && !liveOut[i].get(r);
+    }
+
+    /**
+     * 指令读取（use）和一定会写入（def）的寄存器；可能写入的寄存器记在 mayDef 中。
+     * 操作数为 0 表示使用到栈顶为止的所有值时，按读取 A 之后的所有寄存器处理。
+     *
+     * @param pc
+     * @param use
+     * @param def
+     * @param mayDef
+     */
+    private void useDef(int pc, BitSet use, BitSet def, BitSet mayDef) {
+        int i = code[pc];
+        int a = getA(i);
+        int b = getB(i);
+        int c = getC(i);
+        switch (getOpCode(i)) {
+            case MOVE:
+            case UNM:
+            case BNOT:
+            case NOT:
+            case LEN:
+                use.set(b);
+                def.set(a);
+                break;
+            case LOADK:
+            case LOADKX:
+            case LOADBOOL:
+            case GETUPVAL:
+            case NEWTABLE:
+            case CLOSURE:
+                def.set(a);
+                break;
+            case LOADNIL:
+                def.set(a, a + b + 1);
+                break;
+            case GETTABUP:
+                useRk(use, c);
+                def.set(a);
+                break;
+            case GETTABLE:
+                use.set(b);
+                useRk(use, c);
+                def.set(a);
+                break;
+            case SETTABUP:
+                useRk(use, b);
+                useRk(use, c);
+                break;
+            case SETUPVAL:
+            case TEST:
+                use.set(a);
+                break;
+            case SETTABLE:
+                use.set(a);
+                useRk(use, b);
+                useRk(use, c);
+                break;
+            case SELF:
+                use.set(b);
+                useRk(use, c);
+                def.set(a, a + 2);
+                break;
+            case ADD:
+            case SUB:
+            case MUL:
+            case MOD:
+            case POW:
+            case DIV:
+            case IDIV:
+            case BAND:
+            case BOR:
+            case BXOR:
+            case SHL:
+            case SHR:
+                useRk(use, b);
+                useRk(use, c);
+                def.set(a);
+                break;
+            case EQ:
+            case LT:
+            case LE:
+                useRk(use, b);
+                useRk(use, c);
+                break;
+            case CONCAT:
+                use.set(b, c + 1);
+                def.set(a);
+                break;
+            case JMP:
+                // 闭合 Upvalue 会读取 A - 1 之后的寄存器
+                if (a != 0) {
+                    use.set(a - 1, MAX_REGS);
+                }
+                break;
+            case TESTSET:
+                use.set(b);
+                mayDef.set(a);
+                break;
+            case CALL:
+            case TAILCALL:
+                use.set(a, b == 0 ? MAX_REGS : a + b);
+                if (c >= 2) {
+                    def.set(a, a + c - 1);
+                } else if (c == 0) {
+                    mayDef.set(a, MAX_REGS);
+                }
+                break;
+            case RETURN:
+                use.set(a, b == 0 ? MAX_REGS : a + b - 1);
+                break;
+            case FORLOOP:
+                use.set(a, a + 3);
+                def.set(a);
+                mayDef.set(a + 3);
+                break;
+            case FORPREP:
+                use.set(a, a + 3);
+                def.set(a);
+                break;
+            case TFORCALL:
+                use.set(a, a + 3);
+                def.set(a + 3, a + 3 + c);
+                break;
+            case TFORLOOP:
+                use.set(a + 1);
+                mayDef.set(a);
+                break;
+            case SETLIST:
+                use.set(a, b == 0 ? MAX_REGS : a + b + 1);
+                break;
+            case VARARG:
+                if (b >= 2) {
+                    def.set(a, a + b - 1);
+                } else if (b == 0) {
+                    mayDef.set(a, MAX_REGS);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 只在某条出边上写入的寄存器，没有则返回 -1。
+     * TESTSET 只在不跳过下一条指令时写入 A，FORLOOP、TFORLOOP 只在跳转时写入循环变量。
+     *
+     * @param i
+     * @param succ
+     * @return
+     */
+    private int edgeDef(int i, int succ) {
+        int a = getA(code[i]);
+        switch (getOpCode(code[i])) {
+            case TESTSET:
+                return succ == i + 1 ? a : -1;
+            case FORLOOP:
+                return succ == target(i) ? a + 3 : -1;
+            case TFORLOOP:
+                return succ == target(i) ? a : -1;
+            default:
+                return -1;
+        }
+    }
+
+    private static void useRk(BitSet use, int rk) {
+        if (rk < BIT_RK) {
+            use.set(rk);
+        }
+    }
+
+    /**
+     * 后继指令
+     *
+     * @param i
+     * @return
+     */
+    private int[] successors(int i) {
+        switch (getOpCode(code[i])) {
+            case JMP:
+            case FORPREP:
+                return new int[]{target(i)};
+            case FORLOOP:
+            case TFORLOOP:
+                return new int[]{i + 1, target(i)};
+            case EQ:
+            case LT:
+            case LE:
+            case TEST:
+            case TESTSET:
+                return new int[]{i + 1, i + 2};
+            case LOADBOOL:
+                return new int[]{getC(code[i]) != 0 ? i + 2 : i + 1};
+            case RETURN:
+                return new int[0];
+            default:
+                return new int[]{i + 1};
+        }
+    }
+
+    /**
+     * 指令 i 是否会改变顺序执行（跳转、条件跳过、调用、返回）
+     *
+     * @param i
+     * @return
+     */
+    private boolean isBranch(int i) {
+        switch (getOpCode(code[i])) {
+            case JMP:
+            case EQ:
+            case LT:
+            case LE:
+            case TEST:
+            case TESTSET:
+            case FORLOOP:
+            case FORPREP:
+            case TFORCALL:
+            case TFORLOOP:
+            case CALL:
+            case TAILCALL:
+            case RETURN:
+                return true;
+            case LOADBOOL:
+                return getC(code[i]) != 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 指令 i 是否与下一条指令绑定（条件跳过下一条指令，或者下一条指令是 EXTRAARG），下一条指令不能删除或替换。
+     *
+     * @param i
+     * @return
+     */
+    private boolean bindsNext(int i) {
+        if (i < 0) {
+            return false;
+        }
+        switch (getOpCode(code[i])) {
+            case EQ:
+            case LT:
+            case LE:
+            case TEST:
+            case TESTSET:
+            case LOADKX:
+                return true;
+            case LOADBOOL:
+                return getC(code[i]) != 0;
+            case SETLIST:
+                return getC(code[i]) == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 指令 i 之前最近一条未被删除的指令是否与它绑定
+     *
+     * @param i
+     * @return
+     */
+    private boolean isBound(int i) {
+        int prev = i - 1;
+        while (prev >= 0 && removed[prev]) {
+            prev--;
+        }
+        return bindsNext(prev);
+    }
+
+    /**
+     * 结果只写入寄存器 A、没有其他副作用，可以改写目标寄存器的指令
+     *
+     * @param i
+     * @return
+     */
+    private boolean isSingleDef(int i) {
+        switch (getOpCode(code[i])) {
+            case MOVE:
+            case LOADK:
+            case GETUPVAL:
+            case GETTABUP:
+            case GETTABLE:
+            case ADD:
+            case SUB:
+            case MUL:
+            case MOD:
+            case POW:
+            case DIV:
+            case IDIV:
+            case BAND:
+            case BOR:
+            case BXOR:
+            case SHL:
+            case SHR:
+            case UNM:
+            case BNOT:
+            case NOT:
+            case LEN:
+            case CONCAT:
+            case NEWTABLE:
+            case CLOSURE:
+                return true;
+            case LOADBOOL:
+                return getC(code[i]) == 0;
+            default:
+                return false;
+        }
+    }
+
+    // ========== 指令编码 ==========
+
+    private boolean is(int i, OpCode op) {
+        return !removed[i] && getOpCode(code[i]) == op;
+    }
+
+    private boolean isJmp(int i) {
+        return is(i, JMP);
+    }
+
+    private int target(int i) {
+        return i + 1 + getSBx(code[i]);
+    }
+
+    private static int setA(int i, int a) {
+        return i & ~(0xFF << 6) | a << 6;
+    }
+
+    private static int setB(int i, int b) {
+        return i & ~(0x1FF << 23) | b << 23;
+    }
+
+    private static int setC(int i, int c) {
+        return i & ~(0x1FF << 14) | c << 14;
+    }
+
+    private static int setSBx(int i, int sBx) {
+        return i & 0x3FFF | (sBx + MAXARG_S_BX) << 14;
+    }
+
+    /**
+     * 删除标记的指令，修正跳转偏移、行号表和局部变量的起止 pc。
+     *
+     * @return 是否删除了指令
+     */
+    private boolean compact() {
+        // 被删除的位置映射到其后第一条保留的指令
+        int[] newPc = new int[n + 1];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            newPc[i] = m;
+            if (!removed[i]) {
+                m++;
+            }
+        }
+        newPc[n] = m;
+        if (m == n) {
+            return false;
+        }
+
+        int[] newCode = new int[m];
+        int[] newLines = new int[m];
+        for (int i = 0; i < n; i++) {
+            if (removed[i]) {
+                continue;
+            }
+            int inst = code[i];
+            OpCode op = getOpCode(inst);
+            if (op == JMP || op == FORLOOP || op == FORPREP || op == TFORLOOP) {
+                inst = setSBx(inst, newPc[target(i)] - newPc[i] - 1);
+            }
+            newCode[newPc[i]] = inst;
+            newLines[newPc[i]] = lines[i];
+        }
+        for (FuncInfo.LocVarInfo locVar : fi.locVars) {
+            locVar.startPC = newPc[Math.min(Math.max(locVar.startPC, 0), n)];
+            locVar.endPC = newPc[Math.min(Math.max(locVar.endPC, 0), n)];
+        }
+
+        code = newCode;
+        lines = newLines;
+        n = m;
+        removed = new boolean[n];
+        return true;
+    }
+
+}
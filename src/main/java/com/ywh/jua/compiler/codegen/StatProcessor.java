@@ -344,8 +344,12 @@ class StatProcessor {
 
         fi.usedRegs = oldRegs;
         int startPC = fi.pc() + 1;
-        for (String name : node.getNameList()) {
+        for (int i = 0; i < nNames; i++) {
+            String name = node.getNameList().get(i);
             fi.addLocVar(name, startPC);
+            if (node.isConstVar(i)) {
+                fi.markImmutable(name);
+            }
         }
     }
 
@@ -0,0 +1,250 @@
+package com.ywh.jua.compiler.codegen;
+
+import com.ywh.jua.compiler.ast.BaseExp;
+import com.ywh.jua.compiler.ast.BaseStat;
+import com.ywh.jua.compiler.ast.Block;
+import com.ywh.jua.compiler.ast.exps.*;
+import com.ywh.jua.compiler.ast.stats.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 惰性编译的 Upvalue 解析器
+ * 惰性编译的函数暂不生成代码，但父函数生成 CLOSURE 指令和关闭 Upvalue 时需要知道它捕获了哪些局部变量；
+ * 因此按照与代码生成相同的作用域规则遍历函数体（包括嵌套函数），找出所有不是函数内局部变量的名字，
+ * 在父函数仍处于定义位置时把它们解析为 Upvalue（解析不到的是全局变量，需要 _ENV）。
+ *
+ * 代码生成阶段才会发现的错误（vararg 和 break 的位置、goto）在这里提前检查，保证与立即编译时一样在加载时报错。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+class UpvalResolver {
+
+    /**
+     * 按首次出现的顺序记录的自由名字
+     */
+    private final Set<String> freeNames = new LinkedHashSet<>();
+
+    /**
+     * 函数内的作用域栈
+     */
+    private final List<Set<String>> scopes = new ArrayList<>();
+
+    /**
+     * 当前函数是否变长参数
+     */
+    private boolean isVararg;
+
+    /**
+     * 当前函数内的循环嵌套层数
+     */
+    private int loops;
+
+    private UpvalResolver() {
+    }
+
+    /**
+     * 解析函数的 Upvalue，并把函数体留待首次实例化时生成
+     *
+     * @param fi   函数内部结构（父函数处于函数定义的位置）
+     * @param node
+     */
+    static void resolve(FuncInfo fi, FuncDefExp node) {
+        UpvalResolver resolver = new UpvalResolver();
+        resolver.resolveFuncDefExp(node);
+        for (String name : resolver.freeNames) {
+            if (fi.indexOfUpval(name) < 0) {
+                fi.indexOfUpval("_ENV");
+            }
+        }
+        fi.detachParent();
+        fi.pendingBody = node;
+    }
+
+    private void resolveFuncDefExp(FuncDefExp node) {
+        boolean oldVararg = isVararg;
+        int oldLoops = loops;
+        isVararg = node.isVararg();
+        loops = 0;
+        openScope();
+        if (node.getParList() != null) {
+            for (String param : node.getParList()) {
+                declare(param);
+            }
+        }
+        resolveStats(node.getBlock());
+        closeScope();
+        isVararg = oldVararg;
+        loops = oldLoops;
+    }
+
+    private void resolveBlock(Block block) {
+        openScope();
+        resolveStats(block);
+        closeScope();
+    }
+
+    private void resolveStats(Block block) {
+        for (BaseStat stat : block.getStats()) {
+            resolveStat(stat);
+        }
+        if (block.getRetExps() != null) {
+            resolveExps(block.getRetExps());
+        }
+    }
+
+    private void resolveLoopBody(Block block) {
+        loops++;
+        resolveStats(block);
+        loops--;
+    }
+
+    private void resolveStat(BaseStat stat) {
+        if (stat instanceof LocalVarDeclStat) {
+            LocalVarDeclStat s = (LocalVarDeclStat) stat;
+            resolveExps(s.getExpList());
+            for (String name : s.getNameList()) {
+                declare(name);
+            }
+        } else if (stat instanceof LocalFuncDefStat) {
+            LocalFuncDefStat s = (LocalFuncDefStat) stat;
+            declare(s.getName());
+            resolveFuncDefExp(s.getExp());
+        } else if (stat instanceof AssignStat) {
+            AssignStat s = (AssignStat) stat;
+            resolveExps(s.getVarList());
+            resolveExps(s.getExpList());
+        } else if (stat instanceof FuncCallStat) {
+            resolveExp(((FuncCallStat) stat).getExp());
+        } else if (stat instanceof DoStat) {
+            resolveBlock(((DoStat) stat).getBlock());
+        } else if (stat instanceof WhileStat) {
+            WhileStat s = (WhileStat) stat;
+            resolveExp(s.getExp());
+            openScope();
+            resolveLoopBody(s.getBlock());
+            closeScope();
+        } else if (stat instanceof RepeatStat) {
+            RepeatStat s = (RepeatStat) stat;
+            openScope();
+            resolveLoopBody(s.getBlock());
+            resolveExp(s.getExp());
+            closeScope();
+        } else if (stat instanceof IfStat) {
+            IfStat s = (IfStat) stat;
+            resolveExps(s.getExps());
+            for (Block block : s.getBlocks()) {
+                resolveBlock(block);
+            }
+        } else if (stat instanceof ForNumStat) {
+            ForNumStat s = (ForNumStat) stat;
+            resolveExp(s.getInitExp());
+            resolveExp(s.getLimitExp());
+            resolveExp(s.getStepExp());
+            openScope();
+            declare(s.getVarName());
+            resolveLoopBody(s.getBlock());
+            closeScope();
+        } else if (stat instanceof ForInStat) {
+            ForInStat s = (ForInStat) stat;
+            resolveExps(s.getExpList());
+            openScope();
+            for (String name : s.getNameList()) {
+                declare(name);
+            }
+            resolveLoopBody(s.getBlock());
+            closeScope();
+        } else if (stat instanceof BreakStat) {
+            if (loops == 0) {
+                throw new RuntimeException("<break> at line ? not inside a loop!");
+            }
+        } else if (stat instanceof LabelStat || stat instanceof GotoStat) {
+            throw new RuntimeException("label and goto statements are not supported!");
+        }
+    }
+
+    private void resolveExps(List<BaseExp> exps) {
+        if (exps == null) {
+            return;
+        }
+        for (BaseExp exp : exps) {
+            resolveExp(exp);
+        }
+    }
+
+    private void resolveExp(BaseExp exp) {
+        if (exp instanceof NameExp) {
+            String name = ((NameExp) exp).getName();
+            if (!isLocal(name)) {
+                freeNames.add(name);
+            }
+        } else if (exp instanceof VarargExp) {
+            if (!isVararg) {
+                throw new RuntimeException("cannot use '...' outside a vararg function");
+            }
+        } else if (exp instanceof ParensExp) {
+            resolveExp(((ParensExp) exp).getExp());
+        } else if (exp instanceof BinopExp) {
+            resolveExp(((BinopExp) exp).getExp1());
+            resolveExp(((BinopExp) exp).getExp2());
+        } else if (exp instanceof UnopExp) {
+            resolveExp(((UnopExp) exp).getExp());
+        } else if (exp instanceof ConcatExp) {
+            resolveExps(((ConcatExp) exp).getExps());
+        } else if (exp instanceof TableAccessExp) {
+            resolveExp(((TableAccessExp) exp).getPrefixExp());
+            resolveExp(((TableAccessExp) exp).getKeyExp());
+        } else if (exp instanceof TableConstructorExp) {
+            TableConstructorExp tcExp = (TableConstructorExp) exp;
+            for (int i = 0; i < tcExp.size(); i++) {
+                if (tcExp.hasKeyNode(i)) {
+                    resolveExp(tcExp.getKeyExp(i));
+                }
+                if (tcExp.hasValNode(i)) {
+                    resolveExp(tcExp.getValExp(i));
+                }
+            }
+        } else if (exp instanceof FuncCallExp) {
+            resolveExp(((FuncCallExp) exp).getPrefixExp());
+            resolveExps(((FuncCallExp) exp).getArgs());
+        } else if (exp instanceof FuncDefExp) {
+            resolveFuncDefExp((FuncDefExp) exp);
+        } else if (exp instanceof InlineCallExp) {
+            InlineCallExp icExp = (InlineCallExp) exp;
+            resolveExps(icExp.getArgs());
+            openScope();
+            for (String param : icExp.getParList()) {
+                declare(param);
+            }
+            resolveExp(icExp.getExp());
+            closeScope();
+        }
+    }
+
+    private void openScope() {
+        scopes.add(new HashSet<>());
+    }
+
+    private void closeScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private void declare(String name) {
+        scopes.get(scopes.size() - 1).add(name);
+    }
+
+    private boolean isLocal(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,10 +1,14 @@
 package com.ywh.jua.compiler.lexer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Lua 源码字符序列
+ * 可以直接包装源码字符串，也可以从 Reader 中按块读取源码（只在缓冲区中保留尚未访问的部分）。
  *
  * @author ywh
  * @since 2020/8/24 11:26
@@ -12,9 +16,29 @@ import java.util.regex.Pattern;
 class CharSeq implements CharSequence {
 
     /**
-     * 源码字符串
+     * 每次从 Reader 读取的字符数
      */
-    private String str;
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * 前瞻时至少需要缓冲的字符数（最长的运算符为 "..."）
+     */
+    private static final int LOOKAHEAD = 4;
+
+    /**
+     * 源码缓冲区
+     */
+    private StringBuilder buf;
+
+    /**
+     * 源码输入，为 null 表示已读取完毕
+     */
+    private Reader reader;
+
+    /**
+     * 读取缓冲区，每次读取复用
+     */
+    private char[] cbuf;
 
     /**
      * 偏移量
@@ -22,7 +46,13 @@ class CharSeq implements CharSequence {
     private int pos;
 
     CharSeq(String str) {
-        this.str = str;
+        this.buf = new StringBuilder(str);
+    }
+
+    CharSeq(Reader reader) {
+        this.buf = new StringBuilder(CHUNK_SIZE);
+        this.reader = reader;
+        this.cbuf = new char[CHUNK_SIZE];
     }
 
     /**
@@ -31,7 +61,8 @@ class CharSeq implements CharSequence {
      * @return
      */
     char nextChar() {
-        return str.charAt(pos++);
+        fill(1);
+        return buf.charAt(pos++);
     }
 
     /**
@@ -40,7 +71,13 @@ class CharSeq implements CharSequence {
      * @param n
      */
     void next(int n) {
+        fill(n);
         pos += n;
+        // 已访问的字符超过一个块，则从缓冲区中丢弃。
+        if (reader != null && pos >= CHUNK_SIZE) {
+            buf.delete(0, pos);
+            pos = 0;
+        }
     }
 
     /**
@@ -50,7 +87,17 @@ class CharSeq implements CharSequence {
      * @return
      */
     boolean startsWith(String prefix) {
-        return str.startsWith(prefix, pos);
+        fill(prefix.length());
+        int n = prefix.length();
+        if (buf.length() - pos < n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (buf.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -60,7 +107,18 @@ class CharSeq implements CharSequence {
      * @return
      */
     int indexOf(String s) {
-        return str.indexOf(s, pos) - pos;
+        int from = pos;
+        for (;;) {
+            int idx = buf.indexOf(s, from);
+            if (idx >= 0) {
+                return idx - pos;
+            }
+            // 未找到则继续读取，下次从可能跨块的位置开始查找。
+            from = Math.max(pos, buf.length() - s.length() + 1);
+            if (!readChunk()) {
+                return -1;
+            }
+        }
     }
 
     /**
@@ -70,27 +128,37 @@ class CharSeq implements CharSequence {
      * @return
      */
     String substring(int beginIndex, int endIndex) {
-        return str.substring(beginIndex + pos, endIndex + pos);
+        fill(endIndex);
+        return buf.substring(beginIndex + pos, endIndex + pos);
     }
 
     /**
+     * 从 pos 开始匹配（模式均以 ^ 开头，使用 lookingAt 避免逐个位置尝试）；
+     * 如果匹配触及缓冲区末尾（结果可能随后续输入改变），则读取更多源码后重新匹配。
      *
      * @param pattern
      * @return
      */
     String find(Pattern pattern) {
-        Matcher matcher = pattern.matcher(this);
-        return matcher.find()? matcher.group(0) : null;
+        fill(LOOKAHEAD);
+        for (;;) {
+            Matcher matcher = pattern.matcher(this);
+            boolean found = matcher.lookingAt();
+            if (!matcher.hitEnd() || !readChunk()) {
+                return found ? matcher.group(0) : null;
+            }
+        }
     }
 
     /**
-     * 剩余未访问字符个数
+     * 剩余未访问字符个数（流式读取时，只保证不少于前瞻所需的字符数）
      *
      * @return
      */
     @Override
     public int length() {
-        return str.length() - pos;
+        fill(LOOKAHEAD);
+        return buf.length() - pos;
     }
 
     /**
@@ -100,12 +168,48 @@ class CharSeq implements CharSequence {
      */
     @Override
     public char charAt(int index) {
-        return str.charAt(index + pos);
+        fill(index + 1);
+        return buf.charAt(index + pos);
     }
 
     @Override
     public CharSequence subSequence(int start, int end) {
-        return str.subSequence(start + pos, end + pos);
+        fill(end);
+        return buf.subSequence(start + pos, end + pos);
+    }
+
+    /**
+     * 确保缓冲区中至少有 n 个未访问字符（除非已读取完毕）
+     *
+     * @param n
+     */
+    private void fill(int n) {
+        while (buf.length() - pos < n && readChunk()) {
+        }
+    }
+
+    /**
+     * 从 Reader 读取一个块追加到缓冲区
+     *
+     * @return 是否读取到新字符
+     */
+    private boolean readChunk() {
+        if (reader == null) {
+            return false;
+        }
+        try {
+            int n = reader.read(cbuf);
+            if (n < 0) {
+                reader.close();
+                reader = null;
+                cbuf = null;
+                return false;
+            }
+            buf.append(cbuf, 0, n);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 }
@@ -1,5 +1,7 @@
 package com.ywh.jua.compiler.lexer;
 
+import com.ywh.jua.string.LuaString;
+
 import java.util.regex.Pattern;
 
 /**
@@ -171,9 +173,9 @@ class Escaper {
 
         try {
             assert seq != null;
-            int d = Integer.parseInt(seq.substring(3, seq.length() - 1), 16);
-            if (d <= 0x10FFFF) {
-                buf.appendCodePoint(d);
+            long d = Long.parseLong(seq.substring(3, seq.length() - 1), 16);
+            if (d <= 0x7FFFFFFFL) {
+                LuaString.appendUtf8(buf, d);
                 rawStr.next(seq.length());
                 return;
             }
@@ -1,5 +1,10 @@
 package com.ywh.jua.compiler.lexer;
 
+import com.ywh.jua.string.LuaString;
+
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import static com.ywh.jua.compiler.lexer.TokenKind.*;
@@ -53,12 +58,29 @@ public class Lexer {
      */
     private int lineBackup;
 
+    /**
+     * 字符串驻留表：同一 chunk 中重复出现的标识符和字符串字面量共用同一个对象（数据型 chunk 中字段名大量重复）
+     */
+    private final Map<String, String> strings = new HashMap<>();
+
     public Lexer(String chunk, String chunkName) {
         this.chunk = new CharSeq(chunk);
         this.chunkName = chunkName;
         this.line = 1;
     }
 
+    /**
+     * 从 Reader 中按块读取源码
+     *
+     * @param reader
+     * @param chunkName
+     */
+    public Lexer(Reader reader, String chunkName) {
+        this.chunk = new CharSeq(reader);
+        this.chunkName = chunkName;
+        this.line = 1;
+    }
+
     /**
      * 取行号
      *
@@ -238,14 +260,14 @@ public class Lexer {
                 }
             case '[':
                 if (chunk.startsWith("[[") || chunk.startsWith("[=")) {
-                    return new Token(line, TOKEN_STRING, scanLongString());
+                    return new Token(line, TOKEN_STRING, intern(scanLongString()));
                 } else {
                     chunk.next(1);
                     return new Token(line, TOKEN_SEP_LBRACK, LBRACK);
                 }
             case '\'':
             case '"':
-                return new Token(line, TOKEN_STRING, scanShortString());
+                return new Token(line, TOKEN_STRING, intern(scanShortString()));
             default:
                 break;
         }
@@ -260,7 +282,7 @@ public class Lexer {
 
         // 处理标识符和关键字
         if (c == '_' || CharUtil.isLetter(c)) {
-            String id = scanIdentifier();
+            String id = intern(scanIdentifier());
             // 如果匹配到标识符，则取该标识符；否则取 TOKEN_IDENTIFIER。
             return new Token(line, Token.KEYWORDS.getOrDefault(id, TOKEN_IDENTIFIER), id);
             // return Token.KEYWORDS.containsKey(id) ? new Token(line, Token.KEYWORDS.get(id), id): new Token(line,
@@ -412,4 +434,19 @@ public class Lexer {
         return error("unfinished string");
     }
 
+    /**
+     * 驻留字符串（同一 chunk 内去重，短字符串同时进行全局驻留）
+     *
+     * @param str
+     * @return
+     */
+    private String intern(String str) {
+        String s = strings.get(str);
+        if (s == null) {
+            s = LuaString.intern(str);
+            strings.put(s, s);
+        }
+        return s;
+    }
+
 }
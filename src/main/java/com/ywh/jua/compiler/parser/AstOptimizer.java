@@ -0,0 +1,782 @@
+package com.ywh.jua.compiler.parser;
+
+
+import com.ywh.jua.compiler.ast.BaseExp;
+import com.ywh.jua.compiler.ast.BaseStat;
+import com.ywh.jua.compiler.ast.Block;
+import com.ywh.jua.compiler.ast.exps.*;
+import com.ywh.jua.compiler.ast.stats.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ywh.jua.compiler.parser.Optimizer.*;
+
+/**
+ * AST 优化器
+ * 在语法分析之后、代码生成之前对整棵语法树做优化（语法分析时只能折叠单个运算符表达式）：
+ *
+ * LEVEL_FOLD：折叠比较运算和字面量拼接，删除条件恒为假的 if 分支、while 循环以及 break 之后不可达的语句；
+ * LEVEL_PROPAGATE：在此基础上做常量传播，声明时以字面量初始化且之后从未被赋值（包括在闭包中）的局部变量，
+ * 其所有引用都替换为该字面量，再继续折叠和删除死代码；
+ * LEVEL_INLINE：在此基础上内联从未被重新赋值的小型局部函数（非递归、非变长参数、不包含闭包）：
+ * 函数体只有一个返回表达式时，在任意表达式中内联为 InlineCallExp；函数体没有返回值时，在调用语句处内联为 do 语句块。
+ * 函数体引用的外部变量在调用处必须解析为同一个变量（没有被同名局部变量遮蔽）。
+ *
+ * 优化分两遍：第一遍按词法作用域解析名字，记录每个局部变量的引用以及是否被赋值；第二遍按源码顺序改写语法树。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class AstOptimizer {
+
+    /**
+     * 不优化（仅保留语法分析时的折叠）
+     */
+    public static final int LEVEL_NONE = 0;
+
+    /**
+     * 常量折叠和死代码删除
+     */
+    public static final int LEVEL_FOLD = 1;
+
+    /**
+     * 常量传播
+     */
+    public static final int LEVEL_PROPAGATE = 2;
+
+    /**
+     * 函数内联
+     */
+    public static final int LEVEL_INLINE = 3;
+
+    /**
+     * 可以内联的函数体的最大节点数（包括其中已内联的函数体）
+     */
+    private static final int MAX_INLINE_SIZE = 32;
+
+    private final boolean inline;
+
+    /**
+     * 名字表达式引用的局部变量（全局变量不在其中）
+     */
+    private final Map<NameExp, LocalVar> refs = new IdentityHashMap<>();
+
+    /**
+     * 局部变量声明语句声明的局部变量
+     */
+    private final Map<LocalVarDeclStat, LocalVar[]> decls = new IdentityHashMap<>();
+
+    /**
+     * 可以内联的调用及其调用的局部函数
+     */
+    private final Map<FuncCallExp, LocalVar> inlineSites = new IdentityHashMap<>();
+
+    /**
+     * 作用域栈（解析时使用）
+     */
+    private final List<Map<String, LocalVar>> scopes = new ArrayList<>();
+
+    /**
+     * 正在解析的内联候选函数（由外向内）
+     */
+    private final List<InlineCandidate> candidates = new ArrayList<>();
+
+    private AstOptimizer(int level) {
+        this.inline = level >= LEVEL_INLINE;
+    }
+
+    /**
+     * 优化
+     *
+     * @param block 主函数代码块
+     * @param level 优化级别
+     * @return
+     */
+    public static Block optimize(Block block, int level) {
+        if (level <= LEVEL_NONE) {
+            return block;
+        }
+        AstOptimizer optimizer = new AstOptimizer(level);
+        if (level >= LEVEL_PROPAGATE) {
+            optimizer.resolveBlock(block);
+        }
+        return optimizer.optimizeBlock(block);
+    }
+
+    /* 第一遍：名字解析 */
+
+    /**
+     *
+     * @param block
+     */
+    private void resolveBlock(Block block) {
+        openScope();
+        resolveStats(block);
+        closeScope();
+    }
+
+    /**
+     * 解析块中的语句，不开启新的作用域（repeat 的条件表达式可以访问块内的局部变量）
+     *
+     * @param block
+     */
+    private void resolveStats(Block block) {
+        for (BaseStat stat : block.getStats()) {
+            resolveStat(stat);
+        }
+        if (block.getRetExps() != null) {
+            for (InlineCandidate c : candidates) {
+                if (c.func.getBlock() != block) {
+                    // 函数体中间的 return 无法内联
+                    c.inlinable = false;
+                }
+            }
+            resolveExps(block.getRetExps());
+        }
+    }
+
+    /**
+     *
+     * @param stat
+     */
+    private void resolveStat(BaseStat stat) {
+        grow(1);
+        if (stat instanceof LocalVarDeclStat) {
+            LocalVarDeclStat s = (LocalVarDeclStat) stat;
+            InlineCandidate[] funcs = new InlineCandidate[s.getExpList().size()];
+            for (int i = 0; i < funcs.length; i++) {
+                BaseExp exp = s.getExpList().get(i);
+                if (inline && exp instanceof FuncDefExp) {
+                    funcs[i] = resolveCandidate((FuncDefExp) exp, null);
+                } else {
+                    resolveExp(exp);
+                }
+            }
+            LocalVar[] vars = new LocalVar[s.getNameList().size()];
+            for (int i = 0; i < vars.length; i++) {
+                vars[i] = declare(s.getNameList().get(i));
+                if (i < funcs.length) {
+                    vars[i].func = funcs[i];
+                }
+            }
+            decls.put(s, vars);
+        } else if (stat instanceof LocalFuncDefStat) {
+            LocalFuncDefStat s = (LocalFuncDefStat) stat;
+            LocalVar v = declare(s.getName());
+            if (inline) {
+                v.func = resolveCandidate(s.getExp(), v);
+            } else {
+                resolveExp(s.getExp());
+            }
+        } else if (stat instanceof AssignStat) {
+            AssignStat s = (AssignStat) stat;
+            resolveExps(s.getExpList());
+            for (BaseExp var : s.getVarList()) {
+                if (var instanceof NameExp) {
+                    grow(1);
+                    LocalVar v = lookup(((NameExp) var).getName());
+                    if (v != null) {
+                        v.assigned = true;
+                    }
+                } else {
+                    resolveExp(var);
+                }
+            }
+        } else if (stat instanceof FuncCallStat) {
+            resolveExp(((FuncCallStat) stat).getExp());
+        } else if (stat instanceof DoStat) {
+            resolveBlock(((DoStat) stat).getBlock());
+        } else if (stat instanceof WhileStat) {
+            WhileStat s = (WhileStat) stat;
+            resolveExp(s.getExp());
+            resolveBlock(s.getBlock());
+        } else if (stat instanceof RepeatStat) {
+            RepeatStat s = (RepeatStat) stat;
+            openScope();
+            resolveStats(s.getBlock());
+            resolveExp(s.getExp());
+            closeScope();
+        } else if (stat instanceof IfStat) {
+            IfStat s = (IfStat) stat;
+            resolveExps(s.getExps());
+            for (Block block : s.getBlocks()) {
+                resolveBlock(block);
+            }
+        } else if (stat instanceof ForNumStat) {
+            ForNumStat s = (ForNumStat) stat;
+            resolveExp(s.getInitExp());
+            resolveExp(s.getLimitExp());
+            resolveExp(s.getStepExp());
+            openScope();
+            declare(s.getVarName());
+            resolveStats(s.getBlock());
+            closeScope();
+        } else if (stat instanceof ForInStat) {
+            ForInStat s = (ForInStat) stat;
+            resolveExps(s.getExpList());
+            openScope();
+            for (String name : s.getNameList()) {
+                declare(name);
+            }
+            resolveStats(s.getBlock());
+            closeScope();
+        }
+    }
+
+    /**
+     *
+     * @param exps
+     */
+    private void resolveExps(List<BaseExp> exps) {
+        if (exps == null) {
+            return;
+        }
+        for (BaseExp exp : exps) {
+            resolveExp(exp);
+        }
+    }
+
+    /**
+     *
+     * @param exp
+     */
+    private void resolveExp(BaseExp exp) {
+        grow(1);
+        if (exp instanceof NameExp) {
+            LocalVar v = lookup(((NameExp) exp).getName());
+            if (v != null) {
+                refs.put((NameExp) exp, v);
+            }
+        } else if (exp instanceof ParensExp) {
+            resolveExp(((ParensExp) exp).getExp());
+        } else if (exp instanceof BinopExp) {
+            resolveExp(((BinopExp) exp).getExp1());
+            resolveExp(((BinopExp) exp).getExp2());
+        } else if (exp instanceof UnopExp) {
+            resolveExp(((UnopExp) exp).getExp());
+        } else if (exp instanceof ConcatExp) {
+            resolveExps(((ConcatExp) exp).getExps());
+        } else if (exp instanceof TableAccessExp) {
+            resolveExp(((TableAccessExp) exp).getPrefixExp());
+            resolveExp(((TableAccessExp) exp).getKeyExp());
+        } else if (exp instanceof TableConstructorExp) {
+            TableConstructorExp tcExp = (TableConstructorExp) exp;
+            for (int i = 0; i < tcExp.size(); i++) {
+                if (tcExp.hasKeyNode(i)) {
+                    resolveExp(tcExp.getKeyExp(i));
+                }
+                if (tcExp.hasValNode(i)) {
+                    resolveExp(tcExp.getValExp(i));
+                }
+            }
+        } else if (exp instanceof FuncCallExp) {
+            resolveExp(((FuncCallExp) exp).getPrefixExp());
+            resolveExps(((FuncCallExp) exp).getArgs());
+            if (inline) {
+                resolveInlineSite((FuncCallExp) exp);
+            }
+        } else if (exp instanceof VarargExp) {
+            disableCandidates();
+        } else if (exp instanceof FuncDefExp) {
+            // 内联后闭包捕获的局部变量会发生变化，包含闭包的函数不内联
+            disableCandidates();
+            FuncDefExp fdExp = (FuncDefExp) exp;
+            openScope();
+            if (fdExp.getParList() != null) {
+                for (String param : fdExp.getParList()) {
+                    declare(param);
+                }
+            }
+            resolveStats(fdExp.getBlock());
+            closeScope();
+        }
+    }
+
+    /**
+     * 解析内联候选函数，记录函数体的大小和引用的外部变量
+     *
+     * @param fdExp
+     * @param self  函数自身绑定的局部变量（local function），用于识别递归
+     * @return
+     */
+    private InlineCandidate resolveCandidate(FuncDefExp fdExp, LocalVar self) {
+        // 外层候选函数包含了闭包
+        disableCandidates();
+        InlineCandidate c = new InlineCandidate(fdExp, self, scopes.size());
+        c.inlinable = !fdExp.isVararg();
+        candidates.add(c);
+        openScope();
+        if (fdExp.getParList() != null) {
+            for (String param : fdExp.getParList()) {
+                declare(param);
+            }
+        }
+        resolveStats(fdExp.getBlock());
+        closeScope();
+        candidates.remove(candidates.size() - 1);
+        c.complete = true;
+        return c;
+    }
+
+    /**
+     * 检查调用能否内联：被调用的是已解析完毕的候选函数，且其引用的外部变量在调用处解析结果不变。
+     * 能内联时，候选函数引用的外部变量和大小同样计入正在解析的外层候选函数。
+     *
+     * @param fcExp
+     */
+    private void resolveInlineSite(FuncCallExp fcExp) {
+        if (fcExp.getNameExp() != null || !(fcExp.getPrefixExp() instanceof NameExp)) {
+            return;
+        }
+        LocalVar v = refs.get(fcExp.getPrefixExp());
+        if (v == null || v.func == null || !v.func.complete || !v.func.inlinable) {
+            return;
+        }
+        for (Map.Entry<String, LocalVar> e : v.func.freeNames.entrySet()) {
+            if (lookup(e.getKey()) != e.getValue()) {
+                return;
+            }
+        }
+        inlineSites.put(fcExp, v);
+        grow(v.func.size);
+    }
+
+    /**
+     * 正在解析的候选函数都不能内联
+     */
+    private void disableCandidates() {
+        for (InlineCandidate c : candidates) {
+            c.inlinable = false;
+        }
+    }
+
+    /**
+     * 累加正在解析的候选函数的大小
+     *
+     * @param n
+     */
+    private void grow(int n) {
+        for (InlineCandidate c : candidates) {
+            c.size += n;
+            if (c.size > MAX_INLINE_SIZE) {
+                c.inlinable = false;
+            }
+        }
+    }
+
+    private void openScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void closeScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * 在当前作用域声明局部变量（同名时遮蔽之前的声明）
+     *
+     * @param name
+     * @return
+     */
+    private LocalVar declare(String name) {
+        LocalVar v = new LocalVar(scopes.size() - 1);
+        scopes.get(scopes.size() - 1).put(name, v);
+        return v;
+    }
+
+    /**
+     * 由内向外查找局部变量，找不到说明是全局变量；
+     * 同时把候选函数之外的变量记录为该候选函数引用的外部变量。
+     *
+     * @param name
+     * @return
+     */
+    private LocalVar lookup(String name) {
+        LocalVar v = null;
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            v = scopes.get(i).get(name);
+            if (v != null) {
+                break;
+            }
+        }
+        for (InlineCandidate c : candidates) {
+            if (v == null || v.depth < c.depth) {
+                if (v != null && v == c.self) {
+                    c.inlinable = false;
+                }
+                c.freeNames.put(name, v);
+            }
+        }
+        return v;
+    }
+
+    /* 第二遍：改写 */
+
+    /**
+     * 优化代码块（原地修改）
+     *
+     * @param block
+     * @return
+     */
+    private Block optimizeBlock(Block block) {
+        List<BaseStat> stats = new ArrayList<>(block.getStats().size());
+        for (BaseStat stat : block.getStats()) {
+            BaseStat s = optimizeStat(stat);
+            if (s == null) {
+                continue;
+            }
+            stats.add(s);
+            // break 之后的语句不可达（不支持 goto，因此不存在跳转进来的标签）
+            if (s instanceof BreakStat) {
+                break;
+            }
+        }
+        block.setStats(stats);
+        if (block.getRetExps() != null) {
+            block.setRetExps(optimizeExps(block.getRetExps()));
+        }
+        return block;
+    }
+
+    /**
+     * 优化语句
+     *
+     * @param stat
+     * @return 改写后的语句，为 null 表示语句可以删除
+     */
+    private BaseStat optimizeStat(BaseStat stat) {
+        if (stat instanceof LocalVarDeclStat) {
+            optimizeLocalVarDeclStat((LocalVarDeclStat) stat);
+        } else if (stat instanceof LocalFuncDefStat) {
+            optimizeExp(((LocalFuncDefStat) stat).getExp());
+        } else if (stat instanceof AssignStat) {
+            AssignStat s = (AssignStat) stat;
+            s.setExpList(optimizeExps(s.getExpList()));
+            for (BaseExp var : s.getVarList()) {
+                // 赋值目标只优化表的键和前缀表达式
+                if (var instanceof TableAccessExp) {
+                    optimizeExp(var);
+                }
+            }
+        } else if (stat instanceof FuncCallStat) {
+            FuncCallExp fcExp = ((FuncCallStat) stat).getExp();
+            optimizeExp(fcExp);
+            LocalVar v = inlineSites.get(fcExp);
+            List<BaseExp> retExps = v != null ? v.func.func.getBlock().getRetExps() : null;
+            if (v != null && !v.assigned && (retExps == null || retExps.isEmpty())) {
+                return inlineStat(fcExp, v.func.func);
+            }
+        } else if (stat instanceof DoStat) {
+            optimizeBlock(((DoStat) stat).getBlock());
+        } else if (stat instanceof WhileStat) {
+            WhileStat s = (WhileStat) stat;
+            s.setExp(optimizeExp(s.getExp()));
+            if (isFalse(s.getExp())) {
+                return null;
+            }
+            optimizeBlock(s.getBlock());
+        } else if (stat instanceof RepeatStat) {
+            RepeatStat s = (RepeatStat) stat;
+            optimizeBlock(s.getBlock());
+            s.setExp(optimizeExp(s.getExp()));
+        } else if (stat instanceof IfStat) {
+            return optimizeIfStat((IfStat) stat);
+        } else if (stat instanceof ForNumStat) {
+            ForNumStat s = (ForNumStat) stat;
+            s.setInitExp(optimizeExp(s.getInitExp()));
+            s.setLimitExp(optimizeExp(s.getLimitExp()));
+            s.setStepExp(optimizeExp(s.getStepExp()));
+            optimizeBlock(s.getBlock());
+        } else if (stat instanceof ForInStat) {
+            ForInStat s = (ForInStat) stat;
+            s.setExpList(optimizeExps(s.getExpList()));
+            optimizeBlock(s.getBlock());
+        }
+        return stat;
+    }
+
+    /**
+     * 局部变量声明：如果变量之后从未被赋值，且初始值是字面量，则记录下来用于替换其引用
+     *
+     * @param stat
+     */
+    private void optimizeLocalVarDeclStat(LocalVarDeclStat stat) {
+        List<BaseExp> exps = optimizeExps(stat.getExpList());
+        stat.setExpList(exps);
+        LocalVar[] vars = decls.get(stat);
+        if (vars == null) {
+            return;
+        }
+        // 最后一个表达式是函数调用或 vararg 时，多出来的变量的值在运行时才能确定
+        boolean multRet = !exps.isEmpty() && isVarargOrFuncCall(exps.get(exps.size() - 1));
+        boolean[] constVars = new boolean[vars.length];
+        stat.setConstVars(constVars);
+        for (int i = 0; i < vars.length; i++) {
+            if (vars[i].assigned) {
+                continue;
+            }
+            constVars[i] = true;
+            if (i < exps.size()) {
+                if (isLiteral(exps.get(i))) {
+                    vars[i].value = exps.get(i);
+                }
+            } else if (!multRet) {
+                vars[i].value = new NilExp(stat.getLastLine());
+            }
+        }
+    }
+
+    /**
+     * 删除条件恒为假的分支；遇到条件恒为真的分支时，删除其后的所有分支
+     *
+     * @param stat
+     * @return
+     */
+    private BaseStat optimizeIfStat(IfStat stat) {
+        List<BaseExp> exps = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < stat.getExps().size(); i++) {
+            BaseExp exp = optimizeExp(stat.getExps().get(i));
+            if (isFalse(exp)) {
+                continue;
+            }
+            exps.add(exp);
+            blocks.add(optimizeBlock(stat.getBlocks().get(i)));
+            if (isTrue(exp)) {
+                break;
+            }
+        }
+        if (exps.isEmpty()) {
+            return null;
+        }
+        if (exps.size() == 1 && isTrue(exps.get(0))) {
+            // 保留代码块的作用域
+            return new DoStat(blocks.get(0));
+        }
+        stat.setExps(exps);
+        stat.setBlocks(blocks);
+        return stat;
+    }
+
+    /**
+     * 优化表达式列表（列表可能不可修改，有表达式被改写时返回新的列表）
+     *
+     * @param exps
+     * @return
+     */
+    private List<BaseExp> optimizeExps(List<BaseExp> exps) {
+        if (exps == null) {
+            return null;
+        }
+        List<BaseExp> result = exps;
+        for (int i = 0; i < exps.size(); i++) {
+            BaseExp exp = optimizeExp(exps.get(i));
+            if (exp != exps.get(i)) {
+                if (result == exps) {
+                    result = new ArrayList<>(exps);
+                }
+                result.set(i, exp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 优化表达式：先优化子表达式，再尝试折叠自身
+     *
+     * @param exp
+     * @return
+     */
+    private BaseExp optimizeExp(BaseExp exp) {
+        if (exp instanceof NameExp) {
+            LocalVar v = refs.get(exp);
+            if (v != null && v.value != null) {
+                return copyLiteral(v.value, exp.getLine());
+            }
+        } else if (exp instanceof ParensExp) {
+            ParensExp pExp = (ParensExp) exp;
+            pExp.setExp(optimizeExp(pExp.getExp()));
+            if (isLiteral(pExp.getExp())) {
+                return pExp.getExp();
+            }
+        } else if (exp instanceof BinopExp) {
+            BinopExp bExp = (BinopExp) exp;
+            bExp.setExp1(optimizeExp(bExp.getExp1()));
+            bExp.setExp2(optimizeExp(bExp.getExp2()));
+            return optimizeBinop(bExp);
+        } else if (exp instanceof UnopExp) {
+            UnopExp uExp = (UnopExp) exp;
+            uExp.setExp(optimizeExp(uExp.getExp()));
+            return optimizeUnaryOp(uExp);
+        } else if (exp instanceof ConcatExp) {
+            ConcatExp cExp = (ConcatExp) exp;
+            cExp.setExps(optimizeExps(cExp.getExps()));
+            return optimizeConcat(cExp);
+        } else if (exp instanceof TableAccessExp) {
+            TableAccessExp taExp = (TableAccessExp) exp;
+            taExp.setPrefixExp(optimizeExp(taExp.getPrefixExp()));
+            taExp.setKeyExp(optimizeExp(taExp.getKeyExp()));
+        } else if (exp instanceof TableConstructorExp) {
+            TableConstructorExp tcExp = (TableConstructorExp) exp;
+            // 字面量字段无需优化
+            for (int i = 0; i < tcExp.size(); i++) {
+                if (tcExp.hasKeyNode(i)) {
+                    tcExp.setKeyExp(i, optimizeExp(tcExp.getKeyExp(i)));
+                }
+                if (tcExp.hasValNode(i)) {
+                    tcExp.setValExp(i, optimizeExp(tcExp.getValExp(i)));
+                }
+            }
+        } else if (exp instanceof FuncCallExp) {
+            FuncCallExp fcExp = (FuncCallExp) exp;
+            fcExp.setPrefixExp(optimizeExp(fcExp.getPrefixExp()));
+            fcExp.setArgs(optimizeExps(fcExp.getArgs()));
+            LocalVar v = inlineSites.get(fcExp);
+            if (v != null && !v.assigned) {
+                Block body = v.func.func.getBlock();
+                // 只内联单个返回表达式的函数，返回多个值的函数调用和 vararg 不内联
+                if (body.getStats().isEmpty() && body.getRetExps() != null && body.getRetExps().size() == 1
+                    && !isVarargOrFuncCall(body.getRetExps().get(0))) {
+                    return new InlineCallExp(fcExp.getLine(), parList(v.func.func), args(fcExp), body.getRetExps().get(0));
+                }
+            }
+        } else if (exp instanceof FuncDefExp) {
+            optimizeBlock(((FuncDefExp) exp).getBlock());
+        }
+        return exp;
+    }
+
+    /**
+     * 在调用语句处内联没有返回值的函数
+     *
+     * f(a, b) => do local x, y = a, b; <body> end
+     *
+     * @param fcExp
+     * @param fdExp
+     * @return
+     */
+    private static DoStat inlineStat(FuncCallExp fcExp, FuncDefExp fdExp) {
+        List<BaseStat> stats = new ArrayList<>(fdExp.getBlock().getStats().size() + 1);
+        stats.add(new LocalVarDeclStat(fcExp.getLine(), parList(fdExp), args(fcExp)));
+        stats.addAll(fdExp.getBlock().getStats());
+        Block block = new Block();
+        block.setLine(fcExp.getLine());
+        block.setLastLine(fcExp.getLine());
+        block.setStats(stats);
+        return new DoStat(block);
+    }
+
+    private static List<String> parList(FuncDefExp fdExp) {
+        return fdExp.getParList() != null ? fdExp.getParList() : new ArrayList<>();
+    }
+
+    private static List<BaseExp> args(FuncCallExp fcExp) {
+        return fcExp.getArgs() != null ? fcExp.getArgs() : new ArrayList<>();
+    }
+
+    /**
+     * 按运算符类型折叠二元运算
+     *
+     * @param exp
+     * @return
+     */
+    private static BaseExp optimizeBinop(BinopExp exp) {
+        switch (exp.getOp()) {
+            case TOKEN_OP_OR:
+                return optimizeLogicalOr(exp);
+            case TOKEN_OP_AND:
+                return optimizeLogicalAnd(exp);
+            case TOKEN_OP_BAND:
+            case TOKEN_OP_BOR:
+            case TOKEN_OP_BXOR:
+            case TOKEN_OP_SHL:
+            case TOKEN_OP_SHR:
+                return optimizeBitwiseBinaryOp(exp);
+            case TOKEN_OP_EQ:
+            case TOKEN_OP_NE:
+            case TOKEN_OP_LT:
+            case TOKEN_OP_LE:
+            case TOKEN_OP_GT:
+            case TOKEN_OP_GE:
+                return optimizeCompare(exp);
+            default:
+                return optimizeArithBinaryOp(exp);
+        }
+    }
+
+    /**
+     * 局部变量
+     */
+    private static final class LocalVar {
+
+        /**
+         * 声明之后是否被赋值
+         */
+        boolean assigned;
+
+        /**
+         * 常量值（字面量），为 null 表示不是常量
+         */
+        BaseExp value;
+
+        /**
+         * 声明所在的作用域深度
+         */
+        final int depth;
+
+        /**
+         * 以函数定义初始化时的内联信息
+         */
+        InlineCandidate func;
+
+        LocalVar(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * 内联候选函数
+     */
+    private static final class InlineCandidate {
+
+        final FuncDefExp func;
+
+        /**
+         * 函数自身绑定的局部变量（local function）
+         */
+        final LocalVar self;
+
+        /**
+         * 参数所在的作用域深度，小于该深度的变量属于外部变量
+         */
+        final int depth;
+
+        /**
+         * 函数体引用的外部变量（值为 null 表示全局变量）
+         */
+        final Map<String, LocalVar> freeNames = new HashMap<>();
+
+        /**
+         * 函数体的节点数
+         */
+        int size;
+
+        boolean inlinable;
+
+        /**
+         * 是否已解析完毕
+         */
+        boolean complete;
+
+        InlineCandidate(FuncDefExp func, LocalVar self, int depth) {
+            this.func = func;
+            this.self = self;
+            this.depth = depth;
+        }
+    }
+
+}
@@ -518,6 +518,7 @@ class ExpParser {
         // }
         lexer.nextTokenOfKind(TOKEN_SEP_RCURLY);
         tcExp.setLastLine(lexer.line());
+        tcExp.trimToSize();
         return tcExp;
     }
 
@@ -6,6 +6,9 @@ import com.ywh.jua.compiler.ast.exps.*;
 import com.ywh.jua.number.LuaMath;
 import com.ywh.jua.number.LuaNumber;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.ywh.jua.compiler.lexer.TokenKind.TOKEN_OP_POW;
 
 /**
@@ -243,12 +246,174 @@ class Optimizer {
         return exp;
     }
 
+    /**
+     * 比较运算：两侧均为字面量时直接求值（不同类型之间只能判断相等，大小比较在运行时报错，不作优化）
+     *
+     * @param exp
+     * @return
+     */
+    static BaseExp optimizeCompare(BinopExp exp) {
+        BaseExp a = exp.getExp1();
+        BaseExp b = exp.getExp2();
+        if (!isLiteral(a) || !isLiteral(b)) {
+            return exp;
+        }
+        Boolean result = null;
+        switch (exp.getOp()) {
+            case TOKEN_OP_EQ:
+                result = literalEquals(a, b);
+                break;
+            case TOKEN_OP_NE:
+                result = !literalEquals(a, b);
+                break;
+            case TOKEN_OP_LT:
+                result = literalCompare(a, b, false);
+                break;
+            case TOKEN_OP_LE:
+                result = literalCompare(a, b, true);
+                break;
+            case TOKEN_OP_GT:
+                result = literalCompare(b, a, false);
+                break;
+            case TOKEN_OP_GE:
+                result = literalCompare(b, a, true);
+                break;
+            default:
+                break;
+        }
+        if (result == null) {
+            return exp;
+        }
+        return result ? new TrueExp(exp.getLine()) : new FalseExp(exp.getLine());
+    }
+
+    /**
+     * 拼接：合并末尾相邻的字符串和整数字面量，全部合并时返回字符串字面量
+     * 拼接从右向左进行，左边的操作数遇到 __concat 元方法时会收到右边已拼接的中间结果，
+     * 所以只有末尾（右边不再有非字面量）的一段字面量可以合并。
+     * 浮点数转换为字符串的格式由运行时决定，不作合并。
+     *
+     * @param exp
+     * @return
+     */
+    static BaseExp optimizeConcat(ConcatExp exp) {
+        List<BaseExp> exps = exp.getExps();
+        int start = exps.size();
+        while (start > 0 && concatLiteral(exps.get(start - 1)) != null) {
+            start--;
+        }
+        if (exps.size() - start < 2) {
+            return exp;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < exps.size(); i++) {
+            sb.append(concatLiteral(exps.get(i)));
+        }
+        StringExp folded = new StringExp(exps.get(start).getLine(), sb.toString());
+        if (start == 0) {
+            return folded;
+        }
+        List<BaseExp> newExps = new ArrayList<>(exps.subList(0, start));
+        newExps.add(folded);
+        exp.setExps(newExps);
+        return exp;
+    }
+
+    private static String concatLiteral(BaseExp e) {
+        return e instanceof StringExp ? ((StringExp) e).getStr()
+            : e instanceof IntegerExp ? Long.toString(((IntegerExp) e).getVal()) : null;
+    }
+
+    /**
+     * 是否字面量（nil、布尔值、数字、字符串）
+     *
+     * @param exp
+     * @return
+     */
+    static boolean isLiteral(BaseExp exp) {
+        return exp instanceof NilExp || exp instanceof TrueExp || exp instanceof FalseExp
+            || exp instanceof IntegerExp || exp instanceof FloatExp || exp instanceof StringExp;
+    }
+
+    /**
+     * 复制字面量（折叠时可能会原地修改节点，不能共享）
+     *
+     * @param exp
+     * @param line
+     * @return
+     */
+    static BaseExp copyLiteral(BaseExp exp, int line) {
+        if (exp instanceof NilExp) {
+            return new NilExp(line);
+        }
+        if (exp instanceof TrueExp) {
+            return new TrueExp(line);
+        }
+        if (exp instanceof FalseExp) {
+            return new FalseExp(line);
+        }
+        if (exp instanceof IntegerExp) {
+            return new IntegerExp(line, ((IntegerExp) exp).getVal());
+        }
+        if (exp instanceof FloatExp) {
+            return new FloatExp(line, ((FloatExp) exp).getVal());
+        }
+        return new StringExp(line, ((StringExp) exp).getStr());
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    private static boolean literalEquals(BaseExp a, BaseExp b) {
+        if (a instanceof StringExp || b instanceof StringExp) {
+            return a instanceof StringExp && b instanceof StringExp
+                && ((StringExp) a).getStr().equals(((StringExp) b).getStr());
+        }
+        if (a instanceof IntegerExp && b instanceof IntegerExp) {
+            return ((IntegerExp) a).getVal() == ((IntegerExp) b).getVal();
+        }
+        Double f = castToFloat(a);
+        Double g = castToFloat(b);
+        if (f != null || g != null) {
+            return f != null && g != null && f.doubleValue() == g.doubleValue();
+        }
+        return a.getClass() == b.getClass();
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @param orEqual
+     * @return 无法比较时返回 null
+     */
+    private static Boolean literalCompare(BaseExp a, BaseExp b, boolean orEqual) {
+        if (a instanceof StringExp && b instanceof StringExp) {
+            int cmp = ((StringExp) a).getStr().compareTo(((StringExp) b).getStr());
+            return orEqual ? cmp <= 0 : cmp < 0;
+        }
+        if (a instanceof IntegerExp && b instanceof IntegerExp) {
+            long x = ((IntegerExp) a).getVal();
+            long y = ((IntegerExp) b).getVal();
+            return orEqual ? x <= y : x < y;
+        }
+        Double f = castToFloat(a);
+        Double g = castToFloat(b);
+        if (f != null && g != null) {
+            return orEqual ? f <= g : f < g;
+        }
+        return null;
+    }
+
     /**
      *
      * @param exp
      * @return
      */
-    private static boolean isFalse(BaseExp exp) {
+    static boolean isFalse(BaseExp exp) {
         return exp instanceof FalseExp || exp instanceof NilExp;
     }
 
@@ -257,7 +422,7 @@ class Optimizer {
      * @param exp
      * @return
      */
-    private static boolean isTrue(BaseExp exp) {
+    static boolean isTrue(BaseExp exp) {
         return exp instanceof TrueExp || exp instanceof IntegerExp || exp instanceof FloatExp || exp instanceof StringExp;
     }
 
@@ -266,7 +431,7 @@ class Optimizer {
      * @param exp
      * @return
      */
-    private static boolean isVarargOrFuncCall(BaseExp exp) {
+    static boolean isVarargOrFuncCall(BaseExp exp) {
         return exp instanceof VarargExp || exp instanceof FuncCallExp;
     }
 
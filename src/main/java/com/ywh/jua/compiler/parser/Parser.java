@@ -5,6 +5,8 @@ import com.ywh.jua.compiler.ast.Block;
 import com.ywh.jua.compiler.lexer.Lexer;
 import com.ywh.jua.compiler.lexer.TokenKind;
 
+import java.io.Reader;
+
 /**
  * 解析器
  *
@@ -14,7 +16,21 @@ import com.ywh.jua.compiler.lexer.TokenKind;
 public class Parser {
 
     public static Block parse(String chunk, String chunkName) {
-        Lexer lexer = new Lexer(chunk, chunkName);
+        return parse(new Lexer(chunk, chunkName));
+    }
+
+    /**
+     * 从 Reader 中流式读取源码并解析
+     *
+     * @param reader
+     * @param chunkName
+     * @return
+     */
+    public static Block parse(Reader reader, String chunkName) {
+        return parse(new Lexer(reader, chunkName));
+    }
+
+    private static Block parse(Lexer lexer) {
         Block block = BlockParser.parseBlock(lexer);
         lexer.nextTokenOfKind(TokenKind.TOKEN_EOF);
         return block;
@@ -29,6 +29,18 @@ public class Closure {
      */
     final UpvalueHolder[] upvals;
 
+    /**
+     * 指令级缓存（按 pc 索引），由虚拟机在执行时按需创建和填充。
+     * 放在闭包而不是函数原型上：原型可能被多个状态共享，闭包只属于创建它的状态，缓存项不会被其他状态覆盖，也不需要同步。
+     */
+    Object[] inlineCache;
+
+    /**
+     * 每个子函数原型最近实例化的闭包（按子函数下标索引，只缓存不捕获开放 Upvalue 的闭包），Upvalue 完全相同时可以直接复用。
+     * 与指令级缓存一样只属于创建本闭包的状态。
+     */
+    Closure[] protoClosures;
+
     Closure(Prototype proto) {
         this.proto = proto;
         this.javaFunc = null;
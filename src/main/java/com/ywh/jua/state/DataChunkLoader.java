@@ -0,0 +1,274 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.compiler.lexer.Lexer;
+import com.ywh.jua.compiler.lexer.Token;
+import com.ywh.jua.compiler.lexer.TokenKind;
+import com.ywh.jua.number.LuaNumber;
+
+import java.util.ArrayList;
+
+import static com.ywh.jua.compiler.lexer.TokenKind.*;
+import static com.ywh.jua.vm.Instructions.LFIELDS_PER_FLUSH;
+
+/**
+ * 数据型 chunk 快速加载器
+ * 形如 “return { ... }” 且表构造器中只有字面量（nil、布尔值、数字、字符串、嵌套的表构造器）的 chunk 不需要编译成字节码再执行：
+ * 直接在解析的同时构造 LuaTable，每个表按字段数预先分配数组和哈希表部分。
+ * 遇到其他任何语法（变量、函数调用、运算等）立即放弃，交给正常的编译流程，因此错误信息与编译执行时一致。
+ *
+ * 字段的写入顺序与代码生成保持一致：带键的字段立即写入，数组部分每 LFIELDS_PER_FLUSH 个（以及最后一批）一起写入，
+ * 所以 {1, [1] = 2} 之类的构造器得到的结果与执行字节码相同。
+ *
+ * 开启后 load 得到的是 Java 函数而不是 Lua 函数，string.dump 等需要函数原型的操作无法使用，
+ * 因此默认关闭，可通过 setEnabled 或系统属性 jua.data.loader=true 开启。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class DataChunkLoader {
+
+    /**
+     * 开关的系统属性
+     */
+    public static final String PROPERTY = "jua.data.loader";
+
+    /**
+     * 判断文件是否数据型 chunk 时读取的文件头长度
+     */
+    static final int HEAD_SIZE = 256;
+
+    /**
+     * 放弃快速加载的标记
+     */
+    private static final Object NOT_DATA = new Object();
+
+    private static volatile boolean enabled = "true".equals(System.getProperty(PROPERTY));
+
+    private final Lexer lexer;
+
+    /**
+     * 字段暂存栈，嵌套的表构造器共用（后进先出），每个字段占键、值两个位置，数组部分的键为 null。
+     */
+    private final ArrayList<Object> fields = new ArrayList<>();
+
+    private DataChunkLoader(String chunk, String chunkName) {
+        this.lexer = new Lexer(chunk, chunkName);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        DataChunkLoader.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 尝试把 chunk 当作数据加载
+     *
+     * @param chunk
+     * @param chunkName
+     * @return chunk 返回的表；不是数据型 chunk 则返回 null
+     */
+    static LuaTable load(String chunk, String chunkName) {
+        if (!maybeData(chunk)) {
+            return null;
+        }
+        DataChunkLoader loader = new DataChunkLoader(chunk, chunkName);
+        if (loader.lexer.nextToken().getKind() != TOKEN_KW_RETURN
+            || loader.lexer.nextToken().getKind() != TOKEN_SEP_LCURLY) {
+            return null;
+        }
+        Object table = loader.parseTable();
+        if (table == NOT_DATA) {
+            return null;
+        }
+        TokenKind kind = loader.lexer.nextToken().getKind();
+        if (kind == TOKEN_SEP_SEMI) {
+            kind = loader.lexer.nextToken().getKind();
+        }
+        return kind == TOKEN_EOF ? (LuaTable) table : null;
+    }
+
+    /**
+     * 根据 chunk 开头判断是否可能是数据型 chunk（跳过空白和注释后以 “return {” 开头），
+     * 用于避免为普通脚本读入整个文件或启动解析。
+     *
+     * @param head chunk 或者文件头
+     * @return
+     */
+    static boolean maybeData(CharSequence head) {
+        int i = skipSpaces(head, 0);
+        // 长注释或者文件头全是注释，无法判断，交给解析器
+        if (i < 0 || i == head.length()) {
+            return true;
+        }
+        if (!startsWith(head, i, "return")) {
+            return false;
+        }
+        i += "return".length();
+        if (i < head.length() && (Character.isLetterOrDigit(head.charAt(i)) || head.charAt(i) == '_')) {
+            return false;
+        }
+        i = skipSpaces(head, i);
+        return i < 0 || i == head.length() || head.charAt(i) == '{';
+    }
+
+    /**
+     * 跳过空白和注释
+     *
+     * @param s
+     * @param i
+     * @return 下一个字符的位置；遇到长注释（无法简单判断结束位置）则返回 -1
+     */
+    private static int skipSpaces(CharSequence s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (startsWith(s, i, "--")) {
+                if (startsWith(s, i + 2, "[")) {
+                    return -1;
+                }
+                while (i < s.length() && s.charAt(i) != '\n' && s.charAt(i) != '\r') {
+                    i++;
+                }
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence s, int i, String prefix) {
+        if (i + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (s.charAt(i + j) != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析表构造器（左花括号已跳过）
+     *
+     * tableconstructor ::= ‘{’ [fieldlist] ‘}’
+     * fieldlist ::= field {fieldsep field} [fieldsep]
+     * field ::= ‘[’ exp ‘]’ ‘=’ exp | Name ‘=’ exp | exp
+     *
+     * @return
+     */
+    private Object parseTable() {
+        int base = fields.size();
+        int nArr = 0;
+        while (lexer.LookAhead() != TOKEN_SEP_RCURLY) {
+            Token token = lexer.nextToken();
+            Object key = null;
+            Object val;
+            if (token.getKind() == TOKEN_SEP_LBRACK) {
+                key = parseValue(lexer.nextToken());
+                if (key == NOT_DATA || key == null || lexer.nextToken().getKind() != TOKEN_SEP_RBRACK
+                    || lexer.nextToken().getKind() != TOKEN_OP_ASSIGN) {
+                    return NOT_DATA;
+                }
+                val = parseValue(lexer.nextToken());
+            } else if (token.getKind() == TOKEN_IDENTIFIER) {
+                // 标识符后面不是等号则是变量引用
+                if (lexer.LookAhead() != TOKEN_OP_ASSIGN) {
+                    return NOT_DATA;
+                }
+                lexer.nextToken();
+                key = token.getValue();
+                val = parseValue(lexer.nextToken());
+            } else {
+                nArr++;
+                val = parseValue(token);
+            }
+            if (val == NOT_DATA) {
+                return NOT_DATA;
+            }
+            fields.add(key);
+            fields.add(val);
+
+            TokenKind kind = lexer.LookAhead();
+            if (kind == TOKEN_SEP_COMMA || kind == TOKEN_SEP_SEMI) {
+                lexer.nextToken();
+            } else if (kind != TOKEN_SEP_RCURLY) {
+                return NOT_DATA;
+            }
+        }
+        lexer.nextToken();
+        int n = (fields.size() - base) / 2;
+        LuaTable table = new LuaTable(nArr, n - nArr);
+
+        // 按代码生成的顺序写入字段
+        int arrIdx = 0;
+        int pending = base;
+        for (int i = base; i < fields.size(); i += 2) {
+            if (fields.get(i) != null) {
+                table.put(fields.get(i), fields.get(i + 1));
+                continue;
+            }
+            arrIdx++;
+            if (arrIdx % LFIELDS_PER_FLUSH == 0 || arrIdx == nArr) {
+                int idx = (arrIdx - 1) / LFIELDS_PER_FLUSH * LFIELDS_PER_FLUSH;
+                for (int j = pending; j <= i; j += 2) {
+                    if (fields.get(j) == null) {
+                        table.put((long) ++idx, fields.get(j + 1));
+                    }
+                }
+                pending = i + 2;
+            }
+        }
+        fields.subList(base, fields.size()).clear();
+        return table;
+    }
+
+    /**
+     * 解析字面量值
+     *
+     * @param token 值的第一个 token
+     * @return
+     */
+    private Object parseValue(Token token) {
+        switch (token.getKind()) {
+            case TOKEN_KW_NIL:
+                return null;
+            case TOKEN_KW_TRUE:
+                return true;
+            case TOKEN_KW_FALSE:
+                return false;
+            case TOKEN_STRING:
+                return token.getValue();
+            case TOKEN_NUMBER:
+                return parseNumber(token);
+            case TOKEN_OP_MINUS:
+                // 只接受数字字面量取负（与解析器的常量折叠一致）；其后还有运算符时由下一个字段分隔符的检查放弃
+                Object num = parseValue(lexer.nextToken());
+                if (num instanceof Long) {
+                    return -(Long) num;
+                }
+                if (num instanceof Double) {
+                    return -(Double) num;
+                }
+                return NOT_DATA;
+            case TOKEN_SEP_LCURLY:
+                return parseTable();
+            default:
+                return NOT_DATA;
+        }
+    }
+
+    private static Object parseNumber(Token token) {
+        Long i = LuaNumber.parseInteger(token.getValue());
+        if (i != null) {
+            return i;
+        }
+        Double f = LuaNumber.parseFloat(token.getValue());
+        return f != null ? f : NOT_DATA;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.ywh.jua.state;
+
+/**
+ * 全局绑定单元
+ * 全局环境表为每个被 GETTABUP / SETTABUP 以字符串常量访问的键发放一个稳定的单元，单元代替值保存在表的哈希表中，
+ * 是这个键唯一的存储；表的读写和遍历透过单元进行。
+ * 指令在闭包的指令级缓存中记住单元，之后读写全局变量只读写单元，不再查哈希表。
+ * 单元不会被回收（键被删除时值为 nil），因此缓存的单元始终有效，只需校验所属的表；
+ * 只有全局环境表发放单元，单元的数量不超过已加载代码中全局变量名的数量。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+final class GlobalCell {
+
+    /**
+     * 发放单元的表
+     */
+    final LuaTable owner;
+
+    Object value;
+
+    GlobalCell(LuaTable owner, Object value) {
+        this.owner = owner;
+        this.value = value;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.ywh.jua.state;
+
+/**
+ * 延迟拼接的字符串
+ * 循环中 s = s .. piece 每次都要复制整个 s，总开销是平方级的。拼接结果较长时 CONCAT 产生 LuaRope：
+ * 它与下一次拼接共享同一个 StringBuilder，左操作数是 rope 且缓冲区没有被别的 rope 扩展过时直接在末尾追加，
+ * 只有第一次被当作普通值使用时才生成 String（结果缓存）。
+ *
+ * rope 只存在于栈的寄存器中：寄存器之间的移动保持原样，其余所有取值（LuaStack 的 get、pop、slot，写入 Upvalue）都会先展开，
+ * 因此栈以外的代码看到的永远是 String。
+ *
+ * 默认开启，可通过 setEnabled 或系统属性 jua.string.rope=false 关闭。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public final class LuaRope {
+
+    /**
+     * 开关的系统属性
+     */
+    public static final String PROPERTY = "jua.string.rope";
+
+    /**
+     * 拼接结果达到这个长度才使用 rope，短字符串直接复制更便宜
+     */
+    static final int MIN_LENGTH = 128;
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty(PROPERTY));
+
+    /**
+     * 共享的缓冲区，前 length 个字符属于本 rope
+     */
+    private final StringBuilder buf;
+
+    private final int length;
+
+    private String flat;
+
+    LuaRope(StringBuilder buf) {
+        this.buf = buf;
+        this.length = buf.length();
+    }
+
+    public static void setEnabled(boolean enabled) {
+        LuaRope.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 展开
+     *
+     * @param val
+     * @return rope 展开后的 String，其他值原样返回
+     */
+    static Object flatten(Object val) {
+        return val instanceof LuaRope ? val.toString() : val;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * 取用于继续追加的缓冲区：共享缓冲区仍以本 rope 结尾则直接复用，否则复制一份
+     *
+     * @param extra 将要追加的长度
+     * @return
+     */
+    StringBuilder appendable(int extra) {
+        if (buf.length() == length) {
+            return buf;
+        }
+        StringBuilder b = new StringBuilder(Math.max(length + extra, length * 2));
+        return b.append(buf, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = buf.substring(0, length);
+        }
+        return flat;
+    }
+
+}
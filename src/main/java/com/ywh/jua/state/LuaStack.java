@@ -2,8 +2,6 @@ package com.ywh.jua.state;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
-import java.util.Map;
 
 import static com.ywh.jua.api.LuaState.LUA_REGISTRYINDEX;
 
@@ -18,6 +16,11 @@ import static com.ywh.jua.api.LuaState.LUA_REGISTRYINDEX;
  */
 class LuaStack {
 
+    /**
+     * 栈的最大容量
+     */
+    static final int MAX_SIZE = 10_000;
+
     /**
      * 自动扩容，无需判断是否有空闲
      */
@@ -36,9 +39,19 @@ class LuaStack {
     Closure closure;
 
     /**
-     * 变长参数
+     * 变长参数所在的帧（主调用帧）：调用期间参数一直留在主调用帧的栈上，被调用帧直接引用这一段，不需要复制。
      */
-    List<Object> varargs;
+    LuaStack varargFrame;
+
+    /**
+     * 变长参数在 varargFrame 中的起始下标（从 0 开始）
+     */
+    int varargBase;
+
+    /**
+     * 变长参数个数
+     */
+    int nVarargs;
 
     /**
      * 程序计数器
@@ -51,9 +64,9 @@ class LuaStack {
     LuaStack prev;
 
     /**
-     * 局部变量的寄存器索引表
+     * 开放 Upvalue 链表头，按寄存器索引从大到小排列（闭合时只需从表头摘除）
      */
-    Map<Integer, UpvalueHolder> openuvs;
+    UpvalueHolder openuvs;
 
     public LuaStack(int stackSize) {
         this.slots = new ArrayList<>(stackSize);
@@ -74,7 +87,7 @@ class LuaStack {
      * @param val
      */
     void push(Object val) {
-        if (slots.size() > 10_000) {
+        if (slots.size() > MAX_SIZE) {
             throw new StackOverflowError();
         }
         slots.add(val);
@@ -87,38 +100,57 @@ class LuaStack {
      * @return
      */
     Object pop() {
+        return LuaRope.flatten(slots.remove(slots.size() - 1));
+    }
+
+    /**
+     * 出栈（不展开 rope，只用于寄存器之间的移动）
+     *
+     * @return
+     */
+    Object popRaw() {
         return slots.remove(slots.size() - 1);
     }
 
     /**
-     * 入栈 n 个
+     * 把从下标 from（从 0 开始）开始的 n 个值推入另一个栈，按 nWanted 多退少补（-1 表示全部）
      *
-     * @param vals
+     * @param to
+     * @param from
      * @param n
+     * @param nWanted
      */
-    void pushN(List<Object> vals, int n) {
-        int nVals = vals == null ? 0 : vals.size();
-        if (n < 0) {
-            n = nVals;
+    void copyTo(LuaStack to, int from, int n, int nWanted) {
+        if (nWanted < 0) {
+            nWanted = n;
         }
-        for (int i = 0; i < n; i++) {
-            push(i < nVals ? vals.get(i) : null);
+        for (int i = 0; i < nWanted; i++) {
+            to.push(i < n ? slots.get(from + i) : null);
         }
     }
 
     /**
-     * 出栈 n 个
+     * 弹出栈顶的 n 个值并按顺序推入另一个栈，按 nWanted 多退少补（-1 表示全部）
      *
+     * @param to
      * @param n
-     * @return
+     * @param nWanted
      */
-    List<Object> popN(int n) {
-        List<Object> vals = new ArrayList<>(n);
-        for (int i = 0; i < n; i++) {
-            vals.add(pop());
+    void popTo(LuaStack to, int n, int nWanted) {
+        int from = slots.size() - n;
+        copyTo(to, from, n, nWanted);
+        truncate(from);
+    }
+
+    /**
+     * 把栈截断到指定长度
+     *
+     * @param top
+     */
+    void truncate(int top) {
+        for (int i = slots.size() - 1; i >= top; i--) {
+            slots.remove(i);
         }
-        Collections.reverse(vals);
-        return vals;
     }
 
     /**
@@ -180,12 +212,55 @@ class LuaStack {
         }
         int absIdx = absIndex(idx);
         if (absIdx > 0 && absIdx <= slots.size()) {
-            return slots.get(absIdx - 1);
+            return flattenSlot(absIdx - 1);
         } else {
             return null;
         }
     }
 
+    /**
+     * 取值（不展开 rope，只用于寄存器之间的移动和拼接）
+     *
+     * @param idx
+     * @return
+     */
+    Object getRaw(int idx) {
+        int absIdx = absIndex(idx);
+        if (idx > LUA_REGISTRYINDEX && absIdx > 0 && absIdx <= slots.size()) {
+            return slots.get(absIdx - 1);
+        }
+        return get(idx);
+    }
+
+    /**
+     * 按寄存器索引（从 0 开始）直接取值，供开放 Upvalue 使用
+     *
+     * @param i
+     * @return
+     */
+    Object slot(int i) {
+        return i < slots.size() ? flattenSlot(i) : null;
+    }
+
+    /**
+     * 取寄存器的值，rope 展开后写回
+     *
+     * @param i
+     * @return
+     */
+    private Object flattenSlot(int i) {
+        Object val = slots.get(i);
+        if (val instanceof LuaRope) {
+            val = val.toString();
+            slots.set(i, val);
+        }
+        return val;
+    }
+
+    void setSlot(int i, Object val) {
+        slots.set(i, val);
+    }
+
     /**
      * 设值
      *
@@ -197,7 +272,7 @@ class LuaStack {
         if (idx < LUA_REGISTRYINDEX) {
             int uvIdx = LUA_REGISTRYINDEX - idx - 1;
             if (closure != null && closure.upvals.length > uvIdx && closure.upvals[uvIdx] != null) {
-                closure.upvals[uvIdx].set(val);
+                closure.upvals[uvIdx].set(LuaRope.flatten(val));
             }
             return;
         }
@@ -1,19 +1,27 @@
 package com.ywh.jua.state;
 
 
+
 import com.ywh.jua.api.*;
+import com.ywh.jua.chunk.BinaryChunk;
 import com.ywh.jua.chunk.Prototype;
 import com.ywh.jua.chunk.Upvalue;
+import com.ywh.jua.compiler.ChunkCache;
+import com.ywh.jua.compiler.ProtoCache;
 import com.ywh.jua.number.LuaNumber;
 import com.ywh.jua.stdlib.*;
+import com.ywh.jua.string.LuaBuffer;
+import com.ywh.jua.string.LuaString;
 import com.ywh.jua.vm.Instruction;
 import com.ywh.jua.vm.OpCode;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 
 import static com.ywh.jua.api.ArithOp.LUA_OPBNOT;
 import static com.ywh.jua.api.ArithOp.LUA_OPUNM;
@@ -92,6 +100,18 @@ public class LuaStateImpl implements LuaState, LuaVM {
         top.prev = null;
     }
 
+    /**
+     * 出错时弹出 target 之上的调用帧，并闭合这些帧的开放 Upvalue
+     *
+     * @param target
+     */
+    private void unwind(LuaStack target) {
+        while (stack != target) {
+            closeUpvalues(1);
+            popLuaStack();
+        }
+    }
+
     /**
      * 返回栈顶
      *
@@ -121,7 +141,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public boolean checkStack(int n) {
-        return true; // TODO
+        return stack.top() + n <= LuaStack.MAX_SIZE;
     }
 
     /**
@@ -144,7 +164,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void copy(int fromIdx, int toIdx) {
-        stack.set(toIdx, stack.get(fromIdx));
+        stack.set(toIdx, stack.getRaw(fromIdx));
     }
 
     /**
@@ -154,7 +174,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void pushValue(int idx) {
-        stack.push(stack.get(idx));
+        stack.push(stack.getRaw(idx));
     }
 
     /**
@@ -164,7 +184,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void replace(int idx) {
-        stack.set(idx, stack.pop());
+        stack.set(idx, stack.popRaw());
     }
 
     /**
@@ -372,6 +392,16 @@ public class LuaStateImpl implements LuaState, LuaVM {
         return type(idx) == LUA_TTHREAD;
     }
 
+    /**
+     *
+     * @param idx
+     * @return
+     */
+    @Override
+    public boolean isUserdata(int idx) {
+        return stack.get(idx) instanceof Userdata;
+    }
+
     /**
      *
      * @param idx
@@ -397,8 +427,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
 
     @Override
     public Long toIntegerX(int idx) {
-        Object val = stack.get(idx);
-        return val instanceof Long ? (Long) val : null;
+        return LuaValue.toInteger(stack.get(idx));
     }
 
     @Override
@@ -409,14 +438,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
 
     @Override
     public Double toNumberX(int idx) {
-        Object val = stack.get(idx);
-        if (val instanceof Double) {
-            return (Double) val;
-        } else if (val instanceof Long) {
-            return ((Long) val).doubleValue();
-        } else {
-            return null;
-        }
+        return LuaValue.toFloat(stack.get(idx));
     }
 
     @Override
@@ -431,6 +453,12 @@ public class LuaStateImpl implements LuaState, LuaVM {
         }
     }
 
+    @Override
+    public Object toUserdata(int idx) {
+        Object val = stack.get(idx);
+        return val instanceof Userdata ? ((Userdata) val).data : null;
+    }
+
     // ========== 指定类型的值入栈 ==========
 
     /**
@@ -562,6 +590,16 @@ public class LuaStateImpl implements LuaState, LuaVM {
         stack.push(new LuaTable(nArr, nRec));
     }
 
+    /**
+     * 创建包装 Java 对象的完全用户数据（没有元表），将其推入栈顶。
+     *
+     * @param data
+     */
+    @Override
+    public void newUserdata(Object data) {
+        stack.push(new Userdata(data));
+    }
+
     /**
      * 根据索引从栈中取表，再根据从栈顶弹出的键取值（并将其推入栈顶）。
      *
@@ -734,8 +772,190 @@ public class LuaStateImpl implements LuaState, LuaVM {
     @Override
     public ThreadStatus load(byte[] chunk, String chunkName, String mode) {
 
-        // 解析字节数组为函数原型，把实例化为闭包的函数原型推入栈顶。
-        Prototype proto = isBinaryChunk(chunk) ? undump(chunk) : compile(new String(chunk), chunkName);
+        // 文本 chunk 只解码一次，数据型 chunk 的识别和编译共用同一份源码。
+        boolean binary = isBinaryChunk(chunk);
+        String source = binary ? null : LuaString.valueOf(chunk);
+
+        // 只有表构造器的数据型 chunk 直接构造表，不经过编译和执行。
+        if (DataChunkLoader.isEnabled() && !binary) {
+            LuaTable table = DataChunkLoader.load(source, chunkName);
+            if (table != null) {
+                pushDataClosure(table, chunk, chunkName);
+                return LUA_OK;
+            }
+        }
+
+        // 解析字节数组为函数原型（启用了进程级缓存时，相同的 chunk 复用缓存的原型，缓存以字节计算摘要，不需要解码），
+        // 把实例化为闭包的函数原型推入栈顶。
+        Prototype proto = ProtoCache.get(chunk, chunkName, () -> binary ? undump(chunk) : compile(source, chunkName));
+        pushMainClosure(proto);
+        return LUA_OK;
+    }
+
+    /**
+     * 从输入流加载 chunk
+     * 先读取签名判断是否二进制 chunk；文本脚本则包装为 Reader 交给编译器按块读取。
+     *
+     * @param in
+     * @param chunkName
+     * @param mode
+     * @return
+     */
+    @Override
+    public ThreadStatus load(InputStream in, String chunkName, String mode) {
+        try (InputStream bin = in) {
+            pushMainClosure(readChunk(bin, chunkName));
+            return LUA_OK;
+        } catch (IOException | UncheckedIOException e) {
+            stack.push(e.getMessage());
+            return LUA_ERRFILE;
+        }
+    }
+
+    /**
+     * 加载已编译的函数原型
+     *
+     * @param proto
+     * @return
+     */
+    @Override
+    public ThreadStatus load(Prototype proto) {
+        pushMainClosure(proto);
+        return LUA_OK;
+    }
+
+    /**
+     * 从输入流解析函数原型
+     *
+     * @param in
+     * @param chunkName
+     * @return
+     * @throws IOException
+     */
+    private static Prototype readChunk(InputStream in, String chunkName) throws IOException {
+        InputStream bin = in.markSupported() ? in : new BufferedInputStream(in);
+        bin.mark(4);
+        byte[] head = new byte[4];
+        int n = 0;
+        for (int r; n < head.length && (r = bin.read(head, n, head.length - n)) > 0; ) {
+            n += r;
+        }
+        bin.reset();
+        return isBinaryChunk(head) ? undump(readAllBytes(bin)) : compile(new InputStreamReader(bin, LuaString.CHARSET), chunkName);
+    }
+
+    /**
+     * 读取文件并解析函数原型
+     * 启用了磁盘编译缓存时需要读入整个文件计算摘要，否则按块读取编译。
+     *
+     * @param path
+     * @param chunkName
+     * @return
+     */
+    private static Prototype readFile(Path path, String chunkName) {
+        try {
+            if (ChunkCache.getDirectory() != null) {
+                byte[] data = Files.readAllBytes(path);
+                return isBinaryChunk(data) ? undump(data) : ChunkCache.compile(data, chunkName);
+            }
+            try (InputStream in = Files.newInputStream(path)) {
+                return readChunk(in, chunkName);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 序列化栈顶的 Lua 函数
+     *
+     * @param strip
+     * @return
+     */
+    @Override
+    public byte[] dump(boolean strip) {
+        Object val = stack.get(-1);
+        if (val instanceof Closure && ((Closure) val).proto != null) {
+            return BinaryChunk.dump(((Closure) val).proto, strip);
+        }
+        return null;
+    }
+
+    /**
+     * 读取输入流剩余的所有字节
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private static byte[] readAllBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 尝试把文件当作数据型 chunk 加载，成功则把闭包推入栈顶
+     * 先读取文件头判断，普通脚本不会被整个读入。
+     *
+     * @param path
+     * @param chunkName
+     * @return
+     * @throws IOException
+     */
+    private boolean loadDataFile(Path path, String chunkName) throws IOException {
+        byte[] head = new byte[DataChunkLoader.HEAD_SIZE];
+        int n = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            for (int r; n < head.length && (r = in.read(head, n, head.length - n)) > 0; ) {
+                n += r;
+            }
+        }
+        if (isBinaryChunk(head) || !DataChunkLoader.maybeData(LuaString.valueOf(head, 0, n))) {
+            return false;
+        }
+        byte[] data = Files.readAllBytes(path);
+        LuaTable table = DataChunkLoader.load(LuaString.valueOf(data), chunkName);
+        if (table == null) {
+            return false;
+        }
+        pushDataClosure(table, data, chunkName);
+        return true;
+    }
+
+    /**
+     * 把数据型 chunk 包装为闭包并推入栈顶
+     * 首次调用返回加载时构造的表，再次调用则重新解析源码，保证每次调用都得到新的表（与执行字节码一致）。
+     * 为此闭包在可达期间一直持有 chunk 的字节（而不是解码后的字符串，在 Java 8 上后者占用两倍内存），
+     * 代价与普通闭包持有函数原型相当；require、dofile 只调用一次，闭包随即不可达，字节也一并回收。
+     *
+     * @param table
+     * @param chunk
+     * @param chunkName
+     */
+    private void pushDataClosure(LuaTable table, byte[] chunk, String chunkName) {
+        LuaTable[] first = {table};
+        stack.push(new Closure(ls -> {
+            LuaTable t = first[0];
+            if (t != null) {
+                first[0] = null;
+            } else {
+                t = DataChunkLoader.load(LuaString.valueOf(chunk), chunkName);
+            }
+            ls.stack.push(t);
+            return 1;
+        }, 0));
+    }
+
+    /**
+     * 把主函数原型实例化为闭包并推入栈顶
+     *
+     * @param proto
+     */
+    private void pushMainClosure(Prototype proto) {
         Closure closure = new Closure(proto);
         stack.push(closure);
 
@@ -746,7 +966,6 @@ public class LuaStateImpl implements LuaState, LuaVM {
             Object env = registry.get(LUA_RIDX_GLOBALS);
             closure.upvals[0] = new UpvalueHolder(env);
         }
-        return LUA_OK;
     }
 
     /**
@@ -810,14 +1029,15 @@ public class LuaStateImpl implements LuaState, LuaVM {
         LuaStack newStack = new LuaStack(nRegs + LUA_MINSTACK);
         newStack.closure = c;
 
-        // 把函数和参数值从主调用帧弹出。
-        List<Object> funcAndArgs = stack.popN(nArgs + 1);
-
-        // 按照固定参数数量，把参数传入被调用帧。
-        // 如果被调用函数是 vararg 参数，且传入参数的数量多于固定参数数量，需要把 vararg 参数记录在被调用帧。
-        newStack.pushN(funcAndArgs.subList(1, funcAndArgs.size()), nParams);
+        // 按照固定参数数量，把参数复制到被调用帧。
+        // 如果被调用函数是 vararg 参数，且传入参数的数量多于固定参数数量，需要把 vararg 参数记录在被调用帧：
+        // 函数和参数在调用结束前一直留在主调用帧，被调用帧只记录 vararg 参数在主调用帧中的位置。
+        int argBase = stack.top() - nArgs;
+        stack.copyTo(newStack, argBase, nArgs, nParams);
         if (nArgs > nParams && isVararg) {
-            newStack.varargs = funcAndArgs.subList(nParams + 1, funcAndArgs.size());
+            newStack.varargFrame = stack;
+            newStack.varargBase = argBase + nParams;
+            newStack.nVarargs = nArgs - nParams;
         }
 
         // 被调用帧入栈（成为“当前帧”），且超出 nRegs 部分为溢出。
@@ -828,11 +1048,12 @@ public class LuaStateImpl implements LuaState, LuaVM {
         runLuaClosure();
         popLuaStack();
 
+        // 把函数和参数值从主调用帧弹出。
+        stack.truncate(argBase - 1);
+
         // 如果有返回值，则从被调用帧中获取，并放入当前帧。
         if (nResults != 0) {
-            List<Object> results = newStack.popN(newStack.top() - nRegs);
-            //stack.check(results.size())
-            stack.pushN(results, nResults);
+            newStack.popTo(stack, newStack.top() - nRegs, nResults);
         }
     }
 
@@ -851,7 +1072,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
 
         // 把参数值从主调用帧中弹出，推入被调用帧后，Java 闭包从主调用帧中弹出。
         if (nArgs > 0) {
-            newStack.pushN(stack.popN(nArgs), nArgs);
+            stack.popTo(newStack, nArgs, nArgs);
         }
         stack.pop();
 
@@ -862,9 +1083,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
 
         // 如果有返回值，则把返回值从被调用帧弹出、推入主调用帧（多退少补）。
         if (nResults != 0) {
-            List<Object> results = newStack.popN(r);
-            //stack.check(results.size())
-            stack.pushN(results, nResults);
+            newStack.popTo(stack, r, nResults);
         }
     }
 
@@ -919,7 +1138,8 @@ public class LuaStateImpl implements LuaState, LuaVM {
      * 拼接
      * 从栈顶弹出 n 个值，对这些值进行拼接，再把结果推入栈顶。
      * 当 n 为 0，则推入空串；
-     * 要求这 n 个值都是字符串。
+     * 与 luaV_concat 一样从栈顶开始，连续的字符串（数字）一次拼接完成，遇到其他类型的值才两两调用元方法；
+     * 结果较长时产生 LuaRope，下一次以它开头的拼接直接在缓冲区末尾追加。
      *
      * @param n
      */
@@ -927,31 +1147,71 @@ public class LuaStateImpl implements LuaState, LuaVM {
     public void concat(int n) {
         if (n == 0) {
             stack.push("");
-        } else if (n >= 2) {
-            for (int i = 1; i < n; i++) {
-                // 栈顶两个值都为字符串。
-                if (isString(-1) && isString(-2)) {
-                    String s2 = toString(-1);
-                    String s1 = toString(-2);
-                    pop(2);
-                    pushString(s1 + s2);
-                    continue;
-                }
-
-                // 栈顶两个值至少一个不为字符串，查找类型对应的拼接元方法。
+            return;
+        }
+        while (n >= 2) {
+            // 栈顶两个值至少一个不能转换为字符串，查找类型对应的拼接元方法。
+            if (!isConcatable(stack.getRaw(-1)) || !isConcatable(stack.getRaw(-2))) {
                 Object b = stack.pop();
                 Object a = stack.pop();
                 Object mm = getMetamethod(a, b, "__concat");
-                if (mm != null) {
-                    stack.push(callMetamethod(a, b, mm));
-                    continue;
+                if (mm == null) {
+                    throw new RuntimeException("concatenation error!");
                 }
+                stack.push(callMetamethod(a, b, mm));
+                n--;
+                continue;
+            }
 
-                throw new RuntimeException("concatenation error!");
+            // 收集栈顶连续的字符串（数字），先算出总长度，再一次性复制到同一个缓冲区。
+            int k = 2;
+            while (k < n && isConcatable(stack.getRaw(-k - 1))) {
+                k++;
             }
+            Object first = stack.getRaw(-k);
+            String[] pieces = new String[k];
+            int total = 0;
+            for (int i = first instanceof LuaRope ? 1 : 0; i < k; i++) {
+                pieces[i] = concatPiece(stack.getRaw(i - k));
+                total += pieces[i].length();
+            }
+            Object result;
+            if (first instanceof LuaRope) {
+                StringBuilder sb = ((LuaRope) first).appendable(total);
+                for (int i = 1; i < k; i++) {
+                    sb.append(pieces[i]);
+                }
+                result = new LuaRope(sb);
+            } else if (LuaRope.isEnabled() && total >= LuaRope.MIN_LENGTH) {
+                StringBuilder sb = new StringBuilder(total * 2);
+                for (String piece : pieces) {
+                    sb.append(piece);
+                }
+                result = new LuaRope(sb);
+            } else {
+                // 按总长度一次复制
+                result = String.join("", pieces);
+            }
+            stack.truncate(stack.top() - k);
+            stack.push(result);
+            n -= k - 1;
         }
     }
 
+    private static boolean isConcatable(Object val) {
+        return val instanceof String || val instanceof LuaRope || val instanceof Long || val instanceof Double;
+    }
+
+    /**
+     * 拼接的片段：字符串原样使用，rope 展开，数字转换为字符串
+     *
+     * @param val
+     * @return
+     */
+    private static String concatPiece(Object val) {
+        return val instanceof String ? (String) val : val.toString();
+    }
+
     /**
      * 修改 PC（用于实现跳转指令）
      *
@@ -1017,13 +1277,13 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void loadVararg(int n) {
-        List<Object> varargs = stack.varargs != null ? stack.varargs : Collections.emptyList();
-        if (n < 0) {
-            n = varargs.size();
+        if (stack.varargFrame != null) {
+            stack.varargFrame.copyTo(stack, stack.varargBase, stack.nVarargs, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                stack.push(null);
+            }
         }
-
-        //stack.check(n)
-        stack.pushN(varargs, n);
     }
 
     /**
@@ -1033,35 +1293,76 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void loadProto(int idx) {
-        Prototype proto = stack.closure.proto.getProtos()[idx];
+        // 惰性编译的函数在首次实例化时生成函数体
+        Closure parent = stack.closure;
+        Prototype proto = parent.proto.getProtos()[idx].load();
+        Upvalue[] uvInfos = proto.getUpvalues();
+
+        // 不捕获开放 Upvalue 的闭包可以缓存：Upvalue 与上次实例化时完全相同（继承的 Upvalue 是同一个、按值捕获的值相等），
+        // 新闭包与缓存的闭包无法区分，直接复用，避免在循环中反复创建。
+        boolean cacheable = true;
+        for (Upvalue uvInfo : uvInfos) {
+            if (uvInfo.getInstack() == 1 && !uvInfo.isByValue()) {
+                cacheable = false;
+                break;
+            }
+        }
+        if (cacheable) {
+            Closure cached = parent.protoClosures != null ? parent.protoClosures[idx] : null;
+            if (cached != null && canReuse(cached, uvInfos)) {
+                stack.push(cached);
+                return;
+            }
+        }
+
         Closure closure = new Closure(proto);
         stack.push(closure);
 
         // 根据函数原型中的 Upvalue 表来初始化闭包的 Upvalue 值
-        for (int i = 0; i < proto.getUpvalues().length; i++) {
-            Upvalue uvInfo = proto.getUpvalues()[i];
+        for (int i = 0; i < uvInfos.length; i++) {
+            Upvalue uvInfo = uvInfos[i];
             int uvIdx = uvInfo.getIdx();
 
             // 该 Upvalue 捕获的是当前函数的局部变量。
             // 开放状态：Upvalue 捕获的外围函数局部变量还在栈上，直接引用（寄存器里的 Lua 值）；
             // 闭合状态：Upvalue 捕获的外围函数局部变量不在栈上，需要保存在其他地方。
             // 开放 => 闭合：把寄存器里的 Lua 值复制出来，再更新 Upvalue。
+            // 按值捕获的局部变量从未被重新赋值，直接创建闭合的 Upvalue。
             if (uvInfo.getInstack() == 1) {
-                if (stack.openuvs == null) {
-                    stack.openuvs = new HashMap<>();
-                }
-                if (stack.openuvs.containsKey(uvIdx)) {
-                    closure.upvals[i] = stack.openuvs.get(uvIdx);
-                } else {
-                    closure.upvals[i] = new UpvalueHolder(stack, uvIdx);
-                    stack.openuvs.put(uvIdx, closure.upvals[i]);
-                }
+                closure.upvals[i] = uvInfo.isByValue() ? new UpvalueHolder(stack.slot(uvIdx)) : findUpval(uvIdx);
             }
             // 该 Upvalue 捕获的是更外围函数中的局部变量（0）。
             else {
                 closure.upvals[i] = stack.closure.upvals[uvIdx];
             }
         }
+        if (cacheable) {
+            if (parent.protoClosures == null) {
+                parent.protoClosures = new Closure[parent.proto.getProtos().length];
+            }
+            parent.protoClosures[idx] = closure;
+        }
+    }
+
+    /**
+     * 判断缓存的闭包能否代替新实例化的闭包
+     *
+     * @param cached
+     * @param uvInfos
+     * @return
+     */
+    private boolean canReuse(Closure cached, Upvalue[] uvInfos) {
+        for (int i = 0; i < uvInfos.length; i++) {
+            UpvalueHolder uv = cached.upvals[i];
+            if (uvInfos[i].getInstack() == 1) {
+                if (uv == null || !Objects.equals(uv.get(), stack.slot(uvInfos[i].getIdx()))) {
+                    return false;
+                }
+            } else if (uv != stack.closure.upvals[uvInfos[i].getIdx()]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -1072,16 +1373,108 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void closeUpvalues(int a) {
-        if (stack.openuvs == null) {
-            return;
+        // 链表按索引从大到小排列，需要闭合的都在表头
+        UpvalueHolder uv = stack.openuvs;
+        while (uv != null && uv.index >= a - 1) {
+            uv.migrate();
+            UpvalueHolder next = uv.next;
+            uv.next = null;
+            uv = next;
         }
-        for (Iterator<UpvalueHolder> it = stack.openuvs.values().iterator(); it.hasNext(); ) {
-            UpvalueHolder uv = it.next();
-            if (uv.index >= a - 1) {
-                uv.migrate();
-                it.remove();
-            }
+        stack.openuvs = uv;
+    }
+
+    /**
+     * 查找捕获指定寄存器的开放 Upvalue，不存在则创建并按索引插入链表。
+     *
+     * @param uvIdx
+     * @return
+     */
+    private UpvalueHolder findUpval(int uvIdx) {
+        UpvalueHolder prev = null;
+        UpvalueHolder uv = stack.openuvs;
+        while (uv != null && uv.index > uvIdx) {
+            prev = uv;
+            uv = uv.next;
+        }
+        if (uv != null && uv.index == uvIdx) {
+            return uv;
+        }
+        UpvalueHolder created = new UpvalueHolder(stack, uvIdx);
+        created.next = uv;
+        if (prev == null) {
+            stack.openuvs = created;
+        } else {
+            prev.next = created;
         }
+        return created;
+    }
+
+    @Override
+    public boolean getTabUpFast(int idx, int rk) {
+        LuaTable env = upvalTable(idx);
+        GlobalCell cell = env != null ? globalCell(env, rk) : null;
+        // 值为 nil 时可能需要 __index 元方法
+        if (cell == null || cell.value == null && env.metatable != null) {
+            return false;
+        }
+        stack.push(cell.value);
+        return true;
+    }
+
+    @Override
+    public boolean setTabUpFast(int idx, int rkKey, int rkVal) {
+        LuaTable env = upvalTable(idx);
+        GlobalCell cell = env != null ? globalCell(env, rkKey) : null;
+        // 键不存在时可能需要 __newindex 元方法
+        if (cell == null || cell.value == null && env.metatable != null) {
+            return false;
+        }
+        cell.value = rkVal > 0xFF ? stack.closure.proto.getConstants()[rkVal & 0xFF] : stack.get(rkVal + 1);
+        return true;
+    }
+
+    /**
+     * 取当前闭包中值为表的 Upvalue
+     *
+     * @param idx
+     * @return
+     */
+    private LuaTable upvalTable(int idx) {
+        UpvalueHolder uv = stack.closure.upvals[idx - 1];
+        Object val = uv != null ? uv.get() : null;
+        return val instanceof LuaTable ? (LuaTable) val : null;
+    }
+
+    /**
+     * 取当前指令缓存的全局绑定单元；未缓存或缓存的单元属于其他表时向表申请并缓存。
+     *
+     * @param env
+     * @param rk
+     * @return 表不是全局环境或者键不是字符串常量时返回 null
+     */
+    private GlobalCell globalCell(LuaTable env, int rk) {
+        if (rk <= 0xFF) {
+            return null;
+        }
+        Closure closure = stack.closure;
+        int pc = stack.pc - 1;
+        Object[] cache = closure.inlineCache;
+        if (cache == null) {
+            cache = new Object[closure.proto.getCode().length];
+            closure.inlineCache = cache;
+        }
+        Object cached = cache[pc];
+        if (cached instanceof GlobalCell && ((GlobalCell) cached).owner == env) {
+            return (GlobalCell) cached;
+        }
+        Object key = closure.proto.getConstants()[rk & 0xFF];
+        if (!(key instanceof String) || env != registry.get(LUA_RIDX_GLOBALS)) {
+            return null;
+        }
+        GlobalCell cell = env.cell((String) key);
+        cache[pc] = cell;
+        return cell;
     }
 
     /**
@@ -1228,6 +1621,9 @@ public class LuaStateImpl implements LuaState, LuaVM {
         if (val instanceof LuaTable) {
             return ((LuaTable) val).metatable;
         }
+        if (val instanceof Userdata) {
+            return ((Userdata) val).metatable;
+        }
         String key = "_MT" + LuaValue.typeOf(val);
         Object mt = registry.get(key);
         return mt != null ? (LuaTable) mt : null;
@@ -1238,11 +1634,15 @@ public class LuaStateImpl implements LuaState, LuaVM {
      * @param mt
      */
     private void setMetatable(Object val, LuaTable mt) {
-        // 判断值是否为表，是则直接修改其元表字段，否则根据变量类型把元表存储在注册表中。
+        // 表和完全用户数据直接修改其元表字段，其他值根据变量类型把元表存储在注册表中。
         if (val instanceof LuaTable) {
             ((LuaTable) val).metatable = mt;
             return;
         }
+        if (val instanceof Userdata) {
+            ((Userdata) val).metatable = mt;
+            return;
+        }
         String key = "_MT" + LuaValue.typeOf(val);
         registry.put(key, mt);
     }
@@ -1294,6 +1694,116 @@ public class LuaStateImpl implements LuaState, LuaVM {
     }
 
 
+    @Override
+    public int arrayLength(int idx) {
+        Object val = stack.get(idx);
+        if (val instanceof LuaTable && ((LuaTable) val).isPlainArray()) {
+            return ((LuaTable) val).length();
+        }
+        return -1;
+    }
+
+    @Override
+    public void arrayPush(int idx, int i, int j) {
+        LuaTable t = (LuaTable) stack.get(idx);
+        for (int k = i; k <= j; k++) {
+            stack.push(t.arrayGet(k));
+        }
+    }
+
+    @Override
+    public void arrayInsert(int idx, int pos) {
+        LuaTable t = (LuaTable) stack.get(idx);
+        t.arrayInsert(pos, stack.pop());
+    }
+
+    @Override
+    public void arrayRemove(int idx, int pos) {
+        LuaTable t = (LuaTable) stack.get(idx);
+        stack.push(t.arrayRemove(pos));
+    }
+
+    @Override
+    public boolean arrayMove(int idx1, int f, int e, int t, int idx2) {
+        LuaTable a1 = (LuaTable) stack.get(idx1);
+        LuaTable a2 = (LuaTable) stack.get(idx2);
+        return a1.arrayMove(f, e, t, a2);
+    }
+
+    @Override
+    public int arrayConcat(int idx, String sep, int i, int j, LuaBuffer b) {
+        LuaTable t = (LuaTable) stack.get(idx);
+        return t.arrayConcat(sep, i, j, b);
+    }
+
+    @Override
+    public void sortTable(int idx, int n, int comp) {
+        Object t = stack.get(idx);
+        BiPredicate<Object, Object> lt = comp != 0 ? lessThan((Closure) stack.get(comp)) : (a, b) -> Comparison.lt(a, b, this);
+        if (t instanceof LuaTable && ((LuaTable) t).isPlainArray() && ((LuaTable) t).length() == n) {
+            ((LuaTable) t).arraySort(lt, comp == 0);
+            return;
+        }
+        new TableSort(lt) {
+            @Override
+            Object get(int i) {
+                getTable(t, (long) i, false);
+                return stack.pop();
+            }
+
+            @Override
+            void set(int i, Object v) {
+                setTable(t, (long) i, v, false);
+            }
+        }.sort(n);
+    }
+
+    /**
+     * 排序用的比较函数
+     * 固定参数的 Lua 函数复用同一个调用帧：每次比较只重置帧、放入两个参数并执行指令，不再为每次比较创建帧、搬运函数和参数。
+     *
+     * @param c
+     * @return
+     */
+    private BiPredicate<Object, Object> lessThan(Closure c) {
+        Prototype proto = c.proto;
+        if (proto == null || proto.getIsVararg() == 1 && proto.getNumParams() < 2) {
+            return (a, b) -> {
+                stack.push(c);
+                stack.push(a);
+                stack.push(b);
+                call(2, 1);
+                return LuaValue.toBoolean(stack.pop());
+            };
+        }
+        int nRegs = proto.getMaxStackSize();
+        int nParams = proto.getNumParams();
+        LuaStack frame = new LuaStack(nRegs + LUA_MINSTACK);
+        frame.closure = c;
+        return (a, b) -> {
+            frame.truncate(0);
+            frame.pc = 0;
+            if (nParams > 0) {
+                frame.push(a);
+            }
+            if (nParams > 1) {
+                frame.push(b);
+            }
+            pushLuaStack(frame);
+            try {
+                setTop(nRegs);
+                runLuaClosure();
+            } finally {
+                // 比较函数出错时先弹出它调用的帧
+                unwind(frame);
+                // 函数里创建的闭包如果捕获了局部变量，要在寄存器被下一次比较覆盖之前闭合
+                closeUpvalues(1);
+                popLuaStack();
+            }
+            return frame.top() > nRegs && LuaValue.toBoolean(frame.slot(nRegs));
+        };
+    }
+
     /**
      * 取长度（忽略元方法）
      *
@@ -1541,8 +2051,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public void xMove(LuaStateImpl to, int n) {
-        List<Object> vals = stack.popN(n);
-        to.stack.pushN(vals, n);
+        stack.popTo(to.stack, n, n);
     }
 
     /**
@@ -1591,6 +2100,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
     @Override
     public ThreadStatus pCall(int nArgs, int nResults, int msgh) {
         LuaStack caller = stack;
+        int base = stack.top() - nArgs - 1;
         try {
             // 尝试正常调用函数
             call(nArgs, nResults);
@@ -1601,10 +2111,9 @@ public class LuaStateImpl implements LuaState, LuaVM {
             if (msgh != 0) {
                 throw e;
             }
-//            while (stack == caller) {
-//                popLuaStack();
-//            }
-            // TODO
+            // 弹出出错时还没有返回的调用帧，以及留在主调用帧中的函数和参数
+            unwind(caller);
+            stack.truncate(base);
             stack.push(e.getMessage());
             return LUA_ERRRUN;
         }
@@ -1776,10 +2285,23 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public ThreadStatus loadFileX(String fileName, String mode) {
+        String chunkName = "@" + fileName;
+        Path path = Paths.get(fileName);
         try {
-            byte[] data = Files.readAllBytes(Paths.get(fileName));
-            return load(data, "@" + fileName, mode);
-        } catch (IOException e) {
+            if (DataChunkLoader.isEnabled() && loadDataFile(path, chunkName)) {
+                return LUA_OK;
+            }
+            if (ProtoCache.isEnabled()) {
+                // 按文件内容的摘要复用进程级缓存的原型，文件被修改后不会命中旧的原型。
+                byte[] data = Files.readAllBytes(path);
+                pushMainClosure(ProtoCache.get(data, chunkName,
+                    () -> isBinaryChunk(data) ? undump(data) : ChunkCache.compile(data, chunkName)));
+            } else {
+                pushMainClosure(readFile(path, chunkName));
+            }
+            return LUA_OK;
+        } catch (IOException | UncheckedIOException e) {
+            stack.push("cannot open " + fileName);
             return LUA_ERRFILE;
         }
     }
@@ -1792,7 +2314,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     @Override
     public ThreadStatus loadString(String s) {
-        return load(s.getBytes(), s, "bt");
+        return load(LuaString.getBytes(s), s, "bt");
     }
 
     @Override
@@ -1931,6 +2453,75 @@ public class LuaStateImpl implements LuaState, LuaVM {
         return true;
     }
 
+    @Override
+    public boolean newMetatable(String tname) {
+        /* name already in use? */
+        if (getMetatable2(tname) != LUA_TNIL) {
+            /* leave previous value on top, but return false */
+            return false;
+        }
+        pop(1);
+        /* create metatable */
+        createTable(0, 2);
+        pushString(tname);
+        /* metatable.__name = tname */
+        setField(-2, NAME);
+        pushValue(-1);
+        /* registry.name = metatable */
+        setField(LUA_REGISTRYINDEX, tname);
+        return true;
+    }
+
+    @Override
+    public LuaType getMetatable2(String tname) {
+        return getField(LUA_REGISTRYINDEX, tname);
+    }
+
+    @Override
+    public void setMetatable2(String tname) {
+        getMetatable2(tname);
+        setMetatable(-2);
+    }
+
+    @Override
+    public Object testUdata(int arg, String tname) {
+        Object val = stack.get(arg);
+        if (!(val instanceof Userdata)) {
+            return null;
+        }
+        LuaTable mt = ((Userdata) val).metatable;
+        return mt != null && mt == registry.get(tname) ? ((Userdata) val).data : null;
+    }
+
+    @Override
+    public Object checkUdata(int arg, String tname) {
+        Object data = testUdata(arg, tname);
+        if (data == null) {
+            typeError(arg, tname);
+        }
+        return data;
+    }
+
+    @Override
+    public LuaBuffer buffInit() {
+        return new LuaBuffer();
+    }
+
+    @Override
+    public void addValue(LuaBuffer b) {
+        String s = toString(-1);
+        if (s == null) {
+            error2("string expected, got %s", typeName2(-1));
+        }
+        b.append(s);
+        pop(1);
+    }
+
+    @Override
+    public void pushResult(LuaBuffer b) {
+        pushString(b.toString());
+    }
+
     /**
      * 启用标准库
      */
@@ -1941,8 +2532,11 @@ public class LuaStateImpl implements LuaState, LuaVM {
         libs.put("math", MathLib::openMathLib);
         libs.put("os", OSLib::openOSLib);
         libs.put("string", StringLib::openStringLib);
+        libs.put("table", TableLib::openTableLib);
         libs.put("package", PackageLib::openPackageLib);
         libs.put("coroutine", CoroutineLib::openBaseLib);
+        libs.put("strbuf", StrBufLib::openStrBufLib);
+        libs.put("io", IOLib::openIOLib);
         libs.forEach((name, fun) -> {
             requireF(name, fun, true);
             pop(1);
@@ -2074,7 +2668,7 @@ public class LuaStateImpl implements LuaState, LuaVM {
      */
     public void loadInstructions(String fileName) throws IOException {
         byte[] chunk = Files.readAllBytes(Paths.get(fileName));
-        Prototype proto = isBinaryChunk(chunk) ? undump(chunk) : compile(new String(chunk), "@" + fileName);
+        Prototype proto = isBinaryChunk(chunk) ? undump(chunk) : compile(LuaString.valueOf(chunk), "@" + fileName);
         this.stack.closure = new Closure(proto);
 
         Closure closure = new Closure(proto);
@@ -2,11 +2,15 @@ package com.ywh.jua.state;
 
 
 import com.ywh.jua.number.LuaNumber;
+import com.ywh.jua.string.LuaBuffer;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.function.BiPredicate;
+
+import static com.ywh.jua.constant.MetaConstant.INDEX;
+import static com.ywh.jua.constant.MetaConstant.NEWINDEX;
 
 
 
@@ -27,9 +31,11 @@ class LuaTable {
     LuaTable metatable;
 
     /**
-     * 数组
+     * 数组，前 arrLen 个元素有效，最后一个有效元素不为 nil
      */
-    private List<Object> arr;
+    private Object[] arr;
+
+    private int arrLen;
 
     /**
      * 哈希表
@@ -47,9 +53,14 @@ class LuaTable {
 
     private boolean changed;
 
+    /**
+     * 是否发放过全局绑定单元（发放后单元代替值保存在哈希表中）
+     */
+    boolean hasCells;
+
     LuaTable(int nArr, int nRec) {
         if (nArr > 0) {
-            arr = new ArrayList<>(nArr);
+            arr = new Object[nArr];
         }
         if (nRec > 0) {
             map = new HashMap<>(nRec);
@@ -72,7 +83,7 @@ class LuaTable {
      * @return
      */
     int length() {
-        return arr == null ? 0 : arr.size();
+        return arrLen;
     }
 
     /**
@@ -84,13 +95,17 @@ class LuaTable {
     Object get(Object key) {
         // 如果数组非空，且 key 可以转换为 Long 类型，则按数组的方式访问；否则按哈希表的方式访问。
         key = floatToInteger(key);
-        if (arr != null && key instanceof Long) {
-            int idx = ((Long) key).intValue();
-            if (idx >= 1 && idx <= arr.size()) {
-                return arr.get(idx - 1);
+        if (key instanceof Long) {
+            long idx = (Long) key;
+            if (idx >= 1 && idx <= arrLen) {
+                return arr[(int) idx - 1];
             }
         }
-        return map != null ? map.get(key) : null;
+        if (map == null) {
+            return null;
+        }
+        Object val = map.get(key);
+        return hasCells && val instanceof GlobalCell ? ((GlobalCell) val).value : val;
     }
 
     /**
@@ -110,16 +125,11 @@ class LuaTable {
         // 如果键可以转换为 Long 类型，且下标 >= 1，则按数组处理
         key = floatToInteger(key);
         if (key instanceof Long) {
-            int idx = ((Long) key).intValue();
+            long idx = (Long) key;
             if (idx >= 1) {
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                }
-                int arrLen = arr.size();
-
                 // 如果访问的下标在数组长度范围内，则设值
                 if (idx <= arrLen) {
-                    arr.set(idx - 1, val);
+                    arr[(int) idx - 1] = val;
                     // 如果向数组放入 nil 值，则会造成“洞”；如果“洞”在数组末尾，则把末尾的“洞”全部删除
                     if (idx == arrLen && val == null) {
                         shrinkArray();
@@ -133,7 +143,8 @@ class LuaTable {
                         map.remove(key);
                     }
                     if (val != null) {
-                        arr.add(val);
+                        ensureArray(arrLen + 1);
+                        arr[arrLen++] = val;
                         if (map != null) {
                             expandArray();
                         }
@@ -143,7 +154,19 @@ class LuaTable {
                 }
             }
         }
+        // 已发放单元的键直接写入单元
+        if (hasCells && key instanceof String && map != null) {
+            Object cell = map.get(key);
+            if (cell instanceof GlobalCell) {
+                ((GlobalCell) cell).value = val;
+                return;
+            }
+        }
         // 如果键不能转换为 Long 类型，且值不为空，则加入到哈希表。
+        putMap(key, val);
+    }
+
+    private void putMap(Object key, Object val) {
         if (val != null) {
             if (map == null) {
                 map = new HashMap<>();
@@ -156,6 +179,175 @@ class LuaTable {
         }
     }
 
+    // ========== 数组部分的批量操作 ==========
+
+    /**
+     * 数组部分能否绕过元方法直接批量读写：“洞”和越界位置的读写会触发 __index、__newindex，求长度会触发 __len。
+     *
+     * @return
+     */
+    boolean isPlainArray() {
+        return metatable == null || !hasMetafield(INDEX) && !hasMetafield(NEWINDEX) && !hasMetafield("__len");
+    }
+
+    /**
+     * 取数组元素
+     *
+     * @param i 1 <= i <= length()
+     * @return
+     */
+    Object arrayGet(int i) {
+        return arr[i - 1];
+    }
+
+    /**
+     * 在 pos 处插入，后面的元素后移
+     *
+     * @param pos 1 <= pos <= length() + 1
+     * @param val
+     */
+    void arrayInsert(int pos, Object val) {
+        if (pos == arrLen + 1) {
+            put((long) pos, val);
+            return;
+        }
+        ensureArray(arrLen + 1);
+        System.arraycopy(arr, pos - 1, arr, pos, arrLen - pos + 1);
+        arr[pos - 1] = val;
+        arrLen++;
+        if (map != null) {
+            expandArray();
+        }
+    }
+
+    /**
+     * 删除 pos 处的元素，后面的元素前移
+     *
+     * @param pos 1 <= pos <= length()
+     * @return 被删除的元素
+     */
+    Object arrayRemove(int pos) {
+        Object val = arr[pos - 1];
+        System.arraycopy(arr, pos, arr, pos - 1, arrLen - pos);
+        arr[--arrLen] = null;
+        shrinkArray();
+        return val;
+    }
+
+    /**
+     * 把 [f, e] 的元素复制到 dst 从 t 开始的位置（区间重叠时等同于 memmove）
+     * 区间内有 nil 时逐个赋值可能会缩短数组或把后面的元素写进哈希表，这时不做复制，由调用方逐个元素处理。
+     *
+     * @param f   1 <= f <= e
+     * @param e   e <= length()
+     * @param t   1 <= t <= dst.length() + 1
+     * @param dst
+     * @return 是否已复制
+     */
+    boolean arrayMove(int f, int e, int t, LuaTable dst) {
+        int n = e - f + 1;
+        for (int i = f - 1; i < e; i++) {
+            if (arr[i] == null) {
+                return false;
+            }
+        }
+        int end = t - 1 + n;
+        int oldLen = dst.arrLen;
+        if (end > oldLen) {
+            dst.ensureArray(end);
+        }
+        System.arraycopy(arr, f - 1, dst.arr, t - 1, n);
+        if (end > oldLen) {
+            dst.arrLen = end;
+            if (dst.map != null) {
+                // 新纳入数组的下标如果在哈希表中有旧值，已被覆盖
+                for (long k = oldLen + 2; k <= end; k++) {
+                    dst.map.remove(k);
+                }
+                dst.expandArray();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用 sep 连接 [i, j] 的元素写入缓冲区，先求出总长度一次性预留空间
+     *
+     * @param sep
+     * @param i   1 <= i
+     * @param j   j <= length()
+     * @param b
+     * @return 0，或者第一个不是字符串或数字的元素下标（此时不写入）
+     */
+    int arrayConcat(String sep, int i, int j, LuaBuffer b) {
+        long total = (long) sep.length() * (j - i);
+        for (int k = i - 1; k < j; k++) {
+            Object val = arr[k];
+            if (val instanceof String) {
+                total += ((String) val).length();
+            } else if (val instanceof Long || val instanceof Double) {
+                // 数字按 8 个字符估算，不够时缓冲区会自行扩容
+                total += 8;
+            } else {
+                return k + 1;
+            }
+        }
+        b.ensureCapacity((int) Math.min(total, Integer.MAX_VALUE));
+        for (int k = i - 1; k < j; k++) {
+            if (k >= i) {
+                b.append(sep);
+            }
+            b.append(arr[k].toString());
+        }
+        return 0;
+    }
+
+    /**
+     * 对数组部分原地排序
+     * 比较函数修改了这个表时（Lua 对此没有定义结果），排序只作用于开始时的数组，不会越界。
+     *
+     * @param lt
+     * @param defaultOrder 是否默认的 < 比较，是则先尝试按基本类型排序
+     */
+    void arraySort(BiPredicate<Object, Object> lt, boolean defaultOrder) {
+        Object[] a = arr;
+        int n = arrLen;
+        if (n < 2 || defaultOrder && TableSort.sortPrimitive(a, n)) {
+            return;
+        }
+        new TableSort(lt) {
+            @Override
+            Object get(int i) {
+                return a[i - 1];
+            }
+
+            @Override
+            void set(int i, Object v) {
+                a[i - 1] = v;
+            }
+        }.sort(n);
+    }
+
+    /**
+     * 取字符串键的全局绑定单元，不存在则创建。
+     *
+     * @param key
+     * @return
+     */
+    GlobalCell cell(String key) {
+        if (map == null) {
+            map = new HashMap<>();
+        }
+        Object val = map.get(key);
+        if (val instanceof GlobalCell) {
+            return (GlobalCell) val;
+        }
+        GlobalCell cell = new GlobalCell(this, val);
+        map.put(key, cell);
+        hasCells = true;
+        return cell;
+    }
+
     /**
      * Float 转换成 Integer
      *
@@ -176,10 +368,8 @@ class LuaTable {
      * 数组缩容（清理“洞”）
      */
     private void shrinkArray() {
-        for (int i = arr.size() - 1; i >= 0; i--) {
-            if (arr.get(i) == null) {
-                arr.remove(i);
-            }
+        while (arrLen > 0 && arr[arrLen - 1] == null) {
+            arrLen--;
         }
     }
 
@@ -187,16 +377,30 @@ class LuaTable {
      * 数组扩容
      */
     private void expandArray() {
-        for (int idx = arr.size() + 1; ; idx++) {
-            Object val = map.remove((long) idx);
+        for (long idx = arrLen + 1; ; idx++) {
+            Object val = map.remove(idx);
             if (val != null) {
-                arr.add(val);
+                ensureArray(arrLen + 1);
+                arr[arrLen++] = val;
             } else {
                 break;
             }
         }
     }
 
+    /**
+     * 确保数组能容纳 n 个元素，不够时至少扩容一半
+     *
+     * @param n
+     */
+    private void ensureArray(int n) {
+        if (arr == null) {
+            arr = new Object[Math.max(n, 4)];
+        } else if (n > arr.length) {
+            arr = Arrays.copyOf(arr, Math.max(n, arr.length + (arr.length >> 1)));
+        }
+    }
+
     /**
      * 取下一个键
      *
@@ -233,8 +437,8 @@ class LuaTable {
 
         // 数组
         if (arr != null) {
-            for (int i = 0; i < arr.size(); i++) {
-                if (arr.get(i) != null) {
+            for (int i = 0; i < arrLen; i++) {
+                if (arr[i] != null) {
                     long nextKey = i + 1;
                     keys.put(key, nextKey);
                     key = nextKey;
@@ -246,6 +450,9 @@ class LuaTable {
         if (map != null) {
             for (Object k : map.keySet()) {
                 Object v = map.get(k);
+                if (v instanceof GlobalCell) {
+                    v = ((GlobalCell) v).value;
+                }
                 if (v != null) {
                     keys.put(key, k);
                     key = k;
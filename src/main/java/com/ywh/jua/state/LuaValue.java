@@ -35,6 +35,8 @@ class LuaValue {
             return LUA_TFUNCTION;
         } else if (val instanceof LuaStateImpl) {
             return LUA_TTHREAD;
+        } else if (val instanceof Userdata) {
+            return LUA_TUSERDATA;
         }
         else {
             throw new RuntimeException("TODO");
@@ -79,8 +81,7 @@ class LuaValue {
         if (val instanceof Long) {
             return (Long) val;
         } else if (val instanceof Double) {
-            double n = (Double) val;
-            return LuaNumber.isInteger(n) ? (long) n : null;
+            return toInteger((double) (Double) val);
         } else if (val instanceof String) {
             return toInteger((String) val);
         } else {
@@ -94,10 +95,17 @@ class LuaValue {
             return i;
         }
         Double f = LuaNumber.parseFloat(s);
-        if (f != null && LuaNumber.isInteger(f)) {
-            return f.longValue();
-        }
-        return null;
+        return f != null ? toInteger((double) f) : null;
+    }
+
+    /**
+     * 浮点数有对应的整数值（整数值且在 long 范围内）时转换为整数
+     *
+     * @param f
+     * @return
+     */
+    private static Long toInteger(double f) {
+        return LuaNumber.isInteger(f) && f >= -0x1p63 && f < 0x1p63 ? (long) f : null;
     }
 
 }
@@ -0,0 +1,228 @@
+package com.ywh.jua.state;
+
+import java.util.Arrays;
+import java.util.function.BiPredicate;
+
+/**
+ * table.sort 的排序算法
+ * 与 Lua 相同的快速排序（三数取中，区间划分过于不均时随机选取枢轴），比较函数不满足严格弱序时报 "invalid order function for sorting"。
+ * 元素的读写由子类决定：直接读写数组部分，或者经过元方法。
+ *
+ * 使用默认的 < 比较、且元素全是整数、全是浮点数（不含 NaN）或全是字符串时，这些类型的 < 是全序，排序结果唯一，
+ * 因此改用 Arrays.sort 对基本类型数组排序，不再逐次比较装箱的值。
+ *
+ * lua-5.3.4/src/ltablib.c#auxsort()
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+abstract class TableSort {
+
+    /**
+     * 区间小于这个长度时总是取中间元素为枢轴
+     */
+    private static final int RANLIMIT = 100;
+
+    private final BiPredicate<Object, Object> lt;
+
+    TableSort(BiPredicate<Object, Object> lt) {
+        this.lt = lt;
+    }
+
+    /**
+     * 取元素
+     *
+     * @param i 从 1 开始
+     * @return
+     */
+    abstract Object get(int i);
+
+    /**
+     * 设置元素
+     *
+     * @param i 从 1 开始
+     * @param v
+     */
+    abstract void set(int i, Object v);
+
+    /**
+     * 对 [1, n] 排序
+     *
+     * @param n
+     */
+    void sort(int n) {
+        auxSort(1, n, 0);
+    }
+
+    /**
+     * 按基本类型排序
+     *
+     * @param a
+     * @param n
+     * @return 元素不全是同一种可以全序比较的类型时返回 false，不做任何修改
+     */
+    static boolean sortPrimitive(Object[] a, int n) {
+        Object first = a[0];
+        if (first instanceof Long) {
+            long[] v = new long[n];
+            for (int i = 0; i < n; i++) {
+                if (!(a[i] instanceof Long)) {
+                    return false;
+                }
+                v[i] = (Long) a[i];
+            }
+            Arrays.sort(v);
+            for (int i = 0; i < n; i++) {
+                a[i] = v[i];
+            }
+            return true;
+        }
+        if (first instanceof Double) {
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (!(a[i] instanceof Double) || ((Double) a[i]).isNaN()) {
+                    return false;
+                }
+                v[i] = (Double) a[i];
+            }
+            Arrays.sort(v);
+            for (int i = 0; i < n; i++) {
+                a[i] = v[i];
+            }
+            return true;
+        }
+        if (first instanceof String) {
+            for (int i = 0; i < n; i++) {
+                if (!(a[i] instanceof String)) {
+                    return false;
+                }
+            }
+            // 每个 char 保存一个字节，按 char 比较即按字节比较，与 C locale 下的 strcoll 一致
+            Arrays.sort(a, 0, n);
+            return true;
+        }
+        return false;
+    }
+
+    private void auxSort(int lo, int up, int rnd) {
+        /* loop for tail recursion */
+        while (lo < up) {
+            /* sort elements 'lo', 'p', and 'up' */
+            Object vlo = get(lo);
+            Object vup = get(up);
+            /* a[up] < a[lo]? */
+            if (lt.test(vup, vlo)) {
+                set2(lo, vup, up, vlo);
+            }
+            /* only 2 elements? */
+            if (up - lo == 1) {
+                break;
+            }
+            int p;
+            if (up - lo < RANLIMIT || rnd == 0) {
+                /* middle element is a good pivot */
+                p = (lo + up) >>> 1;
+            } else {
+                /* for larger intervals, it is expensive to solve worst case */
+                p = choosePivot(lo, up, rnd);
+            }
+            Object vp = get(p);
+            vlo = get(lo);
+            /* a[p] < a[lo]? */
+            if (lt.test(vp, vlo)) {
+                set2(p, vlo, lo, vp);
+            } else {
+                vup = get(up);
+                /* a[up] < a[p]? */
+                if (lt.test(vup, vp)) {
+                    set2(p, vup, up, vp);
+                }
+            }
+            /* only 3 elements? */
+            if (up - lo == 2) {
+                break;
+            }
+            /* get median (Pivot) and swap it with a[up - 1] */
+            Object pivot = get(p);
+            set2(p, get(up - 1), up - 1, pivot);
+            p = partition(lo, up, pivot);
+            int n;
+            /* a[lo .. p - 1] <= a[p] == P <= a[p + 1 .. up] */
+            if (p - lo < up - p) {
+                /* call recursively for lower interval */
+                auxSort(lo, p - 1, rnd);
+                /* size of smaller interval */
+                n = p - lo;
+                /* tail call for [p + 1 .. up] (upper interval) */
+                lo = p + 1;
+            } else {
+                /* call recursively for upper interval */
+                auxSort(p + 1, up, rnd);
+                n = up - p;
+                /* tail call for [lo .. p - 1] (lower interval) */
+                up = p - 1;
+            }
+            /* partition too imbalanced? */
+            if ((up - lo) / 128 > n) {
+                /* try a new randomization */
+                rnd = (int) (System.nanoTime() ^ System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * 以 a[up - 1] 为枢轴划分区间
+     * 循环不变式：a[lo .. i] <= P <= a[j .. up]，a[up - 1] == P
+     *
+     * @param lo
+     * @param up
+     * @param pivot
+     * @return 枢轴的最终位置
+     */
+    private int partition(int lo, int up, Object pivot) {
+        int i = lo;
+        int j = up - 1;
+        for (;;) {
+            /* next loop: repeat ++i while a[i] < P */
+            Object vi;
+            while (lt.test(vi = get(++i), pivot)) {
+                /* a[i] < P  but a[up - 1] == P  ?? */
+                if (i == up - 1) {
+                    throw new RuntimeException("invalid order function for sorting");
+                }
+            }
+            /* after the loop, a[i] >= P and a[lo .. i - 1] < P */
+            /* next loop: repeat --j while P < a[j] */
+            Object vj;
+            while (lt.test(pivot, vj = get(--j))) {
+                /* j < i  but  a[j] > P ?? */
+                if (j < i) {
+                    throw new RuntimeException("invalid order function for sorting");
+                }
+            }
+            /* after the loop, a[j] <= P and a[j + 1 .. up] >= P */
+            if (j < i) {
+                /* no elements to be exchanged: swap pivot (a[up - 1]) with a[i] */
+                set2(up - 1, vi, i, pivot);
+                return i;
+            }
+            /* otherwise, swap a[i] - a[j] to restore invariant and repeat */
+            set2(i, vj, j, vi);
+        }
+    }
+
+    private static int choosePivot(int lo, int up, int rnd) {
+        /* range/4 */
+        int r4 = (up - lo) / 4;
+        return Integer.remainderUnsigned(rnd, r4 * 2) + (lo + r4);
+    }
+
+    /**
+     * a[i] = vi; a[j] = vj
+     */
+    private void set2(int i, Object vi, int j, Object vj) {
+        set(i, vi);
+        set(j, vj);
+    }
+
+}
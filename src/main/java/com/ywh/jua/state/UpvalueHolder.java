@@ -27,6 +27,11 @@ class UpvalueHolder {
 
     private Object value;
 
+    /**
+     * 开放 Upvalue 链表（按寄存器索引从大到小排列）中的下一个
+     */
+    UpvalueHolder next;
+
     UpvalueHolder(Object value) {
         this.value = value;
         this.index = 0;
@@ -38,12 +43,12 @@ class UpvalueHolder {
     }
 
     Object get() {
-        return stack != null ? stack.get(index + 1) : value;
+        return stack != null ? stack.slot(index) : value;
     }
 
     void set(Object value) {
         if (stack != null) {
-            stack.set(index + 1, value);
+            stack.setSlot(index, value);
         } else {
             this.value = value;
         }
@@ -56,7 +61,7 @@ class UpvalueHolder {
         if (stack == null) {
             return;
         }
-        value = stack.get(index + 1);
+        value = stack.slot(index);
         stack = null;
     }
 
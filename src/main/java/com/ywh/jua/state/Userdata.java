@@ -0,0 +1,23 @@
+package com.ywh.jua.state;
+
+/**
+ * 完全用户数据（full userdata）
+ * 包装一个 Java 对象交给 Lua 持有，每个实例有自己的元表（表以外的其他类型按类型共享元表）。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+final class Userdata {
+
+    /**
+     * 被包装的 Java 对象
+     */
+    final Object data;
+
+    LuaTable metatable;
+
+    Userdata(Object data) {
+        this.data = data;
+    }
+
+}
@@ -5,7 +5,11 @@ import com.ywh.jua.api.JavaFunction;
 import com.ywh.jua.api.LuaState;
 import com.ywh.jua.api.LuaType;
 import com.ywh.jua.api.ThreadStatus;
+import com.ywh.jua.string.LuaString;
+import com.ywh.jua.string.LuaBuffer;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -89,25 +93,29 @@ public class BasicLib {
         /* number of arguments */
         int n = ls.getTop();
         ls.getGlobal("tostring");
+        LuaBuffer line = ls.buffInit();
         for (int i = 1; i <= n; i++) {
             /* function to be called */
             ls.pushValue(-1);
             /* value to print */
             ls.pushValue(i);
             ls.call(1, 1);
-            /* get result */
-            String s = ls.toString(-1);
-            if (s == null) {
+            /* check result */
+            if (!ls.isString(-1)) {
                 return ls.error2("'tostring' must return a string to 'print'");
             }
             if (i > 1) {
-                System.out.print("\t");
+                line.append('\t');
             }
-            System.out.print(s);
-            /* pop result */
-            ls.pop(1);
+            /* add result to the line */
+            ls.addValue(line);
+        }
+        // 按字节原样输出
+        try {
+            line.append('\n').writeTo(System.out);
+        } catch (IOException e) {
+            return ls.error2(e.getMessage());
         }
-        System.out.println();
         return 0;
     }
 
@@ -286,13 +294,80 @@ public class BasicLib {
         /* loading a string? */
         if (chunk != null) {
             String chunkname = ls.optString(2, chunk);
-            ThreadStatus status = ls.load(chunk.getBytes(), chunkname, mode);
+            byte[] bytes = LuaString.getBytes(chunk);
+            ThreadStatus status = ls.load(bytes, chunkname, mode);
             return loadAux(ls, status, env);
         }
         /* loading from a reader function */
         else {
-            // TODO
-            throw new RuntimeException("loading from a reader function");
+            String chunkname = ls.optString(2, "=(load)");
+            ls.checkType(1, LUA_TFUNCTION);
+            ThreadStatus status = ls.load(new ReaderFunctionStream(ls), chunkname, mode);
+            return loadAux(ls, status, env);
+        }
+    }
+
+    /**
+     * 把 load 的 reader 函数包装为输入流：每次缓冲区读完时调用一次该函数，
+     * 返回 nil 或空串表示结束（编译器按块消费，无需把所有片段拼接成一个字符串）。
+     * lua-5.3.4/src/lbaselib.c#generic_reader()
+     */
+    private static class ReaderFunctionStream extends InputStream {
+
+        private final LuaState ls;
+
+        private byte[] piece = new byte[0];
+
+        private int pos;
+
+        private boolean eof;
+
+        ReaderFunctionStream(LuaState ls) {
+            this.ls = ls;
+        }
+
+        @Override
+        public int read() {
+            return fill() ? piece[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, piece.length - pos);
+            System.arraycopy(piece, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * 当前片段已读完则调用 reader 函数取下一个片段
+         *
+         * @return 是否还有数据
+         */
+        private boolean fill() {
+            while (!eof && pos >= piece.length) {
+                ls.pushValue(1);
+                ls.call(0, 1);
+                if (ls.isNil(-1)) {
+                    ls.pop(1);
+                    eof = true;
+                } else if (!ls.isString(-1)) {
+                    ls.pop(1);
+                    throw new RuntimeException("reader function must return a string");
+                } else {
+                    piece = LuaString.getBytes(ls.toString(-1));
+                    pos = 0;
+                    ls.pop(1);
+                    eof = piece.length == 0;
+                }
+            }
+            return !eof;
         }
     }
 
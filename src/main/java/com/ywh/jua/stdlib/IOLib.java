@@ -0,0 +1,668 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.api.JavaFunction;
+import com.ywh.jua.api.LuaState;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.ywh.jua.api.LuaState.LUA_REGISTRYINDEX;
+import static com.ywh.jua.api.LuaType.LUA_TNUMBER;
+import static com.ywh.jua.vm.Instructions.luaUpvalueIndex;
+
+/**
+ * 输入输出库
+ * 文件句柄是包装 {@link LuaFile} 的用户数据，元表在注册表中的名字为 FILE*；默认输入、输出文件保存在注册表的 _IO_input、_IO_output 中。
+ * 读写经过较大的直接缓冲区，read("l") 与 lines() 在缓冲区中直接查找换行符；开启内存映射后，只读打开的大文件按窗口映射读取。
+ *
+ * lua-5.3.4/src/liolib.c
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class IOLib {
+
+    /**
+     * 元表在注册表中的名字
+     */
+    private static final String TNAME = "FILE*";
+
+    private static final String IO_INPUT = "_IO_input";
+
+    private static final String IO_OUTPUT = "_IO_output";
+
+    /**
+     * lines 的格式个数上限
+     */
+    private static final int MAXARGLINE = 250;
+
+    private static final Map<String, JavaFunction> IO_FUNCS = new HashMap<>();
+
+    private static final Map<String, JavaFunction> FILE_METHODS = new HashMap<>();
+
+    private static final Map<String, JavaFunction> FILE_METAMETHODS = new HashMap<>();
+
+    static {
+        IO_FUNCS.put("close", IOLib::ioClose);
+        IO_FUNCS.put("flush", IOLib::ioFlush);
+        IO_FUNCS.put("input", IOLib::ioInput);
+        IO_FUNCS.put("lines", IOLib::ioLines);
+        IO_FUNCS.put("open", IOLib::ioOpen);
+        IO_FUNCS.put("output", IOLib::ioOutput);
+        IO_FUNCS.put("read", IOLib::ioRead);
+        IO_FUNCS.put("type", IOLib::ioType);
+        IO_FUNCS.put("write", IOLib::ioWrite);
+
+        FILE_METHODS.put("close", IOLib::ioClose);
+        FILE_METHODS.put("flush", IOLib::fFlush);
+        FILE_METHODS.put("lines", IOLib::fLines);
+        FILE_METHODS.put("read", IOLib::fRead);
+        FILE_METHODS.put("seek", IOLib::fSeek);
+        FILE_METHODS.put("write", IOLib::fWrite);
+
+        FILE_METAMETHODS.put("__gc", IOLib::fGc);
+        FILE_METAMETHODS.put("__tostring", IOLib::fToString);
+    }
+
+    public static int openIOLib(LuaState ls) {
+        ls.newLib(IO_FUNCS);
+        createMetatable(ls);
+        /* create (and set) default files */
+        createStdFile(ls, LuaFile.stdin(System.in), IO_INPUT, "stdin");
+        createStdFile(ls, LuaFile.stdout(System.out), IO_OUTPUT, "stdout");
+        createStdFile(ls, LuaFile.stdout(System.err), null, "stderr");
+        return 1;
+    }
+
+    /**
+     * 创建文件句柄的元表：metatable.__index 为方法表
+     *
+     * @param ls
+     */
+    private static void createMetatable(LuaState ls) {
+        ls.newMetatable(TNAME);
+        ls.setFuncs(FILE_METAMETHODS, 0);
+        ls.newLibTable(FILE_METHODS);
+        ls.setFuncs(FILE_METHODS, 0);
+        /* metatable.__index = methods */
+        ls.setField(-2, "__index");
+        /* pop metatable */
+        ls.pop(1);
+    }
+
+    private static void createStdFile(LuaState ls, LuaFile f, String k, String fname) {
+        newFile(ls, f);
+        if (k != null) {
+            ls.pushValue(-1);
+            /* add file to registry */
+            ls.setField(LUA_REGISTRYINDEX, k);
+        }
+        /* add file to module */
+        ls.setField(-2, fname);
+    }
+
+    private static void newFile(LuaState ls, LuaFile f) {
+        ls.newUserdata(f);
+        ls.setMetatable2(TNAME);
+    }
+
+    // ========== io.* ==========
+
+    /**
+     * io.open (filename [, mode])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-io.open
+     * lua-5.3.4/src/liolib.c#io_open()
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioOpen(LuaState ls) {
+        String fileName = ls.checkString(1);
+        String mode = ls.optString(2, "r");
+        /* check mode */
+        ls.argCheck(mode.matches("[rwa]\\+?b*"), 2, "invalid mode");
+        try {
+            newFile(ls, LuaFile.open(fileName, mode));
+            return 1;
+        } catch (IOException e) {
+            return fileResult(ls, e, fileName);
+        }
+    }
+
+    /**
+     * io.close ([file])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-io.close
+     * lua-5.3.4/src/liolib.c#io_close()
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioClose(LuaState ls) {
+        /* no argument? */
+        if (ls.isNone(1)) {
+            /* use standard output */
+            ls.getField(LUA_REGISTRYINDEX, IO_OUTPUT);
+        }
+        LuaFile f = toFile(ls, 1);
+        if (f.isStd()) {
+            ls.pushNil();
+            ls.pushString("cannot close standard file");
+            return 2;
+        }
+        try {
+            f.close();
+            ls.pushBoolean(true);
+            return 1;
+        } catch (IOException e) {
+            return fileResult(ls, e, null);
+        }
+    }
+
+    /**
+     * io.flush ()
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioFlush(LuaState ls) {
+        return flush(ls, getIOFile(ls, IO_OUTPUT));
+    }
+
+    /**
+     * io.input ([file])
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioInput(LuaState ls) {
+        return gIOFile(ls, IO_INPUT, "r");
+    }
+
+    /**
+     * io.output ([file])
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioOutput(LuaState ls) {
+        return gIOFile(ls, IO_OUTPUT, "w");
+    }
+
+    /**
+     * io.lines ([filename, ···])
+     * 给出文件名时打开该文件，遍历结束后自动关闭；否则遍历默认输入文件。
+     * http://www.lua.org/manual/5.3/manual.html#pdf-io.lines
+     * lua-5.3.4/src/liolib.c#io_lines()
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioLines(LuaState ls) {
+        /* at least one argument */
+        if (ls.isNone(1)) {
+            ls.pushNil();
+        }
+        boolean toClose;
+        /* no file name? */
+        if (ls.isNil(1)) {
+            /* get default input */
+            ls.getField(LUA_REGISTRYINDEX, IO_INPUT);
+            /* put it at index 1 */
+            ls.replace(1);
+            toFile(ls, 1);
+            toClose = false;
+        } else {
+            /* open a new file */
+            String fileName = ls.checkString(1);
+            try {
+                newFile(ls, LuaFile.open(fileName, "r"));
+            } catch (IOException e) {
+                return ls.error2("%s", errorMessage(e, fileName));
+            }
+            /* put file at index 1 */
+            ls.replace(1);
+            toClose = true;
+        }
+        auxLines(ls, toClose);
+        return 1;
+    }
+
+    /**
+     * io.read (···)
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioRead(LuaState ls) {
+        return gRead(ls, getIOFile(ls, IO_INPUT), 1);
+    }
+
+    /**
+     * io.type (obj)
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioType(LuaState ls) {
+        ls.checkAny(1);
+        Object f = ls.testUdata(1, TNAME);
+        if (f == null) {
+            /* not a file */
+            ls.pushNil();
+        } else if (((LuaFile) f).isClosed()) {
+            ls.pushString("closed file");
+        } else {
+            ls.pushString("file");
+        }
+        return 1;
+    }
+
+    /**
+     * io.write (···)
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioWrite(LuaState ls) {
+        return gWrite(ls, getIOFile(ls, IO_OUTPUT), 1);
+    }
+
+    // ========== file:* ==========
+
+    /**
+     * file:flush ()
+     *
+     * @param ls
+     * @return
+     */
+    private static int fFlush(LuaState ls) {
+        return flush(ls, toFile(ls, 1));
+    }
+
+    /**
+     * file:lines (···)
+     *
+     * @param ls
+     * @return
+     */
+    private static int fLines(LuaState ls) {
+        /* check that it's a valid file handle */
+        toFile(ls, 1);
+        auxLines(ls, false);
+        return 1;
+    }
+
+    /**
+     * file:read (···)
+     *
+     * @param ls
+     * @return
+     */
+    private static int fRead(LuaState ls) {
+        return gRead(ls, toFile(ls, 1), 2);
+    }
+
+    /**
+     * file:seek ([whence [, offset]])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-file:seek
+     * lua-5.3.4/src/liolib.c#f_seek()
+     *
+     * @param ls
+     * @return
+     */
+    private static int fSeek(LuaState ls) {
+        LuaFile f = toFile(ls, 1);
+        String whence = ls.optString(2, "cur");
+        ls.argCheck("set".equals(whence) || "cur".equals(whence) || "end".equals(whence), 2,
+            "invalid option '" + whence + "'");
+        long offset = ls.optInteger(3, 0);
+        try {
+            ls.pushInteger(f.seek(whence, offset));
+            return 1;
+        } catch (IOException e) {
+            return fileResult(ls, e, null);
+        }
+    }
+
+    /**
+     * file:write (···)
+     * 返回文件本身。
+     *
+     * @param ls
+     * @return
+     */
+    private static int fWrite(LuaState ls) {
+        LuaFile f = toFile(ls, 1);
+        /* push file at the stack top (to be returned) */
+        ls.pushValue(1);
+        return gWrite(ls, f, 2);
+    }
+
+    /**
+     * 关闭未关闭的文件（标准流除外），出错时忽略
+     * 虚拟机不会自动调用 __gc，未关闭就被回收的文件由 LuaFile 负责写出和关闭；这里与 liolib 保持一致，也可以显式调用。
+     * lua-5.3.4/src/liolib.c#f_gc()
+     *
+     * @param ls
+     * @return
+     */
+    private static int fGc(LuaState ls) {
+        LuaFile f = (LuaFile) ls.checkUdata(1, TNAME);
+        if (!f.isClosed() && !f.isStd()) {
+            try {
+                f.close();
+            } catch (IOException ignored) {
+                // 与 f_gc 一样忽略错误
+            }
+        }
+        return 0;
+    }
+
+    private static int fToString(LuaState ls) {
+        LuaFile f = (LuaFile) ls.checkUdata(1, TNAME);
+        if (f.isClosed()) {
+            ls.pushString("file (closed)");
+        } else {
+            ls.pushFString("file (0x%08x)", System.identityHashCode(f));
+        }
+        return 1;
+    }
+
+    // ========== 辅助函数 ==========
+
+    /**
+     * 按格式依次读取，第一个失败的格式返回 nil，之后的格式不再读取
+     * lua-5.3.4/src/liolib.c#g_read()
+     *
+     * @param ls
+     * @param f
+     * @param first 第一个格式的索引
+     * @return
+     */
+    private static int gRead(LuaState ls, LuaFile f, int first) {
+        int nargs = ls.getTop() - 1;
+        int n;
+        boolean success;
+        try {
+            if (nargs == 0) {
+                /* no arguments? */
+                success = pushString(ls, f.readLine(false));
+                /* to return 1 result */
+                n = first + 1;
+            } else {
+                /* ensure stack space for all results and for auxlib's buffer */
+                ls.checkStack2(nargs + LuaState.LUA_MINSTACK, "too many arguments");
+                success = true;
+                for (n = first; nargs-- > 0 && success; n++) {
+                    if (ls.type(n) == LUA_TNUMBER) {
+                        long l = ls.checkInteger(n);
+                        success = pushString(ls, l == 0 ? (f.testEof() ? null : "") : f.readChars(l));
+                        continue;
+                    }
+                    String p = ls.checkString(n);
+                    /* skip optional '*' (for compatibility) */
+                    int i = p.startsWith("*") ? 1 : 0;
+                    switch (i < p.length() ? p.charAt(i) : '\0') {
+                        /* number */
+                        case 'n':
+                            success = readNumber(ls, f);
+                            break;
+                        /* line */
+                        case 'l':
+                            success = pushString(ls, f.readLine(false));
+                            break;
+                        /* line with end-of-line */
+                        case 'L':
+                            success = pushString(ls, f.readLine(true));
+                            break;
+                        /* file */
+                        case 'a':
+                            /* read entire file */
+                            ls.pushString(f.readAll());
+                            /* always success */
+                            success = true;
+                            break;
+                        default:
+                            return ls.argError(n, "invalid format");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return fileResult(ls, e, null);
+        }
+        if (!success) {
+            /* remove last result */
+            ls.pop(1);
+            /* push nil instead */
+            ls.pushNil();
+        }
+        return n - first;
+    }
+
+    /**
+     * 读到的字符串入栈，null 时压入 nil
+     *
+     * @param ls
+     * @param s
+     * @return 是否读到
+     */
+    private static boolean pushString(LuaState ls, String s) {
+        if (s == null) {
+            ls.pushNil();
+            return false;
+        }
+        ls.pushString(s);
+        return true;
+    }
+
+    /**
+     * lua-5.3.4/src/liolib.c#read_number()
+     *
+     * @param ls
+     * @param f
+     * @return
+     * @throws IOException
+     */
+    private static boolean readNumber(LuaState ls, LuaFile f) throws IOException {
+        String numeral = f.readNumeral();
+        if (numeral != null && ls.stringToNumber(numeral)) {
+            /* ok */
+            return true;
+        }
+        /* invalid format: "result" to be removed */
+        ls.pushNil();
+        return false;
+    }
+
+    /**
+     * 依次写入字符串或数字
+     * lua-5.3.4/src/liolib.c#g_write()
+     *
+     * @param ls
+     * @param f
+     * @param arg 第一个参数的索引
+     * @return 成功时返回栈顶的文件
+     */
+    private static int gWrite(LuaState ls, LuaFile f, int arg) {
+        int nargs = ls.getTop() - arg;
+        try {
+            for (; nargs-- > 0; arg++) {
+                f.write(ls.checkString(arg));
+            }
+        } catch (IOException e) {
+            return fileResult(ls, e, null);
+        }
+        /* file handle already on stack top */
+        return 1;
+    }
+
+    private static int flush(LuaState ls, LuaFile f) {
+        try {
+            f.flushWrite();
+            ls.pushBoolean(true);
+            return 1;
+        } catch (IOException e) {
+            return fileResult(ls, e, null);
+        }
+    }
+
+    /**
+     * 创建 lines 的迭代器：文件和各个格式作为上值
+     * lua-5.3.4/src/liolib.c#aux_lines()
+     *
+     * @param ls
+     * @param toClose 遍历结束后是否关闭文件
+     */
+    private static void auxLines(LuaState ls, boolean toClose) {
+        /* number of arguments to read */
+        int n = ls.getTop() - 1;
+        ls.argCheck(n <= MAXARGLINE, MAXARGLINE + 2, "too many arguments");
+        ls.pushInteger(n);
+        ls.pushBoolean(toClose);
+        /* move both to their positions */
+        ls.rotate(2, 2);
+        ls.pushJavaClosure(IOLib::ioReadLine, 3 + n);
+    }
+
+    /**
+     * lines 的迭代器
+     * lua-5.3.4/src/liolib.c#io_readline()
+     *
+     * @param ls
+     * @return
+     */
+    private static int ioReadLine(LuaState ls) {
+        LuaFile f = (LuaFile) ls.toUserdata(luaUpvalueIndex(1));
+        if (f.isClosed()) {
+            return ls.error2("file is already closed");
+        }
+        int n = (int) ls.toInteger(luaUpvalueIndex(2));
+        ls.setTop(1);
+        ls.checkStack2(n, "too many arguments");
+        /* push arguments to 'g_read' */
+        for (int i = 1; i <= n; i++) {
+            ls.pushValue(luaUpvalueIndex(3 + i));
+        }
+        /* 'n' is number of results */
+        n = gRead(ls, f, 2);
+        /* read at least one value? */
+        if (ls.toBoolean(-n)) {
+            /* return them */
+            return n;
+        }
+        /* first result is nil: EOF or error */
+        if (n > 1) {
+            /* is there error information? */
+            return ls.error2("%s", ls.toString2(-n + 1));
+        }
+        /* generator created file? */
+        if (ls.toBoolean(luaUpvalueIndex(3))) {
+            /* close it */
+            try {
+                f.close();
+            } catch (IOException e) {
+                return ls.error2("%s", errorMessage(e, null));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * io.input / io.output
+     * lua-5.3.4/src/liolib.c#g_iofile()
+     *
+     * @param ls
+     * @param f
+     * @param mode
+     * @return
+     */
+    private static int gIOFile(LuaState ls, String f, String mode) {
+        if (!ls.isNoneOrNil(1)) {
+            String fileName = ls.toStringX(1);
+            if (fileName != null && ls.type(1) != LUA_TNUMBER) {
+                try {
+                    newFile(ls, LuaFile.open(fileName, mode));
+                } catch (IOException e) {
+                    return ls.error2("cannot open file '%s' (%s)", fileName, errorMessage(e, null));
+                }
+            } else {
+                /* check that it's a valid file handle */
+                toFile(ls, 1);
+                ls.pushValue(1);
+            }
+            ls.setField(LUA_REGISTRYINDEX, f);
+        }
+        /* return current value */
+        ls.getField(LUA_REGISTRYINDEX, f);
+        return 1;
+    }
+
+    private static LuaFile getIOFile(LuaState ls, String findex) {
+        ls.getField(LUA_REGISTRYINDEX, findex);
+        LuaFile f = (LuaFile) ls.toUserdata(-1);
+        if (f.isClosed()) {
+            ls.error2("standard %s file is closed", IO_INPUT.equals(findex) ? "input" : "output");
+        }
+        return f;
+    }
+
+    /**
+     * 检查参数是否未关闭的文件句柄
+     *
+     * @param ls
+     * @param arg
+     * @return
+     */
+    private static LuaFile toFile(LuaState ls, int arg) {
+        LuaFile f = (LuaFile) ls.checkUdata(arg, TNAME);
+        if (f.isClosed()) {
+            ls.error2("attempt to use a closed file");
+        }
+        return f;
+    }
+
+    /**
+     * 失败时返回 nil、错误信息、错误码
+     * lua-5.3.4/src/lauxlib.c#luaL_fileresult()
+     *
+     * @param ls
+     * @param e
+     * @param fileName
+     * @return
+     */
+    private static int fileResult(LuaState ls, IOException e, String fileName) {
+        ls.pushNil();
+        ls.pushString(errorMessage(e, fileName));
+        ls.pushInteger(errno(e));
+        return 3;
+    }
+
+    private static String errorMessage(IOException e, String fileName) {
+        String msg;
+        if (e instanceof NoSuchFileException) {
+            msg = "No such file or directory";
+        } else if (e instanceof AccessDeniedException) {
+            msg = "Permission denied";
+        } else if (e instanceof FileSystemException && ((FileSystemException) e).getReason() != null) {
+            msg = ((FileSystemException) e).getReason();
+        } else {
+            msg = e.getMessage() != null ? e.getMessage() : "Input/output error";
+        }
+        return fileName != null ? fileName + ": " + msg : msg;
+    }
+
+    private static int errno(IOException e) {
+        if (e instanceof NoSuchFileException) {
+            return 2;
+        }
+        if (e instanceof AccessDeniedException) {
+            return 13;
+        }
+        return 5;
+    }
+
+}
@@ -0,0 +1,625 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.string.LuaBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * io 库的文件句柄
+ * 基于 FileChannel，读写各用一块直接缓冲区（按需分配），按行读取时在缓冲区里直接查找换行符，不经过 Reader 和字符解码。
+ * 读缓冲区按文件剩余长度分配（不超过 1 MiB），写缓冲区从 8 KiB 开始，每写满一次扩大一倍，小文件不会占用大块直接内存。
+ * 只读打开的普通文件可以改用内存映射：按窗口映射文件，映射区域本身就是读缓冲区，读取超大文件时没有从内核到堆的复制。
+ *
+ * 与 C 的 FILE* 一样，读写切换时自动同步位置；未关闭的文件在进程退出时写出缓冲的数据。
+ * 通道和写缓冲区放在虚引用 Handle 中，不引用 LuaFile 本身：未关闭的文件不再被引用时可以被回收，
+ * 之后（下次打开文件或进程退出时）写出缓冲的数据并关闭通道，不会一直占用文件描述符和直接内存。
+ * 打开失败（包括文件描述符用尽）时不会主动触发垃圾回收，错误照常返回给调用方。
+ *
+ * 内存映射默认关闭，可通过 setMmapEnabled 或系统属性 jua.io.mmap=true 开启。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public final class LuaFile {
+
+    /**
+     * 内存映射开关的系统属性
+     */
+    public static final String MMAP_PROPERTY = "jua.io.mmap";
+
+    /**
+     * 读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * 标准流的缓冲区大小，也是普通文件缓冲区的最小大小
+     */
+    private static final int STD_BUFFER_SIZE = 8 << 10;
+
+    /**
+     * 内存映射的窗口大小
+     */
+    private static final long MAP_WINDOW = 1L << 28;
+
+    /**
+     * 数字（read "n"）的最大长度
+     */
+    private static final int MAX_NUMERAL = 200;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static volatile boolean mmapEnabled = "true".equals(System.getProperty(MMAP_PROPERTY));
+
+    /**
+     * 未关闭的普通文件，进程退出时写出缓冲的数据
+     */
+    private static final Set<Handle> OPEN_FILES = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    /**
+     * 未关闭就被回收的文件
+     */
+    private static final ReferenceQueue<LuaFile> COLLECTED = new ReferenceQueue<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(LuaFile::flushAll));
+    }
+
+    /**
+     * 普通文件的通道，标准流为 null（不能 seek）
+     */
+    private final FileChannel fc;
+
+    private final ReadableByteChannel in;
+
+    private final WritableByteChannel out;
+
+    /**
+     * 标准流：不能关闭，每次写入后立即写出，保证与 print 的输出顺序一致
+     */
+    private final boolean std;
+
+    /**
+     * 追加模式：写出前先定位到文件末尾
+     */
+    private final boolean append;
+
+    /**
+     * 是否使用内存映射读取
+     */
+    private final boolean mapped;
+
+    /**
+     * 读缓冲区（读模式，position 到 limit 之间为未读数据）
+     */
+    private ByteBuffer rb = EMPTY;
+
+    /**
+     * rb 的 limit 对应的文件偏移
+     */
+    private long readEnd;
+
+    /**
+     * 通道和写缓冲区
+     */
+    private final Handle handle;
+
+    /**
+     * 复用的行缓冲区
+     */
+    private final LuaBuffer line = new LuaBuffer();
+
+    private boolean closed;
+
+    private LuaFile(FileChannel fc, ReadableByteChannel in, WritableByteChannel out, boolean std, boolean append, boolean mapped) {
+        this.fc = fc;
+        this.in = in;
+        this.out = out;
+        this.std = std;
+        this.append = append;
+        this.mapped = mapped;
+        this.handle = new Handle(this);
+        if (!std) {
+            OPEN_FILES.add(handle);
+        }
+    }
+
+    public static void setMmapEnabled(boolean enabled) {
+        LuaFile.mmapEnabled = enabled;
+    }
+
+    public static boolean isMmapEnabled() {
+        return mmapEnabled;
+    }
+
+    /**
+     * 打开文件
+     *
+     * @param fileName
+     * @param mode     已校验的模式：[rwa]%+?b*
+     * @return
+     * @throws IOException
+     */
+    static LuaFile open(String fileName, String mode) throws IOException {
+        expunge();
+        boolean plus = mode.indexOf('+') >= 0;
+        Set<StandardOpenOption> options = EnumSet.noneOf(StandardOpenOption.class);
+        switch (mode.charAt(0)) {
+            case 'r':
+                options.add(StandardOpenOption.READ);
+                if (plus) {
+                    options.add(StandardOpenOption.WRITE);
+                }
+                break;
+            case 'w':
+                options.add(StandardOpenOption.WRITE);
+                options.add(StandardOpenOption.CREATE);
+                options.add(StandardOpenOption.TRUNCATE_EXISTING);
+                if (plus) {
+                    options.add(StandardOpenOption.READ);
+                }
+                break;
+            default:
+                // FileChannel 不允许 READ 与 APPEND 同时使用，追加由写出前定位到末尾实现
+                options.add(StandardOpenOption.WRITE);
+                options.add(StandardOpenOption.CREATE);
+                if (plus) {
+                    options.add(StandardOpenOption.READ);
+                }
+                break;
+        }
+        Path path = Paths.get(fileName);
+        FileChannel fc = FileChannel.open(path, options);
+        boolean readable = options.contains(StandardOpenOption.READ);
+        boolean writable = options.contains(StandardOpenOption.WRITE);
+        boolean mapped = mmapEnabled && readable && !writable && fc.size() >= BUFFER_SIZE;
+        return new LuaFile(fc, readable ? fc : null, writable ? fc : null, false, mode.charAt(0) == 'a', mapped);
+    }
+
+    static LuaFile stdin(InputStream in) {
+        return new LuaFile(null, Channels.newChannel(in), null, true, false, false);
+    }
+
+    static LuaFile stdout(OutputStream out) {
+        return new LuaFile(null, null, Channels.newChannel(out), true, false, false);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isStd() {
+        return std;
+    }
+
+    // ========== 读 ==========
+
+    /**
+     * 读一行
+     *
+     * @param keepNewline 是否保留换行符（"L"）
+     * @return 文件结束时返回 null
+     * @throws IOException
+     */
+    String readLine(boolean keepNewline) throws IOException {
+        prepareRead();
+        line.setLength(0);
+        boolean any = false;
+        while (fill()) {
+            any = true;
+            int start = rb.position();
+            int limit = rb.limit();
+            int i = start;
+            while (i < limit && rb.get(i) != '\n') {
+                i++;
+            }
+            if (i < limit) {
+                line.append(rb, i - start + (keepNewline ? 1 : 0));
+                rb.position(i + 1);
+                return line.toString();
+            }
+            line.append(rb, limit - start);
+        }
+        return any ? line.toString() : null;
+    }
+
+    /**
+     * 最多读 n 个字节
+     *
+     * @param n
+     * @return 文件结束时返回 null
+     * @throws IOException
+     */
+    String readChars(long n) throws IOException {
+        prepareRead();
+        line.setLength(0);
+        while (n > 0 && fill()) {
+            int k = (int) Math.min(n, rb.remaining());
+            line.append(rb, k);
+            n -= k;
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * 读取剩余的全部内容，普通文件按剩余长度一次分配
+     *
+     * @return 文件结束时返回空串
+     * @throws IOException
+     */
+    String readAll() throws IOException {
+        prepareRead();
+        long hint = fc != null ? fc.size() - position() : 0;
+        LuaBuffer b = new LuaBuffer((int) Math.max(Math.min(hint, Integer.MAX_VALUE - 8), 0));
+        while (fill()) {
+            b.append(rb, rb.remaining());
+        }
+        return b.toString();
+    }
+
+    /**
+     * 是否还有数据（read(0)）
+     *
+     * @return
+     * @throws IOException
+     */
+    boolean testEof() throws IOException {
+        prepareRead();
+        return !fill();
+    }
+
+    /**
+     * 读取一个数字的字面量，规则与 liolib 的 read_number 相同：只读入可能构成数字的最长前缀
+     *
+     * @return 超长时返回 null；返回的字面量不一定合法，由调用方转换
+     * @throws IOException
+     */
+    String readNumeral() throws IOException {
+        prepareRead();
+        int c;
+        /* skip spaces */
+        while ((c = peek()) >= 0 && isSpace(c)) {
+            rb.get();
+        }
+        line.setLength(0);
+        int count = 0;
+        boolean hex = false;
+        /* optional signal */
+        test2("-+");
+        /* check for hex prefix */
+        if (test2("00")) {
+            if (test2("xX")) {
+                hex = true;
+            } else {
+                count = 1;
+            }
+        }
+        /* integral part */
+        count += readDigits(hex);
+        /* decimal point? */
+        if (test2(".")) {
+            /* fractional part */
+            count += readDigits(hex);
+        }
+        /* exponent mark? */
+        if (count > 0 && test2(hex ? "pP" : "eE")) {
+            /* exponent signal */
+            test2("-+");
+            /* exponent digits */
+            readDigits(false);
+        }
+        return line.length() <= MAX_NUMERAL ? line.toString() : null;
+    }
+
+    private int peek() throws IOException {
+        return fill() ? rb.get(rb.position()) & 0xFF : -1;
+    }
+
+    private boolean test2(String set) throws IOException {
+        int c = peek();
+        if (c >= 0 && set.indexOf(c) >= 0 && line.length() <= MAX_NUMERAL) {
+            line.append((char) c);
+            rb.get();
+            return true;
+        }
+        return false;
+    }
+
+    private int readDigits(boolean hex) throws IOException {
+        int count = 0;
+        int c;
+        while ((c = peek()) >= 0 && (hex ? Character.digit(c, 16) >= 0 : c >= '0' && c <= '9')
+            && line.length() <= MAX_NUMERAL) {
+            line.append((char) c);
+            rb.get();
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+
+    /**
+     * 读缓冲区为空时填充：内存映射下一个窗口，或者从通道读入
+     *
+     * @return false 表示文件结束
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (rb.hasRemaining()) {
+            return true;
+        }
+        if (mapped) {
+            long size = fc.size();
+            if (readEnd >= size) {
+                return false;
+            }
+            long len = Math.min(MAP_WINDOW, size - readEnd);
+            rb = fc.map(FileChannel.MapMode.READ_ONLY, readEnd, len);
+            readEnd += len;
+            return true;
+        }
+        if (rb == EMPTY) {
+            // 按剩余长度分配，小文件不占用整块缓冲区
+            int size = fc == null ? STD_BUFFER_SIZE : (int) Math.max(STD_BUFFER_SIZE, Math.min(BUFFER_SIZE, fc.size() - readEnd));
+            rb = ByteBuffer.allocateDirect(size);
+        }
+        rb.clear();
+        int n;
+        do {
+            n = in.read(rb);
+        } while (n == 0);
+        rb.flip();
+        if (n < 0) {
+            return false;
+        }
+        readEnd += n;
+        return true;
+    }
+
+    private void prepareRead() throws IOException {
+        if (in == null) {
+            throw new IOException("Bad file descriptor");
+        }
+        flushWrite();
+    }
+
+    // ========== 写 ==========
+
+    /**
+     * 写入字符串（按字节）
+     *
+     * @param s
+     * @throws IOException
+     */
+    void write(String s) throws IOException {
+        prepareWrite();
+        int len = s.length();
+        for (int i = 0; i < len; ) {
+            if (!handle.wb.hasRemaining()) {
+                flushWrite();
+            }
+            ByteBuffer wb = handle.wb;
+            int k = Math.min(len - i, wb.remaining());
+            for (int j = i + k; i < j; i++) {
+                wb.put((byte) s.charAt(i));
+            }
+        }
+        if (std) {
+            flushWrite();
+        }
+    }
+
+    /**
+     * 开始写：丢弃预读的数据并把通道定位到逻辑位置
+     *
+     * @throws IOException
+     */
+    private void prepareWrite() throws IOException {
+        if (out == null) {
+            throw new IOException("Bad file descriptor");
+        }
+        if (rb.limit() > 0) {
+            long pos = position();
+            fc.position(pos);
+            readEnd = pos;
+            rb.limit(0);
+        }
+        if (handle.wb == null) {
+            handle.wb = ByteBuffer.allocateDirect(STD_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * 写出缓冲的数据
+     *
+     * @throws IOException
+     */
+    void flushWrite() throws IOException {
+        if (handle.flush() && fc != null) {
+            readEnd = fc.position();
+        }
+    }
+
+    // ========== 定位与关闭 ==========
+
+    /**
+     * 逻辑位置：已读到或已写到的位置
+     *
+     * @return
+     * @throws IOException
+     */
+    private long position() throws IOException {
+        if (handle.wb != null && handle.wb.position() > 0) {
+            return fc.position() + handle.wb.position();
+        }
+        return readEnd - rb.remaining();
+    }
+
+    /**
+     * 定位
+     *
+     * @param whence "set"、"cur" 或 "end"
+     * @param offset
+     * @return 新的位置
+     * @throws IOException
+     */
+    long seek(String whence, long offset) throws IOException {
+        if (fc == null) {
+            throw new IOException("Illegal seek");
+        }
+        // 先写出缓冲的数据，文件末尾才是准确的
+        flushWrite();
+        long base;
+        switch (whence) {
+            case "set":
+                base = 0;
+                break;
+            case "cur":
+                base = position();
+                break;
+            default:
+                base = fc.size();
+                break;
+        }
+        long pos = base + offset;
+        if (pos < 0) {
+            throw new IOException("Invalid argument");
+        }
+        long bufStart = readEnd - rb.limit();
+        if (pos >= bufStart && pos <= readEnd) {
+            // 仍在读缓冲区（或映射窗口）内，只移动缓冲区的位置
+            rb.position((int) (pos - bufStart));
+        } else {
+            rb = mapped ? EMPTY : rb;
+            rb.limit(0);
+            readEnd = pos;
+            if (!mapped) {
+                fc.position(pos);
+            }
+        }
+        return pos;
+    }
+
+    void close() throws IOException {
+        closed = true;
+        rb = EMPTY;
+        handle.clear();
+        handle.close();
+    }
+
+    /**
+     * 写出并关闭未关闭就被回收的文件
+     */
+    private static void expunge() {
+        for (Reference<? extends LuaFile> ref; (ref = COLLECTED.poll()) != null; ) {
+            try {
+                ((Handle) ref).close();
+            } catch (IOException ignored) {
+                // 文件已经不可访问，无法报告错误
+            }
+        }
+    }
+
+    /**
+     * 进程退出时写出所有未关闭文件的缓冲数据
+     */
+    private static void flushAll() {
+        synchronized (OPEN_FILES) {
+            for (Handle h : OPEN_FILES) {
+                try {
+                    h.flush();
+                } catch (IOException ignored) {
+                    // 退出时无法报告错误
+                }
+            }
+        }
+    }
+
+    /**
+     * 文件的通道和写缓冲区
+     * 以虚引用跟踪所属的 LuaFile，本身不引用 LuaFile，因此 OPEN_FILES 不会阻止文件被回收。
+     */
+    private static final class Handle extends PhantomReference<LuaFile> {
+
+        private final FileChannel fc;
+
+        private final WritableByteChannel out;
+
+        private final boolean append;
+
+        private final int maxSize;
+
+        /**
+         * 写缓冲区（写模式，0 到 position 之间为待写数据），首次写入时分配
+         */
+        private ByteBuffer wb;
+
+        Handle(LuaFile f) {
+            // 标准流不会被关闭，不需要跟踪
+            super(f, f.std ? null : COLLECTED);
+            this.fc = f.fc;
+            this.out = f.out;
+            this.append = f.append;
+            this.maxSize = f.std ? STD_BUFFER_SIZE : BUFFER_SIZE;
+        }
+
+        /**
+         * 写出缓冲的数据，缓冲区写满过则扩大一倍（不超过上限）
+         *
+         * @return 是否有数据写出
+         * @throws IOException
+         */
+        boolean flush() throws IOException {
+            if (wb == null || wb.position() == 0) {
+                return false;
+            }
+            boolean full = !wb.hasRemaining();
+            if (append) {
+                fc.position(fc.size());
+            }
+            wb.flip();
+            while (wb.hasRemaining()) {
+                out.write(wb);
+            }
+            wb.clear();
+            if (full && wb.capacity() < maxSize) {
+                wb = ByteBuffer.allocateDirect(Math.min(wb.capacity() * 2, maxSize));
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            OPEN_FILES.remove(this);
+            try {
+                flush();
+            } finally {
+                wb = null;
+                if (fc != null) {
+                    fc.close();
+                }
+            }
+        }
+
+    }
+
+}
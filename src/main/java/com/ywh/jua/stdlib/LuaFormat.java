@@ -0,0 +1,524 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.api.LuaType;
+import com.ywh.jua.string.LuaBuffer;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * string.format 的格式串
+ * 格式串编译一次，得到字面量和格式说明符交替的片段序列，放在进程级的 LRU 缓存中；
+ * 格式化时按片段直接写入 LuaBuffer，整数、浮点数、字符串各有专门的格式化方法，不再经过 String.format。
+ *
+ * lua-5.3.4/src/lstrlib.c#str_format()
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+final class LuaFormat {
+
+    private static final String FLAGS = "-+ #0";
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final double[] POW10 = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+    private static final Map<String, LuaFormat> CACHE = new LinkedHashMap<String, LuaFormat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LuaFormat> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 片段：String 为字面量，Spec 为格式说明符
+     */
+    private final Object[] segments;
+
+    /**
+     * 字面量的总长度，用于预估结果长度
+     */
+    private final int literalLength;
+
+    private LuaFormat(String fmt) {
+        List<Object> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int literalLength = 0;
+        int n = fmt.length();
+        int i = 0;
+        while (i < n) {
+            char c = fmt.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+            } else if (i < n && fmt.charAt(i) == '%') {
+                literal.append('%');
+                i++;
+            } else {
+                if (literal.length() > 0) {
+                    literalLength += literal.length();
+                    segments.add(literal.toString());
+                    literal.setLength(0);
+                }
+                Spec spec = new Spec();
+                i = spec.parse(fmt, i);
+                segments.add(spec);
+            }
+        }
+        if (literal.length() > 0) {
+            literalLength += literal.length();
+            segments.add(literal.toString());
+        }
+        this.segments = segments.toArray();
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * 编译格式串（带缓存）
+     *
+     * @param fmt
+     * @return
+     */
+    static LuaFormat compile(String fmt) {
+        synchronized (CACHE) {
+            LuaFormat compiled = CACHE.get(fmt);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        LuaFormat compiled = new LuaFormat(fmt);
+        synchronized (CACHE) {
+            CACHE.put(fmt, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * 格式化并写入缓冲区
+     *
+     * @param ls
+     * @param fmtArg 格式串所在的参数索引，待格式化的参数从下一个开始
+     * @param b
+     */
+    void format(LuaState ls, int fmtArg, LuaBuffer b) {
+        int top = ls.getTop();
+        int arg = fmtArg;
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                b.append((String) segment);
+                continue;
+            }
+            if (++arg > top) {
+                ls.argError(arg, "no value");
+            }
+            ((Spec) segment).format(ls, arg, b);
+        }
+    }
+
+    /**
+     * 预估结果长度
+     *
+     * @return
+     */
+    int sizeHint() {
+        return literalLength + 16 * segments.length;
+    }
+
+    /**
+     * 格式说明符 %[flags][width][.precision]conversion
+     */
+    private static final class Spec {
+
+        private boolean left;
+        private boolean plus;
+        private boolean space;
+        private boolean alt;
+        private boolean zero;
+        private int width;
+
+        /**
+         * 精度，-1 表示未指定
+         */
+        private int precision = -1;
+
+        private char conversion;
+
+        /**
+         * 解析说明符
+         *
+         * @param fmt
+         * @param i   % 之后的位置
+         * @return 说明符之后的位置
+         */
+        int parse(String fmt, int i) {
+            int n = fmt.length();
+            int start = i;
+            while (i < n && FLAGS.indexOf(fmt.charAt(i)) >= 0) {
+                switch (fmt.charAt(i++)) {
+                    case '-':
+                        left = true;
+                        break;
+                    case '+':
+                        plus = true;
+                        break;
+                    case ' ':
+                        space = true;
+                        break;
+                    case '#':
+                        alt = true;
+                        break;
+                    default:
+                        zero = true;
+                        break;
+                }
+            }
+            if (i - start > FLAGS.length()) {
+                throw new RuntimeException("invalid format (repeated flags)");
+            }
+            int digits = 0;
+            while (i < n && Character.isDigit(fmt.charAt(i))) {
+                width = width * 10 + fmt.charAt(i++) - '0';
+                digits++;
+            }
+            if (i < n && fmt.charAt(i) == '.') {
+                i++;
+                precision = 0;
+                int pDigits = 0;
+                while (i < n && Character.isDigit(fmt.charAt(i))) {
+                    precision = precision * 10 + fmt.charAt(i++) - '0';
+                    pDigits++;
+                }
+                digits = Math.max(digits, pDigits);
+            }
+            if (digits > 2) {
+                throw new RuntimeException("invalid format (width or precision too long)");
+            }
+            conversion = i < n ? fmt.charAt(i) : '\0';
+            if (conversion == '\0' || "cdiouxXaAeEfFgGqs".indexOf(conversion) < 0) {
+                throw new RuntimeException("invalid option '%" + (i < n ? String.valueOf(conversion) : "") + "' to 'format'");
+            }
+            return i + 1;
+        }
+
+        void format(LuaState ls, int arg, LuaBuffer b) {
+            switch (conversion) {
+                case 'c':
+                    pad(b, "", String.valueOf((char) (ls.checkInteger(arg) & 0xFF)));
+                    break;
+                case 'd':
+                case 'i':
+                    formatInteger(b, ls.checkInteger(arg));
+                    break;
+                case 'o':
+                case 'u':
+                case 'x':
+                case 'X':
+                    formatUnsigned(b, ls.checkInteger(arg));
+                    break;
+                case 'q':
+                    addQuoted(ls, arg, b);
+                    break;
+                case 's': {
+                    String s = ls.toString2(arg);
+                    ls.pop(1);
+                    pad(b, "", precision >= 0 && precision < s.length() ? s.substring(0, precision) : s);
+                    break;
+                }
+                default:
+                    formatFloat(b, ls.checkNumber(arg));
+                    break;
+            }
+        }
+
+        /**
+         * %d %i
+         */
+        private void formatInteger(LuaBuffer b, long v) {
+            String digits = v == 0 && precision == 0 ? "" : Long.toString(v);
+            String sign = sign(v < 0);
+            if (v < 0) {
+                digits = digits.substring(1);
+            }
+            padNumber(b, sign, zeroExtend(digits));
+        }
+
+        /**
+         * %o %u %x %X：按无符号数格式化
+         */
+        private void formatUnsigned(LuaBuffer b, long v) {
+            String digits;
+            String prefix = "";
+            switch (conversion) {
+                case 'o':
+                    digits = Long.toOctalString(v);
+                    break;
+                case 'u':
+                    digits = Long.toUnsignedString(v);
+                    break;
+                case 'x':
+                    digits = Long.toHexString(v);
+                    prefix = alt && v != 0 ? "0x" : "";
+                    break;
+                default:
+                    digits = Long.toHexString(v).toUpperCase();
+                    prefix = alt && v != 0 ? "0X" : "";
+                    break;
+            }
+            if (v == 0 && precision == 0) {
+                digits = "";
+            }
+            digits = zeroExtend(digits);
+            if (conversion == 'o' && alt && !digits.startsWith("0")) {
+                digits = "0" + digits;
+            }
+            padNumber(b, prefix, digits);
+        }
+
+        /**
+         * %a %A %e %E %f %F %g %G
+         */
+        private void formatFloat(LuaBuffer b, double v) {
+            boolean upper = Character.isUpperCase(conversion);
+            String sign = sign(v < 0 || (v == 0 && 1 / v < 0));
+            double abs = Math.abs(v);
+            if (Double.isNaN(v) || Double.isInfinite(v)) {
+                String s = Double.isNaN(v) ? "nan" : "inf";
+                pad(b, Double.isNaN(v) ? "" : sign, upper ? s.toUpperCase() : s);
+                return;
+            }
+            String body;
+            switch (Character.toLowerCase(conversion)) {
+                case 'a':
+                    body = hexFloat(abs);
+                    break;
+                case 'e':
+                    body = exponential(abs, precision < 0 ? 6 : precision, alt);
+                    break;
+                case 'f':
+                    body = fixed(abs, precision < 0 ? 6 : precision, alt);
+                    break;
+                default:
+                    body = general(abs);
+                    break;
+            }
+            padNumber(b, sign, upper ? body.toUpperCase() : body);
+        }
+
+        /**
+         * %g：有效数字为精度，指数小于 -4 或不小于精度时用指数形式；除非有 # 标志，去掉末尾的 0
+         */
+        private String general(double abs) {
+            int p = precision < 0 ? 6 : precision == 0 ? 1 : precision;
+            int x = 0;
+            if (abs != 0) {
+                BigDecimal bd = new BigDecimal(abs).round(new MathContext(p, RoundingMode.HALF_EVEN));
+                x = bd.precision() - 1 - bd.scale();
+            }
+            String s = p > x && x >= -4 ? fixed(abs, p - 1 - x, alt) : exponential(abs, p - 1, alt);
+            if (alt) {
+                return s;
+            }
+            int e = s.indexOf('e');
+            String mantissa = e < 0 ? s : s.substring(0, e);
+            if (mantissa.indexOf('.') >= 0) {
+                int end = mantissa.length();
+                while (mantissa.charAt(end - 1) == '0') {
+                    end--;
+                }
+                if (mantissa.charAt(end - 1) == '.') {
+                    end--;
+                }
+                mantissa = mantissa.substring(0, end);
+            }
+            return e < 0 ? mantissa : mantissa + s.substring(e);
+        }
+
+        private String sign(boolean negative) {
+            return negative ? "-" : plus ? "+" : space ? " " : "";
+        }
+
+        /**
+         * 整数的精度：数字不足精度时在前面补 0
+         */
+        private String zeroExtend(String digits) {
+            if (precision <= digits.length()) {
+                return digits;
+            }
+            StringBuilder sb = new StringBuilder(precision);
+            for (int i = digits.length(); i < precision; i++) {
+                sb.append('0');
+            }
+            return sb.append(digits).toString();
+        }
+
+        /**
+         * 数字按宽度填充：有 0 标志（且整数没有指定精度）时在符号之后补 0
+         */
+        private void padNumber(LuaBuffer b, String prefix, String digits) {
+            boolean integer = "diouxX".indexOf(conversion) >= 0;
+            if (zero && !left && !(integer && precision >= 0)) {
+                b.append(prefix);
+                for (int i = prefix.length() + digits.length(); i < width; i++) {
+                    b.append('0');
+                }
+                b.append(digits);
+            } else {
+                pad(b, prefix, digits);
+            }
+        }
+
+        /**
+         * 按宽度用空格填充
+         */
+        private void pad(LuaBuffer b, String prefix, String s) {
+            int fill = width - prefix.length() - s.length();
+            if (!left) {
+                for (int i = 0; i < fill; i++) {
+                    b.append(' ');
+                }
+            }
+            b.append(prefix).append(s);
+            if (left) {
+                for (int i = 0; i < fill; i++) {
+                    b.append(' ');
+                }
+            }
+        }
+
+        /**
+         * %q
+         * lua-5.3.4/src/lstrlib.c#addliteral()
+         */
+        private static void addQuoted(LuaState ls, int arg, LuaBuffer b) {
+            LuaType t = ls.type(arg);
+            if (t == LuaType.LUA_TSTRING) {
+                String s = ls.toString(arg);
+                b.append('"');
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    if (c == '"' || c == '\\' || c == '\n') {
+                        b.append('\\').append(c);
+                    } else if (c == '\0' || Character.isISOControl(c) && c < 128) {
+                        boolean digitNext = i + 1 < s.length() && Character.isDigit(s.charAt(i + 1));
+                        String code = Integer.toString(c);
+                        b.append('\\');
+                        for (int j = code.length(); digitNext && j < 3; j++) {
+                            b.append('0');
+                        }
+                        b.append(code);
+                    } else {
+                        b.append(c);
+                    }
+                }
+                b.append('"');
+            } else if (t == LuaType.LUA_TNUMBER) {
+                if (ls.isInteger(arg)) {
+                    long v = ls.toInteger(arg);
+                    // 最小整数写成十进制会被读成浮点数
+                    b.append(v == Long.MIN_VALUE ? "0x" + Long.toHexString(v) : Long.toString(v));
+                } else {
+                    double v = ls.toNumber(arg);
+                    if (v == Double.POSITIVE_INFINITY) {
+                        b.append("1e9999");
+                    } else if (v == Double.NEGATIVE_INFINITY) {
+                        b.append("-1e9999");
+                    } else if (Double.isNaN(v)) {
+                        b.append("(0/0)");
+                    } else {
+                        b.append(v < 0 || (v == 0 && 1 / v < 0) ? "-" : "").append(hexFloat(Math.abs(v)));
+                    }
+                }
+            } else if (t == LuaType.LUA_TNIL || t == LuaType.LUA_TBOOLEAN) {
+                b.append(ls.toString2(arg));
+                ls.pop(1);
+            } else {
+                ls.argError(arg, "value has no literal form");
+            }
+        }
+
+        /**
+         * %f：按二进制的精确值舍入（与 C 一致）
+         */
+        private static String fixed(double abs, int precision, boolean alt) {
+            String s = null;
+            if (precision < POW10.length) {
+                // 快速路径：放大后的值不大时乘法误差远小于 1e-6，只要不是接近 .5 的情况，直接舍入的结果与精确值相同
+                double scaled = abs * POW10[precision];
+                double floor = Math.floor(scaled);
+                double frac = scaled - floor;
+                if (scaled < 1e9 && Math.abs(frac - 0.5) > 1e-6) {
+                    s = insertPoint(Long.toString((long) floor + (frac > 0.5 ? 1 : 0)), precision);
+                }
+            }
+            if (s == null) {
+                s = new BigDecimal(abs).setScale(precision, RoundingMode.HALF_EVEN).toPlainString();
+            }
+            return alt && precision == 0 ? s + "." : s;
+        }
+
+        private static String insertPoint(String digits, int precision) {
+            if (precision == 0) {
+                return digits;
+            }
+            StringBuilder sb = new StringBuilder(precision + 2);
+            for (int i = digits.length(); i <= precision; i++) {
+                sb.append('0');
+            }
+            sb.append(digits);
+            return sb.insert(sb.length() - precision, '.').toString();
+        }
+
+        /**
+         * %e：d.ddde±dd
+         */
+        private static String exponential(double abs, int precision, boolean alt) {
+            String digits;
+            int exp;
+            if (abs == 0) {
+                digits = "0";
+                exp = 0;
+            } else {
+                BigDecimal bd = new BigDecimal(abs).round(new MathContext(precision + 1, RoundingMode.HALF_EVEN));
+                digits = bd.unscaledValue().toString();
+                exp = digits.length() - 1 - bd.scale();
+            }
+            StringBuilder sb = new StringBuilder(precision + 8);
+            sb.append(digits.charAt(0));
+            if (precision > 0 || alt) {
+                sb.append('.');
+            }
+            for (int i = 1; i <= precision; i++) {
+                sb.append(i < digits.length() ? digits.charAt(i) : '0');
+            }
+            sb.append('e').append(exp < 0 ? '-' : '+');
+            if (Math.abs(exp) < 10) {
+                sb.append('0');
+            }
+            return sb.append(Math.abs(exp)).toString();
+        }
+
+        /**
+         * %a：0x1.8p+1
+         */
+        private static String hexFloat(double abs) {
+            if (abs == 0) {
+                return "0x0p+0";
+            }
+            String s = Double.toHexString(abs);
+            int p = s.indexOf('p');
+            String mantissa = s.substring(0, p);
+            if (mantissa.endsWith(".0")) {
+                mantissa = mantissa.substring(0, mantissa.length() - 2);
+            }
+            String exp = s.substring(p + 1);
+            return mantissa + "p" + (exp.startsWith("-") ? exp : "+" + exp);
+        }
+    }
+
+}
@@ -0,0 +1,717 @@
+package com.ywh.jua.stdlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lua 模式
+ * 模式串先编译成指令数组（每个单字符类、捕获、%b、%f、反向引用都是一条指令，重复修饰符记在指令里），
+ * 字符集编译成位图，匹配时按照 lstrlib.c 的回溯算法逐条执行；捕获只记录起始下标和长度，需要时才截取子串。
+ *
+ * 编译结果不可变，放在进程级的 LRU 缓存中，多个状态共享。
+ *
+ * lua-5.3.4/src/lstrlib.c
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+final class LuaPattern {
+
+    /**
+     * 特殊字符，模式串不包含这些字符时可以直接按普通字符串查找
+     */
+    static final String SPECIALS = "^$*+?.([%-";
+
+    static final int MAX_CAPTURES = 32;
+
+    /**
+     * 最大递归深度
+     */
+    private static final int MAX_CALLS = 200;
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final int CAP_UNFINISHED = -1;
+
+    private static final int CAP_POSITION = -2;
+
+    // ========== 指令 ==========
+
+    private static final int OP_CHAR = 0;
+    private static final int OP_ANY = 1;
+    private static final int OP_SET = 2;
+    private static final int OP_OPEN = 3;
+    private static final int OP_OPEN_POSITION = 4;
+    private static final int OP_CLOSE = 5;
+    private static final int OP_BALANCE = 6;
+    private static final int OP_FRONTIER = 7;
+    private static final int OP_BACKREF = 8;
+    private static final int OP_END = 9;
+
+    // ========== 重复修饰符（单字符类指令） ==========
+
+    private static final int Q_ONE = 0;
+    private static final int Q_OPT = 1;
+    private static final int Q_STAR = 2;
+    private static final int Q_PLUS = 3;
+    private static final int Q_MINUS = 4;
+
+    private static final Map<String, LuaPattern> CACHE = newCache();
+
+    /**
+     * 开头的 ^ 不表示锚定（gmatch）时编译结果不同，这类以 ^ 开头的模式单独缓存
+     */
+    private static final Map<String, LuaPattern> UNANCHORED_CACHE = newCache();
+
+    /**
+     * 是否以 ^ 锚定在开头
+     */
+    final boolean anchor;
+
+    /**
+     * 指令：低 4 位为操作码，高位为重复修饰符
+     */
+    private final int[] code;
+
+    /**
+     * 指令参数：字符、字符集下标、%b 的两个字符或者反向引用的捕获下标
+     */
+    private final int[] args;
+
+    private final CharSet[] sets;
+
+    private LuaPattern(String p, boolean anchorable) {
+        int n = p.length();
+        int i = 0;
+        anchor = anchorable && n > 0 && p.charAt(0) == '^';
+        if (anchor) {
+            i++;
+        }
+        int[] code = new int[n];
+        int[] args = new int[n];
+        List<CharSet> sets = new ArrayList<>();
+        int pc = 0;
+        while (i < n) {
+            char c = p.charAt(i);
+            int op = -1;
+            int arg = 0;
+            if (c == '(') {
+                if (i + 1 < n && p.charAt(i + 1) == ')') {
+                    op = OP_OPEN_POSITION;
+                    i += 2;
+                } else {
+                    op = OP_OPEN;
+                    i++;
+                }
+            } else if (c == ')') {
+                op = OP_CLOSE;
+                i++;
+            } else if (c == '$' && i + 1 == n) {
+                op = OP_END;
+                i++;
+            } else if (c == '%' && i + 1 < n && p.charAt(i + 1) == 'b') {
+                if (i + 3 >= n) {
+                    throw new RuntimeException("malformed pattern (missing arguments to '%b')");
+                }
+                op = OP_BALANCE;
+                arg = p.charAt(i + 2) << 16 | p.charAt(i + 3);
+                i += 4;
+            } else if (c == '%' && i + 1 < n && p.charAt(i + 1) == 'f') {
+                i += 2;
+                if (i >= n || p.charAt(i) != '[') {
+                    throw new RuntimeException("missing '[' after '%f' in pattern");
+                }
+                int ep = classEnd(p, i);
+                op = OP_FRONTIER;
+                arg = sets.size();
+                sets.add(CharSet.parse(p, i, ep - 1));
+                i = ep;
+            } else if (c == '%' && i + 1 < n && Character.isDigit(p.charAt(i + 1))) {
+                op = OP_BACKREF;
+                arg = p.charAt(i + 1) - '1';
+                i += 2;
+            }
+            if (op < 0) {
+                // 单字符类，后面可以跟重复修饰符
+                int ep = classEnd(p, i);
+                if (c == '.') {
+                    op = OP_ANY;
+                } else if (c == '[') {
+                    op = OP_SET;
+                    arg = sets.size();
+                    sets.add(CharSet.parse(p, i, ep - 1));
+                } else if (c == '%' && CharSet.isClass(p.charAt(i + 1))) {
+                    op = OP_SET;
+                    arg = sets.size();
+                    sets.add(CharSet.ofClass(p.charAt(i + 1)));
+                } else {
+                    op = OP_CHAR;
+                    arg = c == '%' ? p.charAt(i + 1) : c;
+                }
+                int q = Q_ONE;
+                if (ep < n) {
+                    switch (p.charAt(ep)) {
+                        case '?':
+                            q = Q_OPT;
+                            break;
+                        case '*':
+                            q = Q_STAR;
+                            break;
+                        case '+':
+                            q = Q_PLUS;
+                            break;
+                        case '-':
+                            q = Q_MINUS;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                op |= q << 4;
+                i = q == Q_ONE ? ep : ep + 1;
+            }
+            code[pc] = op;
+            args[pc] = arg;
+            pc++;
+        }
+        this.code = Arrays.copyOf(code, pc);
+        this.args = Arrays.copyOf(args, pc);
+        this.sets = sets.toArray(new CharSet[0]);
+    }
+
+    /**
+     * 编译模式（带缓存）
+     *
+     * @param pattern
+     * @return
+     */
+    static LuaPattern compile(String pattern) {
+        return compile(pattern, true);
+    }
+
+    /**
+     * 编译模式（带缓存）
+     *
+     * @param pattern
+     * @param anchorable 开头的 ^ 是否表示锚定（gmatch 中是普通字符）
+     * @return
+     */
+    static LuaPattern compile(String pattern, boolean anchorable) {
+        Map<String, LuaPattern> cache = anchorable || !pattern.startsWith("^") ? CACHE : UNANCHORED_CACHE;
+        synchronized (cache) {
+            LuaPattern compiled = cache.get(pattern);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        LuaPattern compiled = new LuaPattern(pattern, anchorable);
+        synchronized (cache) {
+            cache.put(pattern, compiled);
+        }
+        return compiled;
+    }
+
+    private static Map<String, LuaPattern> newCache() {
+        return new LinkedHashMap<String, LuaPattern>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LuaPattern> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * 模式串是否不含特殊字符
+     *
+     * @param pattern
+     * @return
+     */
+    static boolean noSpecials(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (SPECIALS.indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Matcher matcher(String src) {
+        return new Matcher(this, src);
+    }
+
+    /**
+     * 单字符类的结束位置
+     *
+     * @param p
+     * @param i
+     * @return
+     */
+    private static int classEnd(String p, int i) {
+        int n = p.length();
+        char c = p.charAt(i++);
+        if (c == '%') {
+            if (i >= n) {
+                throw new RuntimeException("malformed pattern (ends with '%')");
+            }
+            return i + 1;
+        }
+        if (c == '[') {
+            if (i < n && p.charAt(i) == '^') {
+                i++;
+            }
+            // 第一个字符即使是 ] 也属于字符集
+            do {
+                if (i >= n) {
+                    throw new RuntimeException("malformed pattern (missing ']')");
+                }
+                char cc = p.charAt(i++);
+                if (cc == '%' && i < n) {
+                    i++;
+                }
+            } while (i >= n || p.charAt(i) != ']');
+            return i + 1;
+        }
+        return i;
+    }
+
+    /**
+     * 匹配器：保存一次匹配的源串和捕获，可以在同一个源串上反复匹配。
+     */
+    static final class Matcher {
+
+        private final LuaPattern pattern;
+
+        final String src;
+
+        private final int len;
+
+        /**
+         * 捕获数量
+         */
+        int level;
+
+        private final int[] capInit = new int[MAX_CAPTURES];
+
+        private final int[] capLen = new int[MAX_CAPTURES];
+
+        private int depth;
+
+        private Matcher(LuaPattern pattern, String src) {
+            this.pattern = pattern;
+            this.src = src;
+            this.len = src.length();
+        }
+
+        /**
+         * 从 s 开始匹配（不向后查找）
+         *
+         * @param s
+         * @return 匹配结束的位置，不匹配返回 -1
+         */
+        int match(int s) {
+            level = 0;
+            depth = MAX_CALLS;
+            return doMatch(s, 0);
+        }
+
+        /**
+         * 取捕获的值：字符串或位置（整数）；模式中没有捕获时第 0 个捕获为整个匹配
+         *
+         * @param i
+         * @param s 匹配的起始位置
+         * @param e 匹配的结束位置
+         * @return
+         */
+        Object capture(int i, int s, int e) {
+            if (i >= level) {
+                if (i == 0) {
+                    return src.substring(s, e);
+                }
+                throw new RuntimeException("invalid capture index %" + (i + 1));
+            }
+            int l = capLen[i];
+            if (l == CAP_UNFINISHED) {
+                throw new RuntimeException("unfinished capture");
+            }
+            if (l == CAP_POSITION) {
+                return (long) capInit[i] + 1;
+            }
+            return src.substring(capInit[i], capInit[i] + l);
+        }
+
+        /**
+         * 把捕获追加到缓冲区（不创建子串）
+         *
+         * @param sb
+         * @param i
+         * @param s
+         * @param e
+         */
+        void appendCapture(StringBuilder sb, int i, int s, int e) {
+            if (i < level && capLen[i] >= 0) {
+                sb.append(src, capInit[i], capInit[i] + capLen[i]);
+            } else if (i == 0 && level == 0) {
+                sb.append(src, s, e);
+            } else {
+                sb.append(capture(i, s, e));
+            }
+        }
+
+        private int doMatch(int s, int p) {
+            if (depth-- == 0) {
+                throw new RuntimeException("pattern too complex");
+            }
+            int r = doMatch0(s, p);
+            depth++;
+            return r;
+        }
+
+        private int doMatch0(int s, int p) {
+            int[] code = pattern.code;
+            int n = code.length;
+            while (p < n) {
+                int op = code[p] & 0xF;
+                switch (op) {
+                    case OP_OPEN:
+                        return startCapture(s, p + 1, CAP_UNFINISHED);
+                    case OP_OPEN_POSITION:
+                        return startCapture(s, p + 1, CAP_POSITION);
+                    case OP_CLOSE:
+                        return endCapture(s, p + 1);
+                    case OP_END:
+                        return s == len ? s : -1;
+                    case OP_BALANCE:
+                        s = matchBalance(s, pattern.args[p]);
+                        if (s == -1) {
+                            return -1;
+                        }
+                        p++;
+                        continue;
+                    case OP_FRONTIER: {
+                        CharSet set = pattern.sets[pattern.args[p]];
+                        char prev = s == 0 ? '\0' : src.charAt(s - 1);
+                        char cur = s < len ? src.charAt(s) : '\0';
+                        if (set.matches(prev) || !set.matches(cur)) {
+                            return -1;
+                        }
+                        p++;
+                        continue;
+                    }
+                    case OP_BACKREF:
+                        s = matchCapture(s, pattern.args[p]);
+                        if (s == -1) {
+                            return -1;
+                        }
+                        p++;
+                        continue;
+                    default:
+                        break;
+                }
+
+                // 单字符类
+                boolean m = s < len && singleMatch(src.charAt(s), p);
+                switch (code[p] >>> 4) {
+                    case Q_OPT:
+                        if (m) {
+                            int r = doMatch(s + 1, p + 1);
+                            if (r != -1) {
+                                return r;
+                            }
+                        }
+                        p++;
+                        continue;
+                    case Q_PLUS:
+                        return m ? maxExpand(s + 1, p) : -1;
+                    case Q_STAR:
+                        return maxExpand(s, p);
+                    case Q_MINUS:
+                        return minExpand(s, p);
+                    default:
+                        if (!m) {
+                            return -1;
+                        }
+                        s++;
+                        p++;
+                }
+            }
+            return s;
+        }
+
+        private boolean singleMatch(char c, int p) {
+            switch (pattern.code[p] & 0xF) {
+                case OP_ANY:
+                    return true;
+                case OP_CHAR:
+                    return c == pattern.args[p];
+                default:
+                    return pattern.sets[pattern.args[p]].matches(c);
+            }
+        }
+
+        /**
+         * 贪婪匹配：先尽量多地匹配，再逐个回退
+         */
+        private int maxExpand(int s, int p) {
+            int i = 0;
+            while (s + i < len && singleMatch(src.charAt(s + i), p)) {
+                i++;
+            }
+            for (; i >= 0; i--) {
+                int r = doMatch(s + i, p + 1);
+                if (r != -1) {
+                    return r;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 非贪婪匹配：先尽量少地匹配，再逐个扩展
+         */
+        private int minExpand(int s, int p) {
+            for (;;) {
+                int r = doMatch(s, p + 1);
+                if (r != -1) {
+                    return r;
+                }
+                if (s < len && singleMatch(src.charAt(s), p)) {
+                    s++;
+                } else {
+                    return -1;
+                }
+            }
+        }
+
+        private int startCapture(int s, int p, int what) {
+            if (level >= MAX_CAPTURES) {
+                throw new RuntimeException("too many captures");
+            }
+            capInit[level] = s;
+            capLen[level] = what;
+            level++;
+            int r = doMatch(s, p);
+            if (r == -1) {
+                level--;
+            }
+            return r;
+        }
+
+        private int endCapture(int s, int p) {
+            int l = captureToClose();
+            capLen[l] = s - capInit[l];
+            int r = doMatch(s, p);
+            if (r == -1) {
+                capLen[l] = CAP_UNFINISHED;
+            }
+            return r;
+        }
+
+        private int captureToClose() {
+            for (int l = level - 1; l >= 0; l--) {
+                if (capLen[l] == CAP_UNFINISHED) {
+                    return l;
+                }
+            }
+            throw new RuntimeException("invalid pattern capture");
+        }
+
+        private int matchBalance(int s, int arg) {
+            char x = (char) (arg >>> 16);
+            char y = (char) arg;
+            if (s >= len || src.charAt(s) != x) {
+                return -1;
+            }
+            int cont = 1;
+            for (int i = s + 1; i < len; i++) {
+                char c = src.charAt(i);
+                if (c == y) {
+                    if (--cont == 0) {
+                        return i + 1;
+                    }
+                } else if (c == x) {
+                    cont++;
+                }
+            }
+            return -1;
+        }
+
+        private int matchCapture(int s, int l) {
+            if (l < 0 || l >= level || capLen[l] == CAP_UNFINISHED) {
+                throw new RuntimeException("invalid capture index %" + (l + 1));
+            }
+            int n = capLen[l];
+            if (n >= 0 && len - s >= n && src.regionMatches(capInit[l], src, s, n)) {
+                return s + n;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 字符集：0~255 用位图表示，其他字符只可能被区间或取反的字符类匹配
+     */
+    private static final class CharSet {
+
+        private final long[] bits = new long[4];
+
+        /**
+         * 超出 255 的区间（成对存放）
+         */
+        private char[] ranges = new char[0];
+
+        /**
+         * 是否包含取反的字符类（如 %A），它们匹配所有超出 255 的字符
+         */
+        private boolean highMatch;
+
+        private boolean negate;
+
+        static boolean isClass(char cl) {
+            switch (Character.toLowerCase(cl)) {
+                case 'a':
+                case 'c':
+                case 'd':
+                case 'g':
+                case 'l':
+                case 'p':
+                case 's':
+                case 'u':
+                case 'w':
+                case 'x':
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        static CharSet ofClass(char cl) {
+            CharSet set = new CharSet();
+            set.addClass(cl);
+            return set;
+        }
+
+        /**
+         * 解析 [set]
+         *
+         * @param p
+         * @param start [ 的位置
+         * @param end   ] 的位置
+         * @return
+         */
+        static CharSet parse(String p, int start, int end) {
+            CharSet set = new CharSet();
+            int i = start + 1;
+            if (p.charAt(i) == '^') {
+                set.negate = true;
+                i++;
+            }
+            while (i < end) {
+                char c = p.charAt(i);
+                if (c == '%') {
+                    set.addClass(p.charAt(i + 1));
+                    i += 2;
+                } else if (i + 2 < end && p.charAt(i + 1) == '-') {
+                    set.addRange(c, p.charAt(i + 2));
+                    i += 3;
+                } else {
+                    set.addRange(c, c);
+                    i++;
+                }
+            }
+            return set;
+        }
+
+        boolean matches(char c) {
+            boolean r;
+            if (c < 256) {
+                r = (bits[c >>> 6] >>> (c & 63) & 1) != 0;
+            } else {
+                r = highMatch;
+                for (int i = 0; !r && i < ranges.length; i += 2) {
+                    r = ranges[i] <= c && c <= ranges[i + 1];
+                }
+            }
+            return r != negate;
+        }
+
+        private void addClass(char cl) {
+            if (!isClass(cl)) {
+                addRange(cl, cl);
+                return;
+            }
+            for (int c = 0; c < 256; c++) {
+                if (classMatch(cl, c)) {
+                    bits[c >>> 6] |= 1L << (c & 63);
+                }
+            }
+            if (Character.isUpperCase(cl)) {
+                highMatch = true;
+            }
+        }
+
+        private void addRange(char lo, char hi) {
+            for (int c = lo; c <= hi && c < 256; c++) {
+                bits[c >>> 6] |= 1L << (c & 63);
+            }
+            if (hi >= 256) {
+                ranges = Arrays.copyOf(ranges, ranges.length + 2);
+                ranges[ranges.length - 2] = (char) Math.max(lo, 256);
+                ranges[ranges.length - 1] = hi;
+            }
+        }
+
+        /**
+         * 字符类（C 语言区域设置）
+         *
+         * @param cl
+         * @param c
+         * @return
+         */
+        private static boolean classMatch(char cl, int c) {
+            boolean res;
+            switch (Character.toLowerCase(cl)) {
+                case 'a':
+                    res = isAlpha(c);
+                    break;
+                case 'c':
+                    res = c < 32 || c == 127;
+                    break;
+                case 'd':
+                    res = c >= '0' && c <= '9';
+                    break;
+                case 'g':
+                    res = c > 32 && c < 127;
+                    break;
+                case 'l':
+                    res = c >= 'a' && c <= 'z';
+                    break;
+                case 'p':
+                    res = c > 32 && c < 127 && !isAlpha(c) && !(c >= '0' && c <= '9');
+                    break;
+                case 's':
+                    res = c == ' ' || (c >= '\t' && c <= '\r');
+                    break;
+                case 'u':
+                    res = c >= 'A' && c <= 'Z';
+                    break;
+                case 'w':
+                    res = isAlpha(c) || (c >= '0' && c <= '9');
+                    break;
+                case 'x':
+                    res = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+                    break;
+                default:
+                    return cl == c;
+            }
+            return Character.isUpperCase(cl) != res;
+        }
+
+        private static boolean isAlpha(int c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+    }
+
+}
@@ -2,15 +2,30 @@ package com.ywh.jua.stdlib;
 
 import com.ywh.jua.api.JavaFunction;
 import com.ywh.jua.api.LuaState;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.ChunkCache;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static com.ywh.jua.api.LuaState.LUA_REGISTRYINDEX;
 import static com.ywh.jua.api.LuaType.LUA_TNIL;
 import static com.ywh.jua.api.LuaType.LUA_TTABLE;
 import static com.ywh.jua.api.ThreadStatus.LUA_OK;
+import static com.ywh.jua.chunk.BinaryChunk.isBinaryChunk;
+import static com.ywh.jua.chunk.BinaryChunk.undump;
 import static com.ywh.jua.vm.Instructions.luaUpvalueIndex;
 
 /**
@@ -25,7 +40,7 @@ public class PackageLib {
 
     private static final String LUA_PRELOAD_TABLE = "_PRELOAD";
 
-    private static final String LUA_DIR_SEP = File.pathSeparator;
+    private static final String LUA_DIR_SEP = File.separator;
 
     private static final String LUA_PATH_SEP = ";";
 
@@ -85,6 +100,164 @@ public class PackageLib {
         return 1;
     }
 
+    /**
+     * 并行预编译模块（使用公共 ForkJoinPool）
+     *
+     * @param ls
+     * @param pathOrDir
+     * @return
+     */
+    public static int preloadModules(LuaState ls, String pathOrDir) {
+        return preloadModules(ls, pathOrDir, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行预编译模块
+     * 按 package.path 格式的模板（或一个目录，等同于 "dir/?.lua;dir/?/init.lua"）找出所有模块，
+     * 在 pool 中并发编译（词法分析、语法分析和代码生成对每个 chunk 都是独立的），
+     * 再在当前线程把编译得到的主函数作为加载器放入 package.preload，之后 require 不再需要搜索和编译。
+     * 编译失败的模块放入一个在 require 时抛出该错误的加载器，与 Lua 一样只在真正加载该模块时报错。
+     * 已存在于 package.preload 中的加载器不会被覆盖。
+     *
+     * @param ls
+     * @param pathOrDir
+     * @param pool
+     * @return 放入 package.preload 的模块数量
+     */
+    public static int preloadModules(LuaState ls, String pathOrDir, ForkJoinPool pool) {
+        Map<String, String> modules = findModules(pathOrDir);
+        List<Callable<Prototype>> tasks = new ArrayList<>(modules.size());
+        for (String fileName : modules.values()) {
+            tasks.add(() -> compileModule(fileName));
+        }
+        List<Future<Prototype>> results = pool.invokeAll(tasks);
+
+        ls.getSubTable(LUA_REGISTRYINDEX, LUA_PRELOAD_TABLE);
+        int n = 0;
+        Iterator<Future<Prototype>> it = results.iterator();
+        for (Map.Entry<String, String> module : modules.entrySet()) {
+            Future<Prototype> result = it.next();
+            if (ls.getField(-1, module.getKey()) != LUA_TNIL) {
+                ls.pop(1);
+                continue;
+            }
+            ls.pop(1);
+            try {
+                ls.load(result.get());
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                ls.pushString(String.format("error loading module '%s' from file '%s':\n\t%s",
+                    module.getKey(), module.getValue(), cause.getMessage()));
+                ls.pushJavaClosure(PackageLib::loadError, 1);
+            }
+            ls.setField(-2, module.getKey());
+            n++;
+        }
+        ls.pop(1);
+        return n;
+    }
+
+    /**
+     * 预编译失败的模块的加载器：抛出编译时的错误
+     *
+     * @param ls
+     * @return
+     */
+    private static int loadError(LuaState ls) {
+        return ls.error2("%s", ls.toString(luaUpvalueIndex(1)));
+    }
+
+    /**
+     * 编译模块文件
+     *
+     * @param fileName
+     * @return
+     */
+    private static Prototype compileModule(String fileName) {
+        try {
+            byte[] data = Files.readAllBytes(Paths.get(fileName));
+            return isBinaryChunk(data) ? undump(data) : ChunkCache.compile(data, "@" + fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 按模板找出所有模块，返回模块名到文件名的映射；与 searchPath 一致，排在前面的模板优先。
+     * searchPath 把模块名中的 . 替换为目录分隔符，名字中含有 . 的目录（例如 .git）不可能被搜索到，因此不进入这些目录。
+     *
+     * @param pathOrDir
+     * @return
+     */
+    private static Map<String, String> findModules(String pathOrDir) {
+        String path = pathOrDir;
+        if (new File(pathOrDir).isDirectory()) {
+            String dir = pathOrDir.endsWith(LUA_DIR_SEP) ? pathOrDir : pathOrDir + LUA_DIR_SEP;
+            path = dir + LUA_PATH_MARK + ".lua" + LUA_PATH_SEP + dir + LUA_PATH_MARK + LUA_DIR_SEP + "init.lua";
+        }
+        Map<String, String> modules = new LinkedHashMap<>();
+        for (String template : path.split(LUA_PATH_SEP)) {
+            int mark = template.indexOf(LUA_PATH_MARK);
+            if (mark < 0 || template.indexOf(LUA_PATH_MARK, mark + 1) >= 0) {
+                continue;
+            }
+            String prefix = template.substring(0, mark);
+            String suffix = template.substring(mark + 1);
+            int dirEnd = prefix.lastIndexOf(LUA_DIR_SEP);
+            Path baseDir = Paths.get(dirEnd < 0 ? "." : prefix.substring(0, dirEnd + 1));
+            if (!Files.isDirectory(baseDir)) {
+                continue;
+            }
+            try {
+                Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return dir.equals(baseDir) || !dir.getFileName().toString().contains(".")
+                            ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile()) {
+                            addModule(modules, baseDir.relativize(file).toString(), prefix, suffix, dirEnd);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * 还原为模板替换后的文件名，截取 ? 对应的部分作为模块名
+     *
+     * @param modules
+     * @param rel     相对于模板目录的文件名
+     * @param prefix  模板中 ? 之前的部分
+     * @param suffix  模板中 ? 之后的部分
+     * @param dirEnd  prefix 中最后一个目录分隔符的位置
+     */
+    private static void addModule(Map<String, String> modules, String rel, String prefix, String suffix, int dirEnd) {
+        String fileName = dirEnd < 0 ? rel : prefix.substring(0, dirEnd + 1) + rel;
+        if (fileName.length() <= prefix.length() + suffix.length()
+            || !fileName.startsWith(prefix) || !fileName.endsWith(suffix)) {
+            return;
+        }
+        String name = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+        // 模块名中的 . 会被 searchPath 替换为目录分隔符，无法对应此类文件。
+        if (!name.contains(".")) {
+            modules.putIfAbsent(name.replace(LUA_DIR_SEP, "."), fileName);
+        }
+    }
+
     /**
      * package.searchpath (name, path [, sep [, rep]])
      * http://www.lua.org/manual/5.3/manual.html#pdf-package.searchpath
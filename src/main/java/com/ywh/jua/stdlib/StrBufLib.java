@@ -0,0 +1,162 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.api.JavaFunction;
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.string.LuaBuffer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 字符串缓冲区库
+ * 循环中用 .. 逐段拼接长字符串时，每一步都会产生新的字符串；strbuf 把各段直接追加到可增长的字节缓冲区，最后一次性取出结果：
+ *      local buf = strbuf.new()
+ *      for i = 1, 3 do
+ *          buf:put("item ", i, "\n"):putf("%5.2f\n", i / 3)
+ *      end
+ *      print(buf:tostring(), #buf)
+ *
+ * 缓冲区是用户数据，元表在注册表中的名字为 strbuf。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class StrBufLib {
+
+    /**
+     * 元表在注册表中的名字
+     */
+    private static final String TNAME = "strbuf";
+
+    private static final Map<String, JavaFunction> STRBUF_FUNCS = new HashMap<>();
+
+    private static final Map<String, JavaFunction> BUF_METHODS = new HashMap<>();
+
+    private static final Map<String, JavaFunction> BUF_METAMETHODS = new HashMap<>();
+
+    static {
+        STRBUF_FUNCS.put("new", StrBufLib::bufNew);
+
+        BUF_METHODS.put("put", StrBufLib::bufPut);
+        BUF_METHODS.put("putf", StrBufLib::bufPutf);
+        BUF_METHODS.put("tostring", StrBufLib::bufToString);
+        BUF_METHODS.put("len", StrBufLib::bufLen);
+        BUF_METHODS.put("reset", StrBufLib::bufReset);
+
+        BUF_METAMETHODS.put("__tostring", StrBufLib::bufToString);
+        BUF_METAMETHODS.put("__len", StrBufLib::bufLen);
+    }
+
+    public static int openStrBufLib(LuaState ls) {
+        ls.newLib(STRBUF_FUNCS);
+        createMetatable(ls);
+        return 1;
+    }
+
+    /**
+     * 创建缓冲区的元表：metatable.__index 为方法表
+     *
+     * @param ls
+     */
+    private static void createMetatable(LuaState ls) {
+        ls.newMetatable(TNAME);
+        ls.setFuncs(BUF_METAMETHODS, 0);
+        ls.newLibTable(BUF_METHODS);
+        ls.setFuncs(BUF_METHODS, 0);
+        /* metatable.__index = methods */
+        ls.setField(-2, "__index");
+        /* pop metatable */
+        ls.pop(1);
+    }
+
+    /**
+     * strbuf.new ([capacity])
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufNew(LuaState ls) {
+        long capacity = ls.optInteger(1, 16);
+        ls.argCheck(capacity >= 0 && capacity <= Integer.MAX_VALUE, 1, "invalid capacity");
+        ls.newUserdata(new LuaBuffer((int) capacity));
+        ls.setMetatable2(TNAME);
+        return 1;
+    }
+
+    /**
+     * buf:put (...)
+     * 依次追加字符串、数字或另一个缓冲区的内容，返回缓冲区本身以便链式调用。
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufPut(LuaState ls) {
+        LuaBuffer b = checkBuffer(ls);
+        int n = ls.getTop();
+        for (int i = 2; i <= n; i++) {
+            Object other = ls.testUdata(i, TNAME);
+            if (other != null) {
+                b.append((LuaBuffer) other);
+            } else {
+                b.append(ls.checkString(i));
+            }
+        }
+        ls.setTop(1);
+        return 1;
+    }
+
+    /**
+     * buf:putf (formatstring, ···)
+     * 按 string.format 的规则格式化后追加，返回缓冲区本身。
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufPutf(LuaState ls) {
+        LuaBuffer b = checkBuffer(ls);
+        String fmtStr = ls.checkString(2);
+        LuaFormat.compile(fmtStr).format(ls, 2, b);
+        ls.setTop(1);
+        return 1;
+    }
+
+    /**
+     * buf:tostring ()
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufToString(LuaState ls) {
+        ls.pushResult(checkBuffer(ls));
+        return 1;
+    }
+
+    /**
+     * buf:len ()
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufLen(LuaState ls) {
+        ls.pushInteger(checkBuffer(ls).length());
+        return 1;
+    }
+
+    /**
+     * buf:reset ()
+     * 清空内容，保留已分配的空间，返回缓冲区本身。
+     *
+     * @param ls
+     * @return
+     */
+    private static int bufReset(LuaState ls) {
+        checkBuffer(ls).setLength(0);
+        ls.setTop(1);
+        return 1;
+    }
+
+    private static LuaBuffer checkBuffer(LuaState ls) {
+        return (LuaBuffer) ls.checkUdata(1, TNAME);
+    }
+
+}
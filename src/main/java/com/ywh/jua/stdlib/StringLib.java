@@ -2,13 +2,14 @@ package com.ywh.jua.stdlib;
 
 import com.ywh.jua.api.JavaFunction;
 import com.ywh.jua.api.LuaState;
+import com.ywh.jua.api.LuaType;
+import com.ywh.jua.string.LuaBuffer;
+import com.ywh.jua.string.LuaString;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import static com.ywh.jua.api.LuaType.*;
 
 /**
  * 字符串库
@@ -18,10 +19,13 @@ import java.util.regex.Pattern;
  */
 public class StringLib {
 
-    private static final Pattern TAG_PATTERN = Pattern.compile("%[ #+-0]?[0-9]*(\\.[0-9]+)?[cdeEfgGioqsuxX%]");
-
     private static final Map<String, JavaFunction> STRING_FUNCS = new HashMap<>();
 
+    /**
+     * 字符串的最大长度
+     */
+    private static final long MAX_STRING_SIZE = Integer.MAX_VALUE - 8;
+
     static {
         STRING_FUNCS.put("len", StringLib::strLen);
         STRING_FUNCS.put("rep", StringLib::strRep);
@@ -102,16 +106,22 @@ public class StringLib {
         String s = ls.checkString(1);
         long n = ls.checkInteger(2);
         String sep = ls.optString(3, "");
-        if (n <= 0) {
+        long unit = (long) s.length() + sep.length();
+        if (n <= 0 || unit == 0) {
             ls.pushString("");
         } else if (n == 1) {
             ls.pushString(s);
         } else {
-            String[] arr = new String[(int) n];
-            for (int i = 0; i < (int) n; i++) {
-                arr[i] = s;
+            if (unit > MAX_STRING_SIZE / n) {
+                return ls.error2("resulting string too large");
             }
-            ls.pushString(String.join(sep, arr));
+            // 一次分配足够的空间，逐段复制，不产生中间字符串
+            LuaBuffer b = new LuaBuffer((int) (unit * n - sep.length()));
+            b.append(s);
+            for (long i = 1; i < n; i++) {
+                b.append(sep).append(s);
+            }
+            ls.pushResult(b);
         }
         return 1;
     }
@@ -142,7 +152,7 @@ public class StringLib {
      */
     private static int strLower(LuaState ls) {
         String s = ls.checkString(1);
-        ls.pushString(s.toLowerCase());
+        ls.pushString(LuaString.toLowerCase(s));
         return 1;
     }
 
@@ -156,7 +166,7 @@ public class StringLib {
      */
     private static int strUpper(LuaState ls) {
         String s = ls.checkString(1);
-        ls.pushString(s.toUpperCase());
+        ls.pushString(LuaString.toUpperCase(s));
         return 1;
     }
 
@@ -179,7 +189,7 @@ public class StringLib {
             j = s.length();
         }
         if (i <= j) {
-            ls.pushString(s.substring((int) i, (int) j));
+            ls.pushString(s.substring((int) i - 1, (int) j));
         } else {
             ls.pushString("");
         }
@@ -210,7 +220,7 @@ public class StringLib {
         long n = j - i + 1;
         ls.checkStack2((int) n, "string slice too long");
         for (int k = 0; k < n; k++) {
-            ls.pushInteger(s.charAt((int) (i + k - 1)) - '0');
+            ls.pushInteger(s.charAt((int) (i + k - 1)));
         }
         return (int) n;
     }
@@ -225,13 +235,13 @@ public class StringLib {
      */
     private static int strChar(LuaState ls) {
         int nArgs = ls.getTop();
-        String[] s = new String[nArgs];
+        char[] s = new char[nArgs];
         for (int i = 1; i <= nArgs; i++) {
             long c = ls.checkInteger(i);
-            ls.argCheck(c <= (long) Integer.MAX_VALUE, i, "value out of range");
-            s[i - 1] = String.valueOf(c);
+            ls.argCheck(c >= 0 && c <= 0xFF, i, "value out of range");
+            s[i - 1] = (char) c;
         }
-        ls.pushString(String.join("", s));
+        ls.pushString(new String(s));
         return 1;
     }
 
@@ -244,8 +254,15 @@ public class StringLib {
      * @return
      */
     private static int strDump(LuaState ls) {
-        // TODO
-        return 0;
+        boolean strip = ls.toBoolean(2);
+        ls.checkType(1, LUA_TFUNCTION);
+        ls.setTop(1);
+        byte[] chunk = ls.dump(strip);
+        if (chunk == null) {
+            return ls.error2("unable to dump given function");
+        }
+        ls.pushString(LuaString.valueOf(chunk));
+        return 1;
     }
 
     /**
@@ -298,234 +315,276 @@ public class StringLib {
      */
     private static int strFormat(LuaState ls) {
         String fmtStr = ls.checkString(1);
-        if (fmtStr.length() <= 1 || !fmtStr.contains("%")) {
+        if (fmtStr.indexOf('%') < 0) {
             ls.pushString(fmtStr);
             return 1;
         }
-        int argIdx = 1;
-        String[] arr = parseFmtStr(fmtStr);
-        for (int i = 0; i < arr.length; i++) {
-            String s = arr[i];
-            if (s.charAt(0) == '%') {
-                if ("%%".equals(s)) {
-                    arr[i] = "%";
-                } else {
-                    argIdx += 1;
-                    arr[i] = fmtArg(s, ls, argIdx);
-                }
-            }
-        }
-        ls.pushString(String.join("", arr));
+        LuaFormat fmt = LuaFormat.compile(fmtStr);
+        LuaBuffer b = new LuaBuffer(fmt.sizeHint());
+        fmt.format(ls, 1, b);
+        ls.pushResult(b);
         return 1;
     }
 
     /**
      * string.find (s, pattern [, init [, plain]])
      * http://www.lua.org/manual/5.3/manual.html#pdf-string.find
+     * lua-5.3.4/src/lstrlib.c#str_find()
      *
      * @param ls
      * @return
      */
     private static int strFind(LuaState ls) {
-        String s = ls.checkString(1);
-        String pattern = ls.checkString(2);
-        long init = posRelat(ls.optInteger(3, 1), s.length());
-        if (init < 1) {
-            init = 1;
-        } else if (init > s.length() + 1) {
-            ls.pushNil();
-            return 1;
-        }
-        boolean plain = ls.toBoolean(4);
-        int start, end;
-        String tail = s;
-        if (init > 1) {
-            tail = s.substring((int) init - 1);
-        }
-
-        if (plain) {
-            start = tail.indexOf(pattern);
-            end = start + pattern.length() - 1;
-        } else {
-            Pattern re = Pattern.compile(pattern);
-            Matcher matcher = re.matcher(tail);
-            if (!matcher.find()) {
-                start = end = -1;
-            } else {
-                start = matcher.start();
-                // TODO ?
-                end = start + tail.length() - 1 - 1;
-            }
-        }
-        if (start >= 0) {
-            start += s.length() - tail.length() + 1;
-            end += s.length() - tail.length() + 1;
-        }
-        if (start < 0) {
-            ls.pushNil();
-            return 1;
-        }
-        ls.pushInteger(start);
-        ls.pushInteger(end);
-        return 1;
+        return strFindAux(ls, true);
     }
 
     /**
      * string.match (s, pattern [, init])
      * http://www.lua.org/manual/5.3/manual.html#pdf-string.match
+     * lua-5.3.4/src/lstrlib.c#str_match()
      *
      * @param ls
      * @return
      */
     private static int strMatch(LuaState ls) {
-        String s = ls.checkString(1);
-        String pattern = ls.checkString(2);
-        long init = posRelat(ls.optInteger(3, 1), s.length());
-        if (init < 1) {
-            init = 1;
-        } else if (init > s.length() + 1) {
-            ls.pushNil();
-            return 1;
-        }
-        int[] captures = match(s, pattern, (int) init);
-        if (captures == null) {
-            ls.pushNil();
-            return 1;
-        } else {
-            for (int i = 0; i < captures.length; i += 2) {
-                String capture = s.substring(captures[i], captures[i + 1]);
-                ls.pushString(capture);
-            }
-            return captures.length / 2;
-        }
+        return strFindAux(ls, false);
     }
 
     /**
      * string.gsub (s, pattern, repl [, n])
      * http://www.lua.org/manual/5.3/manual.html#pdf-string.gsub
+     * lua-5.3.4/src/lstrlib.c#str_gsub()
      *
      * @param ls
      * @return
      */
     private static int strGsub(LuaState ls) {
         String s = ls.checkString(1);
-        String pattern = ls.checkString(2);
-        String repl = ls.checkString(3);
-        long n = ls.optInteger(4, -1);
-        // TODO
+        String p = ls.checkString(2);
+        LuaType tr = ls.type(3);
+        ls.argCheck(tr == LUA_TNUMBER || tr == LUA_TSTRING || tr == LUA_TFUNCTION || tr == LUA_TTABLE, 3,
+            "string/function/table expected");
+        String repl = tr == LUA_TNUMBER || tr == LUA_TSTRING ? ls.toString(3) : null;
+        long maxN = ls.optInteger(4, s.length() + 1);
+        LuaPattern pattern = LuaPattern.compile(p);
+        LuaPattern.Matcher m = pattern.matcher(s);
+        StringBuilder b = new StringBuilder(s.length());
+        int src = 0;
+        int lastMatch = -1;
+        long n = 0;
+        while (n < maxN) {
+            int e = m.match(src);
+            if (e != -1 && e != lastMatch) {
+                n++;
+                if (repl != null) {
+                    addString(ls, b, m, src, e, repl);
+                } else {
+                    addValue(ls, b, m, src, e, tr);
+                }
+                src = lastMatch = e;
+            } else if (src < s.length()) {
+                b.append(s.charAt(src++));
+            } else {
+                break;
+            }
+            if (pattern.anchor) {
+                break;
+            }
+        }
+        b.append(s, src, s.length());
+        ls.pushString(b.toString());
+        ls.pushInteger(n);
         return 2;
     }
 
     /**
+     * string.gmatch (s, pattern)
+     * http://www.lua.org/manual/5.3/manual.html#pdf-string.gmatch
+     * lua-5.3.4/src/lstrlib.c#gmatch()
      *
      * @param ls
      * @return
      */
     private static int strGmatch(LuaState ls) {
         String s = ls.checkString(1);
-        String pattern = ls.checkString(2);
-
-        // TODO
+        String p = ls.checkString(2);
+        // gmatch 中 ^ 不表示锚定
+        LuaPattern.Matcher m = LuaPattern.compile(p, false).matcher(s);
+        // 下一次开始查找的位置和上一次匹配的结束位置
+        int[] state = {0, -1};
+        ls.pushJavaFunction(l -> gmatchAux(l, m, state));
         return 1;
     }
 
     /**
-     * translate a relative string position: negative means back from end
+     * gmatch 返回的迭代器，每次调用从上次的位置继续查找
      *
-     * @param pos
-     * @param len
+     * @param ls
+     * @param m
+     * @param state
      * @return
      */
-    private static long posRelat(long pos, long len) {
-        if (pos >= 0) {
-            return pos;
-        } else if (-pos > len) {
-            return 0;
-        } else {
-            return len + pos + 1;
+    private static int gmatchAux(LuaState ls, LuaPattern.Matcher m, int[] state) {
+        for (int src = state[0]; src <= m.src.length(); src++) {
+            int e = m.match(src);
+            if (e != -1 && e != state[1]) {
+                state[0] = state[1] = e;
+                return pushCaptures(ls, m, src, e, true);
+            }
         }
+        state[0] = m.src.length() + 1;
+        return 0;
     }
 
     /**
+     * string.find 和 string.match 的公共部分
      *
-     * @param s
-     * @param pattern
-     * @param init
+     * @param ls
+     * @param find
      * @return
      */
-    private static int[] match(String s, String pattern, int init) {
-
-        // TODO
-        return null;
+    private static int strFindAux(LuaState ls, boolean find) {
+        String s = ls.checkString(1);
+        String p = ls.checkString(2);
+        long init = posRelat(ls.optInteger(3, 1), s.length());
+        if (init < 1) {
+            init = 1;
+        } else if (init > s.length() + 1) {
+            ls.pushNil();
+            return 1;
+        }
+        if (find && (ls.toBoolean(4) || LuaPattern.noSpecials(p))) {
+            // 普通字符串查找
+            int idx = s.indexOf(p, (int) init - 1);
+            if (idx >= 0) {
+                ls.pushInteger(idx + 1);
+                ls.pushInteger(idx + p.length());
+                return 2;
+            }
+        } else {
+            LuaPattern pattern = LuaPattern.compile(p);
+            LuaPattern.Matcher m = pattern.matcher(s);
+            int src = (int) init - 1;
+            do {
+                int e = m.match(src);
+                if (e != -1) {
+                    if (find) {
+                        ls.pushInteger(src + 1);
+                        ls.pushInteger(e);
+                        return pushCaptures(ls, m, src, e, false) + 2;
+                    }
+                    return pushCaptures(ls, m, src, e, true);
+                }
+            } while (src++ < s.length() && !pattern.anchor);
+        }
+        ls.pushNil();
+        return 1;
     }
 
     /**
-     * @param tag
+     * 压入捕获
+     *
      * @param ls
-     * @param argIdx
-     * @return
+     * @param m
+     * @param s         匹配的起始位置
+     * @param e         匹配的结束位置
+     * @param wholeIfNone 没有捕获时是否压入整个匹配
+     * @return 压入的值的个数
      */
-    private static String fmtArg(String tag, LuaState ls, int argIdx) {
-        switch (tag.charAt(tag.length() - 1)) { // specifier
-            case 'c': // character
-                return String.valueOf(ls.toInteger(argIdx));
-            case 'i':
-                // %i -> %d
-                tag = tag.substring(0, tag.length() - 1) + "d";
-                return String.format(tag, ls.toInteger(argIdx));
-            case 'd':
-            case 'o':
-                // integer, octal
-                return String.format(tag, ls.toInteger(argIdx));
-            case 'u':
-                // unsigned integer
-                // %u -> %d
-                tag = tag.substring(0, tag.length() - 1) + "d";
-                return String.format(tag, ls.toInteger(argIdx));
-            case 'x':
-            case 'X':
-                // hex integer
-                return String.format(tag, ls.toInteger(argIdx));
-            case 'f':
-                // float
-                return String.format(tag, ls.toNumber(argIdx));
-            case 's':
-            case 'q':
-                // string
-                return String.format(tag, ls.toString2(argIdx));
-            default:
-                return null;
+    private static int pushCaptures(LuaState ls, LuaPattern.Matcher m, int s, int e, boolean wholeIfNone) {
+        int nLevels = m.level == 0 && wholeIfNone ? 1 : m.level;
+        ls.checkStack2(nLevels, "too many captures");
+        for (int i = 0; i < nLevels; i++) {
+            pushCapture(ls, m, i, s, e);
         }
+        return nLevels;
     }
 
-    private static String[] parseFmtStr(String fmt) {
-        if ("".equals(fmt) || !fmt.contains("%")) {
-            return new String[]{fmt};
+    private static void pushCapture(LuaState ls, LuaPattern.Matcher m, int i, int s, int e) {
+        Object cap = m.capture(i, s, e);
+        if (cap instanceof Long) {
+            ls.pushInteger((Long) cap);
+        } else {
+            ls.pushString((String) cap);
         }
-//        String[] parsed = new String[fmt.length() / 2];
-        List<String> parsed = new ArrayList<>();
-        while (true) {
-            if ("".equals(fmt)) {
-                break;
-            }
-            Matcher matcher = TAG_PATTERN.matcher(fmt);
-            if (!matcher.find()) {
-                parsed.add(fmt);
-                break;
+    }
+
+    /**
+     * 把替换串追加到缓冲区，%0 ~ %9 替换为捕获，%% 替换为 %
+     *
+     * @param ls
+     * @param b
+     * @param m
+     * @param s
+     * @param e
+     * @param repl
+     */
+    private static void addString(LuaState ls, StringBuilder b, LuaPattern.Matcher m, int s, int e, String repl) {
+        int l = repl.length();
+        for (int i = 0; i < l; i++) {
+            char c = repl.charAt(i);
+            if (c != '%') {
+                b.append(c);
+                continue;
             }
-            int start = matcher.start();
-            int end = start + fmt.length() - 1;
-            String head = fmt.substring(0, start);
-            String tag = fmt.substring(start, end);
-            String tail = fmt.substring(end);
-            if (!"".equals(head)) {
-                parsed.add(head);
+            i++;
+            char d = i < l ? repl.charAt(i) : '\0';
+            if (d == '%') {
+                b.append('%');
+            } else if (d == '0') {
+                b.append(m.src, s, e);
+            } else if (d >= '1' && d <= '9') {
+                m.appendCapture(b, d - '1', s, e);
+            } else {
+                ls.error2("invalid use of '%%' in replacement string");
             }
-            parsed.add(tag);
-            fmt = tail;
         }
-        String[] ret = new String[fmt.length() / 2];
-        parsed.toArray(ret);
-        return ret;
     }
-}
\ No newline at end of file
+
+    /**
+     * 把函数或表给出的替换值追加到缓冲区：值为 false 或 nil 时保留原匹配
+     *
+     * @param ls
+     * @param b
+     * @param m
+     * @param s
+     * @param e
+     * @param tr 替换值的类型
+     */
+    private static void addValue(LuaState ls, StringBuilder b, LuaPattern.Matcher m, int s, int e, LuaType tr) {
+        if (tr == LUA_TFUNCTION) {
+            ls.pushValue(3);
+            int n = pushCaptures(ls, m, s, e, true);
+            ls.call(n, 1);
+        } else {
+            // 第一个捕获作为键
+            pushCapture(ls, m, 0, s, e);
+            ls.getTable(3);
+        }
+        if (!ls.toBoolean(-1)) {
+            b.append(m.src, s, e);
+        } else if (!ls.isString(-1)) {
+            ls.error2("invalid replacement value (a %s)", ls.typeName2(-1));
+        } else {
+            b.append(ls.toString(-1));
+        }
+        ls.pop(1);
+    }
+
+    /**
+     * translate a relative string position: negative means back from end
+     *
+     * @param pos
+     * @param len
+     * @return
+     */
+    private static long posRelat(long pos, long len) {
+        if (pos >= 0) {
+            return pos;
+        } else if (-pos > len) {
+            return 0;
+        } else {
+            return len + pos + 1;
+        }
+    }
+}
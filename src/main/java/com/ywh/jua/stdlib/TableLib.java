@@ -2,16 +2,24 @@ package com.ywh.jua.stdlib;
 
 import com.ywh.jua.api.JavaFunction;
 import com.ywh.jua.api.LuaState;
-import com.ywh.jua.api.LuaType;
-import com.ywh.jua.state.LuaStateImpl;
+import com.ywh.jua.string.LuaBuffer;
 
 import java.util.HashMap;
 import java.util.Map;
 
+import static com.ywh.jua.api.CmpOp.LUA_OPEQ;
+import static com.ywh.jua.api.LuaType.LUA_TFUNCTION;
+import static com.ywh.jua.api.LuaType.LUA_TNIL;
 import static com.ywh.jua.api.LuaType.LUA_TTABLE;
+import static com.ywh.jua.constant.MetaConstant.INDEX;
+import static com.ywh.jua.constant.MetaConstant.NEWINDEX;
 
 /**
- * 字符串库
+ * 表库
+ * 表没有 __index、__newindex、__len 元方法时，直接批量操作表的数组部分（System.arraycopy、预留空间的缓冲区、连续入栈、原地排序），
+ * 否则与 Lua 一样逐个元素通过 geti/seti 访问，遵循元方法。
+ *
+ * lua-5.3.4/src/ltablib.c
  *
  * @author ywh
  * @since 27/08/2020
@@ -41,12 +49,303 @@ public class TableLib {
     private static final Map<String, JavaFunction> TABLE_FUNCS = new HashMap<>();
 
     static {
-        TABLE_FUNCS.put("move", null);
-        TABLE_FUNCS.put("insert", null);
-        TABLE_FUNCS.put("remove", null);
-        TABLE_FUNCS.put("sort", null);
-        TABLE_FUNCS.put("concat", null);
-        TABLE_FUNCS.put("pack", null);
-        TABLE_FUNCS.put("unpack", null);
+        TABLE_FUNCS.put("move", TableLib::tabMove);
+        TABLE_FUNCS.put("insert", TableLib::tabInsert);
+        TABLE_FUNCS.put("remove", TableLib::tabRemove);
+        TABLE_FUNCS.put("sort", TableLib::tabSort);
+        TABLE_FUNCS.put("concat", TableLib::tabConcat);
+        TABLE_FUNCS.put("pack", TableLib::tabPack);
+        TABLE_FUNCS.put("unpack", TableLib::tabUnpack);
+    }
+
+    public static int openTableLib(LuaState ls) {
+        ls.newLib(TABLE_FUNCS);
+        return 1;
+    }
+
+    /**
+     * table.move (a1, f, e, t [,a2])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.move
+     * lua-5.3.4/src/ltablib.c#tmove()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabMove(LuaState ls) {
+        long f = ls.checkInteger(2);
+        long e = ls.checkInteger(3);
+        long t = ls.checkInteger(4);
+        /* destination table */
+        int tt = !ls.isNoneOrNil(5) ? 5 : 1;
+        checkTab(ls, 1, TAB_R);
+        checkTab(ls, tt, TAB_W);
+        if (e >= f) {
+            ls.argCheck(f > 0 || e < Long.MAX_VALUE + f, 3, "too many elements to move");
+            long n = e - f + 1;
+            ls.argCheck(t <= Long.MAX_VALUE - n + 1, 4, "destination wrap around");
+            int srcLen = ls.arrayLength(1);
+            int dstLen = ls.arrayLength(tt);
+            if (srcLen < 0 || dstLen < 0 || f < 1 || e > srcLen || t < 1 || t > dstLen + 1
+                || !ls.arrayMove(1, (int) f, (int) e, (int) t, tt)) {
+                if (t > e || t <= f || (tt != 1 && !ls.compare(1, tt, LUA_OPEQ))) {
+                    for (long i = 0; i < n; i++) {
+                        ls.getI(1, f + i);
+                        ls.setI(tt, t + i);
+                    }
+                } else {
+                    for (long i = n - 1; i >= 0; i--) {
+                        ls.getI(1, f + i);
+                        ls.setI(tt, t + i);
+                    }
+                }
+            }
+        }
+        /* return destination table */
+        ls.pushValue(tt);
+        return 1;
+    }
+
+    /**
+     * table.insert (list, [pos,] value)
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.insert
+     * lua-5.3.4/src/ltablib.c#tinsert()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabInsert(LuaState ls) {
+        /* first empty element */
+        long e = auxGetN(ls, 1, TAB_RW) + 1;
+        long pos;
+        switch (ls.getTop()) {
+            case 2:
+                /* insert new element at the end */
+                pos = e;
+                break;
+            case 3:
+                pos = ls.checkInteger(2);
+                /* check whether 'pos' is in [1, e] */
+                ls.argCheck(pos >= 1 && pos <= e, 2, "position out of bounds");
+                if (ls.arrayLength(1) == e - 1) {
+                    ls.arrayInsert(1, (int) pos);
+                    return 0;
+                }
+                /* move up elements */
+                for (long i = e; i > pos; i--) {
+                    ls.getI(1, i - 1);
+                    /* t[i] = t[i - 1] */
+                    ls.setI(1, i);
+                }
+                break;
+            default:
+                return ls.error2("wrong number of arguments to 'insert'");
+        }
+        /* t[pos] = v */
+        ls.setI(1, pos);
+        return 0;
+    }
+
+    /**
+     * table.remove (list [, pos])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.remove
+     * lua-5.3.4/src/ltablib.c#tremove()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabRemove(LuaState ls) {
+        long size = auxGetN(ls, 1, TAB_RW);
+        long pos = ls.optInteger(2, size);
+        /* validate 'pos' if given */
+        if (pos != size) {
+            ls.argCheck(pos >= 1 && pos <= size + 1, 1, "position out of bounds");
+        }
+        if (pos >= 1 && pos <= size && ls.arrayLength(1) == size) {
+            ls.arrayRemove(1, (int) pos);
+            return 1;
+        }
+        /* result = t[pos] */
+        ls.getI(1, pos);
+        for (; pos < size; pos++) {
+            ls.getI(1, pos + 1);
+            /* t[pos] = t[pos + 1] */
+            ls.setI(1, pos);
+        }
+        ls.pushNil();
+        /* t[pos] = nil */
+        ls.setI(1, pos);
+        return 1;
+    }
+
+    /**
+     * table.sort (list [, comp])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.sort
+     * lua-5.3.4/src/ltablib.c#sort()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabSort(LuaState ls) {
+        long n = auxGetN(ls, 1, TAB_RW);
+        /* non-trivial interval? */
+        if (n > 1) {
+            ls.argCheck(n < Integer.MAX_VALUE, 1, "array too big");
+            /* is there a 2nd argument? */
+            if (!ls.isNoneOrNil(2)) {
+                /* must be a function */
+                ls.checkType(2, LUA_TFUNCTION);
+            }
+            ls.sortTable(1, (int) n, ls.isNoneOrNil(2) ? 0 : 2);
+        }
+        return 0;
+    }
+
+    /**
+     * table.concat (list [, sep [, i [, j]]])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.concat
+     * lua-5.3.4/src/ltablib.c#tconcat()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabConcat(LuaState ls) {
+        long last = auxGetN(ls, 1, TAB_R);
+        String sep = ls.optString(2, "");
+        long i = ls.optInteger(3, 1);
+        last = ls.optInteger(4, last);
+        LuaBuffer b = ls.buffInit();
+        int len = ls.arrayLength(1);
+        if (len >= 0 && i >= 1 && last <= len) {
+            if (i <= last) {
+                int bad = ls.arrayConcat(1, sep, (int) i, (int) last, b);
+                if (bad != 0) {
+                    return ls.error2("invalid value (at index %d) in table for 'concat'", bad);
+                }
+            }
+            ls.pushResult(b);
+            return 1;
+        }
+        for (; i < last; i++) {
+            addField(ls, b, i);
+            b.append(sep);
+        }
+        /* add last value (if interval was not empty) */
+        if (i == last) {
+            addField(ls, b, i);
+        }
+        ls.pushResult(b);
+        return 1;
+    }
+
+    /**
+     * table.pack (···)
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.pack
+     * lua-5.3.4/src/ltablib.c#pack()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabPack(LuaState ls) {
+        /* number of elements to pack */
+        int n = ls.getTop();
+        /* create result table */
+        ls.createTable(n, 1);
+        /* put it at index 1 */
+        ls.insert(1);
+        // 按下标从小到大赋值，元素直接追加到数组部分
+        for (int i = 1; i <= n; i++) {
+            ls.pushValue(i + 1);
+            ls.rawSetI(1, i);
+        }
+        ls.setTop(1);
+        ls.pushInteger(n);
+        /* t.n = number of elements */
+        ls.setField(1, "n");
+        /* return table */
+        return 1;
+    }
+
+    /**
+     * table.unpack (list [, i [, j]])
+     * http://www.lua.org/manual/5.3/manual.html#pdf-table.unpack
+     * lua-5.3.4/src/ltablib.c#unpack()
+     *
+     * @param ls
+     * @return
+     */
+    private static int tabUnpack(LuaState ls) {
+        long i = ls.optInteger(2, 1);
+        long e = ls.isNoneOrNil(3) ? ls.len2(1) : ls.checkInteger(3);
+        /* empty range */
+        if (i > e) {
+            return 0;
+        }
+        /* number of elements minus 1 (avoid overflows) */
+        long n = e - i;
+        if (n >= Integer.MAX_VALUE || !ls.checkStack((int) ++n)) {
+            return ls.error2("too many results to unpack");
+        }
+        if (i >= 1 && e <= ls.arrayLength(1)) {
+            ls.arrayPush(1, (int) i, (int) e);
+            return (int) n;
+        }
+        /* push arg[i..e - 1] (to avoid overflows) */
+        for (; i < e; i++) {
+            ls.getI(1, i);
+        }
+        ls.getI(1, e);
+        return (int) n;
+    }
+
+    /**
+     * 取表的长度（遵循 __len）
+     *
+     * @param ls
+     * @param n
+     * @param w
+     * @return
+     */
+    private static long auxGetN(LuaState ls, int n, int w) {
+        checkTab(ls, n, w | TAB_L);
+        return ls.len2(n);
+    }
+
+    /**
+     * 检查参数是否表，或者带有所需元方法（__index、__newindex、__len）的值
+     *
+     * @param ls
+     * @param arg
+     * @param what
+     */
+    private static void checkTab(LuaState ls, int arg, int what) {
+        if (ls.type(arg) == LUA_TTABLE) {
+            return;
+        }
+        int n = 1;
+        /* must have metatable with necessary metamethods */
+        if (ls.getMetatable(arg)
+            && ((what & TAB_R) == 0 || checkField(ls, INDEX, ++n))
+            && ((what & TAB_W) == 0 || checkField(ls, NEWINDEX, ++n))
+            && ((what & TAB_L) == 0 || checkField(ls, "__len", ++n))) {
+            /* pop metatable and tested metamethods */
+            ls.pop(n);
+        } else {
+            /* force an error */
+            ls.checkType(arg, LUA_TTABLE);
+        }
     }
+
+    private static boolean checkField(LuaState ls, String key, int n) {
+        ls.pushString(key);
+        return ls.rawGet(-n) != LUA_TNIL;
+    }
+
+    private static void addField(LuaState ls, LuaBuffer b, long i) {
+        ls.getI(1, i);
+        if (!ls.isString(-1)) {
+            ls.error2("invalid value (at index %d) in table for 'concat'", i);
+        }
+        ls.addValue(b);
+    }
+
 }
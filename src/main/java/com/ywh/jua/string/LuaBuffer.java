@@ -0,0 +1,162 @@
+package com.ywh.jua.string;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 字节缓冲区，相当于 luaL_Buffer
+ * 按字节保存（每个 char 取低 8 位），追加时直接复制进可增长的 byte[]，不产生中间字符串；
+ * 结果可以一次性转成 String，也可以原样写到输出流。
+ *
+ * lua-5.3.4/src/lauxlib.c#luaL_Buffer
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public final class LuaBuffer {
+
+    /**
+     * 最大长度，与 String 的上限保持一致
+     */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    private byte[] buf;
+
+    private int count;
+
+    public LuaBuffer() {
+        this(16);
+    }
+
+    public LuaBuffer(int capacity) {
+        buf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * 追加一个字节
+     *
+     * @param c
+     * @return
+     */
+    public LuaBuffer append(char c) {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * 追加字符串
+     *
+     * @param s
+     * @return
+     */
+    public LuaBuffer append(String s) {
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * 追加字符串的 [start, end) 部分
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return
+     */
+    @SuppressWarnings("deprecation")
+    public LuaBuffer append(String s, int start, int end) {
+        int len = end - start;
+        ensureCapacity(len);
+        // 只取每个 char 的低 8 位，正是字节串的约定
+        s.getBytes(start, end, buf, count);
+        count += len;
+        return this;
+    }
+
+    /**
+     * 追加另一个缓冲区的内容
+     *
+     * @param other
+     * @return
+     */
+    public LuaBuffer append(LuaBuffer other) {
+        ensureCapacity(other.count);
+        System.arraycopy(other.buf, 0, buf, count, other.count);
+        count += other.count;
+        return this;
+    }
+
+    /**
+     * 从 src 的当前位置读取 len 个字节追加（src 的位置随之前移）
+     *
+     * @param src
+     * @param len
+     * @return
+     */
+    public LuaBuffer append(ByteBuffer src, int len) {
+        ensureCapacity(len);
+        src.get(buf, count, len);
+        count += len;
+        return this;
+    }
+
+    public LuaBuffer append(long v) {
+        return append(Long.toString(v));
+    }
+
+    public int length() {
+        return count;
+    }
+
+    /**
+     * 截断或清空（不释放空间，便于复用）
+     *
+     * @param length
+     */
+    public void setLength(int length) {
+        if (length < 0 || length > count) {
+            throw new IndexOutOfBoundsException("length " + length);
+        }
+        count = length;
+    }
+
+    public char charAt(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("index " + i);
+        }
+        return (char) (buf[i] & 0xFF);
+    }
+
+    /**
+     * 原样写出全部字节
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * 确保还能再写入 extra 个字节，不够时至少翻倍扩容
+     *
+     * @param extra
+     */
+    public void ensureCapacity(int extra) {
+        if (extra <= buf.length - count) {
+            return;
+        }
+        if (extra > MAX_LENGTH - count) {
+            throw new RuntimeException("buffer too large");
+        }
+        int newCapacity = (int) Math.min(Math.max((long) buf.length * 2, (long) count + extra), MAX_LENGTH);
+        buf = Arrays.copyOf(buf, newCapacity);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, LuaString.CHARSET);
+    }
+
+}
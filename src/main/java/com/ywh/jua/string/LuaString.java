@@ -0,0 +1,119 @@
+package com.ywh.jua.string;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lua 字符串（字节串）处理
+ * 与字节相互转换统一使用 ISO-8859-1，每个 char 对应一个字节。
+ * 这里只有转换函数，Lua 字符串的值仍是 java.lang.String，没有基于 byte[] 的字符串类型（见 package-info）。
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class LuaString {
+
+    /**
+     * 字节与 char 一一对应的字符集
+     */
+    public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    /**
+     * 短字符串的最大长度，只有短字符串会被驻留（与 LUAI_MAXSHORTLEN 一致）
+     */
+    public static final int MAX_SHORT_LEN = 40;
+
+    /**
+     * 字节数组转字符串
+     *
+     * @param bytes
+     * @return
+     */
+    public static String valueOf(byte[] bytes) {
+        return new String(bytes, CHARSET);
+    }
+
+    public static String valueOf(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, CHARSET);
+    }
+
+    /**
+     * 字符串转字节数组
+     *
+     * @param s
+     * @return
+     */
+    public static byte[] getBytes(String s) {
+        return s.getBytes(CHARSET);
+    }
+
+    /**
+     * 驻留短字符串
+     * 使用 JVM 的字符串常量池（进程级、弱引用，不再使用的字符串可以被回收），
+     * 相同内容的短字符串驻留后是同一个对象，比较和查表时 equals 在引用相等时立即返回。
+     *
+     * @param s
+     * @return 驻留的实例；长字符串原样返回
+     */
+    public static String intern(String s) {
+        return s.length() <= MAX_SHORT_LEN ? s.intern() : s;
+    }
+
+    /**
+     * 追加码点的 UTF-8 编码（每个字节一个 char），与 Lua 一样支持到 0x7FFFFFFF
+     * lua-5.3.4/src/lobject.c#luaO_utf8esc()
+     *
+     * @param sb
+     * @param x
+     */
+    public static void appendUtf8(StringBuilder sb, long x) {
+        if (x < 0x80) {
+            sb.append((char) x);
+            return;
+        }
+        char[] buf = new char[6];
+        int n = buf.length;
+        // 首字节能容纳的最大值
+        int mfb = 0x3f;
+        do {
+            buf[--n] = (char) (0x80 | (x & 0x3f));
+            x >>>= 6;
+            mfb >>>= 1;
+        } while (x > mfb);
+        buf[--n] = (char) ((~mfb << 1 | x) & 0xFF);
+        sb.append(buf, n, buf.length - n);
+    }
+
+    /**
+     * 转小写（C 语言区域设置，只转换 ASCII 字母）
+     *
+     * @param s
+     * @return
+     */
+    public static String toLowerCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 转大写（C 语言区域设置，只转换 ASCII 字母）
+     *
+     * @param s
+     * @return
+     */
+    public static String toUpperCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'a' && chars[i] <= 'z') {
+                chars[i] -= 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.ywh.jua.string;
+
+// Lua 字符串是字节串，可以包含任意字节（包括 \0），长度是字节数，不关心编码。
+// Jua 仍然用 java.lang.String 表示 Lua 字符串，但约定每个 char 只保存一个字节（0 ~ 255），
+// 即字符串总是按 ISO-8859-1 与字节相互转换：
+//      源码、二进制 chunk、文件内容读入时逐字节转换为 char，输出时逐 char 写回字节，UTF-8 文本原样往返；
+//      string.byte、string.char、#、string.sub 等按字节工作；
+//      这只保证了正确性，没有达到字节串实现的内存和复制目标：
+//      项目以 Java 8 为目标，Java 8 的 String 内部是 char[]，每个字节占两个字节的内存（JDK 9 及以上的紧凑存储才是 byte[]）；
+//      string.sub 等截取操作总是复制出新的字符串，不共享原字符串的存储；与字节数组相互转换时也都要复制。
+//      哈希值由 String 自身缓存。
+// 基于 byte[]（偏移、长度、缓存的哈希值）、支持零拷贝截取的字符串类型没有实现：
+// 它要替换栈、表、常量、API 和全部标准库中的字符串表示，不是这里的转换约定能覆盖的范围。
@@ -1041,8 +1041,10 @@ public class Instructions {
 
         // 键索引（需要放入栈顶）
         int c = Instruction.getC(i);
-        vm.getRk(c);
-        vm.getTable(luaUpvalueIndex(b));
+        if (!vm.getTabUpFast(b, c)) {
+            vm.getRk(c);
+            vm.getTable(luaUpvalueIndex(b));
+        }
         vm.replace(a);
     }
 
@@ -1060,6 +1062,9 @@ public class Instructions {
         int a = Instruction.getA(i) + 1;
         int b = Instruction.getB(i);
         int c = Instruction.getC(i);
+        if (vm.setTabUpFast(a, b, c)) {
+            return;
+        }
         vm.getRk(b);
         vm.getRk(c);
         vm.setTable(luaUpvalueIndex(a));
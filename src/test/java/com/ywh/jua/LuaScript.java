@@ -0,0 +1,109 @@
+package com.ywh.jua;
+
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.state.LuaStateImpl;
+import com.ywh.jua.string.LuaString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.ywh.jua.api.LuaState.LUA_MULTRET;
+import static com.ywh.jua.api.ThreadStatus.LUA_OK;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 测试用：在新的 LuaState 中执行脚本
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public final class LuaScript {
+
+    /**
+     * 脚本第一行记录期望的返回值
+     */
+    private static final String EXPECT = "-- expect: ";
+
+    private LuaScript() {
+    }
+
+    /**
+     * 执行脚本，返回值按 tostring 转换后以 \t 连接
+     *
+     * @param chunk
+     * @return
+     */
+    public static String eval(String chunk) {
+        LuaState ls = new LuaStateImpl();
+        ls.openLibs();
+        return eval(ls, chunk);
+    }
+
+    /**
+     * 在指定的 LuaState 中执行脚本
+     *
+     * @param ls
+     * @param chunk
+     * @return
+     */
+    public static String eval(LuaState ls, String chunk) {
+        int base = ls.getTop();
+        assertEquals(LUA_OK, ls.load(LuaString.getBytes(chunk), "=test", "bt"));
+        ls.call(0, LUA_MULTRET);
+        StringBuilder sb = new StringBuilder();
+        for (int i = base + 1; i <= ls.getTop(); i++) {
+            if (i > base + 1) {
+                sb.append('\t');
+            }
+            sb.append(ls.toString2(i));
+            ls.pop(1);
+        }
+        ls.setTop(base);
+        return sb.toString();
+    }
+
+    /**
+     * 列出测试资源目录下的所有脚本
+     *
+     * @param dir
+     * @return
+     */
+    public static List<Path> list(String dir) {
+        try (Stream<Path> files = Files.list(Paths.get(LuaScript.class.getResource(dir).toURI()))) {
+            return files.filter(f -> f.toString().endsWith(".lua")).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String read(Path file) {
+        try {
+            return LuaString.valueOf(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 脚本第一行 "-- expect: " 之后的内容
+     *
+     * @param chunk
+     * @return
+     */
+    public static String expected(String chunk) {
+        if (!chunk.startsWith(EXPECT)) {
+            throw new IllegalArgumentException("missing " + EXPECT.trim());
+        }
+        return chunk.substring(EXPECT.length(), chunk.indexOf('\n'));
+    }
+
+}
@@ -1,10 +1,12 @@
 package com.ywh.jua.chunk;
 
+import com.ywh.jua.compiler.Compiler;
 import org.junit.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -42,4 +44,30 @@ public class BinaryChunkTest {
         assertEquals("Hello, World!", proto.getConstants()[1]);
         assertEquals("_ENV", proto.getUpvalueNames()[0]);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void dump() {
+        String chunk = "local a, b, c, d = nil, true, 1, 2.5\n" +
+            "local function f(x, ...) return x .. '" + new String(new char[64]).replace('\0', 's') + "', ... end\n" +
+            "print(f(a, b, c, d))";
+        Prototype proto = Compiler.compile(chunk, "@dump.lua");
+        byte[] data = BinaryChunk.dump(proto, false);
+        Prototype undumped = BinaryChunk.undump(data);
+
+        assertEquals("@dump.lua", undumped.getSource());
+        assertEquals("@dump.lua", undumped.getProtos()[0].getSource());
+        assertArrayEquals(proto.getCode(), undumped.getCode());
+        assertArrayEquals(proto.getConstants(), undumped.getConstants());
+        assertArrayEquals(proto.getLineInfo(), undumped.getLineInfo());
+        assertArrayEquals(proto.getUpvalueNames(), undumped.getUpvalueNames());
+        assertArrayEquals(proto.getProtos()[0].getCode(), undumped.getProtos()[0].getCode());
+        assertEquals(proto.getProtos()[0].getIsVararg(), undumped.getProtos()[0].getIsVararg());
+        assertArrayEquals(data, BinaryChunk.dump(undumped, false));
+
+        Prototype stripped = BinaryChunk.undump(BinaryChunk.dump(proto, true));
+        assertArrayEquals(proto.getCode(), stripped.getCode());
+        assertEquals(0, stripped.getLineInfo().length);
+        assertEquals(0, stripped.getLocVars().length);
+        assertEquals(0, stripped.getUpvalueNames().length);
+    }
+}
@@ -0,0 +1,99 @@
+package com.ywh.jua.compiler;
+
+import com.ywh.jua.chunk.Prototype;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ywh
+ * @since 2020/8/18 11:26
+ */
+public class ChunkCacheTest {
+
+    private static final byte[] CHUNK = "local t = {} for i = 1, 10 do t[i] = i * 2 end return t"
+        .getBytes(StandardCharsets.ISO_8859_1);
+
+    private Path dir;
+
+    @Before
+    public void enable() throws IOException {
+        dir = Files.createTempDirectory("jua-cache");
+        ChunkCache.setDirectory(dir);
+    }
+
+    @After
+    public void disable() throws IOException {
+        ChunkCache.setDirectory(null);
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void writeThenHit() throws IOException {
+        Prototype compiled = ChunkCache.compile(CHUNK, "@t.lua");
+        Path file = cacheFile();
+        long written = Files.getLastModifiedTime(file).toMillis();
+
+        Prototype cached = ChunkCache.compile(CHUNK, "@t.lua");
+        assertArrayEquals(compiled.getCode(), cached.getCode());
+        assertArrayEquals(compiled.getConstants(), cached.getConstants());
+        assertEquals(written, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    @Test
+    public void corruptFileIsRecompiled() throws IOException {
+        Prototype compiled = ChunkCache.compile(CHUNK, "@t.lua");
+        Path file = cacheFile();
+        byte[] data = Files.readAllBytes(file);
+        data[data.length - 1] ^= 1;
+        Files.write(file, data);
+
+        Prototype recompiled = ChunkCache.compile(CHUNK, "@t.lua");
+        assertArrayEquals(compiled.getCode(), recompiled.getCode());
+        assertTrue(Files.exists(cacheFile()));
+    }
+
+    @Test
+    public void keyDependsOnNameAndOptions() {
+        String key = ChunkCache.key(CHUNK, "@t.lua");
+        assertEquals(key, ChunkCache.key(CHUNK, "@t.lua"));
+        assertNotEquals(key, ChunkCache.key(CHUNK, "@u.lua"));
+        int level = Compiler.getOptLevel();
+        try {
+            Compiler.setOptLevel(level == 0 ? 1 : 0);
+            assertNotEquals(key, ChunkCache.key(CHUNK, "@t.lua"));
+        } finally {
+            Compiler.setOptLevel(level);
+        }
+        boolean lazy = Compiler.isLazy();
+        try {
+            Compiler.setLazy(!lazy);
+            assertNotEquals(key, ChunkCache.key(CHUNK, "@t.lua"));
+        } finally {
+            Compiler.setLazy(lazy);
+        }
+    }
+
+    private Path cacheFile() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            Path[] all = files.toArray(Path[]::new);
+            assertEquals(1, all.length);
+            return all[0];
+        }
+    }
+
+}
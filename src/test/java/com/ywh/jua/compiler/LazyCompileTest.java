@@ -0,0 +1,102 @@
+package com.ywh.jua.compiler;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.chunk.BinaryChunk;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.state.LuaStateImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class LazyCompileTest {
+
+    private static final String CHUNK = "local function f(x) return function() return x * 2 end end "
+        + "local g if os.time() < 0 then g = function() return 'never' end end "
+        + "return f(21)()";
+
+    private boolean lazy;
+
+    @Before
+    public void enable() {
+        lazy = Compiler.isLazy();
+        Compiler.setLazy(true);
+    }
+
+    @After
+    public void restore() {
+        Compiler.setLazy(lazy);
+    }
+
+    @Test
+    public void scriptsAgree() {
+        for (Path file : LuaScript.list("/opt")) {
+            String chunk = LuaScript.read(file);
+            assertEquals(file.toString(), LuaScript.expected(chunk), LuaScript.eval(chunk));
+        }
+    }
+
+    /**
+     * 嵌套函数在首次实例化时才生成函数体，从未实例化的函数不生成
+     */
+    @Test
+    public void bodiesDeferred() {
+        Prototype main = Compiler.compile(CHUNK, "=t");
+        assertTrue(main.isLoaded());
+        Prototype f = main.getProtos()[0];
+        Prototype g = main.getProtos()[1];
+        assertFalse(f.isLoaded());
+        assertFalse(g.isLoaded());
+
+        LuaState ls = new LuaStateImpl();
+        ls.openLibs();
+        ls.load(main);
+        ls.call(0, 1);
+        assertEquals(42, ls.toInteger(-1));
+        assertTrue(f.isLoaded());
+        assertEquals("=t", f.getProtos()[0].getSource());
+        assertFalse(g.isLoaded());
+    }
+
+    /**
+     * 序列化时生成全部函数体，结果与立即编译相同
+     */
+    @Test
+    public void dumpMatchesEager() {
+        byte[] lazyDump = BinaryChunk.dump(Compiler.compile(CHUNK, "=t"), false);
+        Compiler.setLazy(false);
+        byte[] eagerDump = BinaryChunk.dump(Compiler.compile(CHUNK, "=t"), false);
+        assertArrayEquals(eagerDump, lazyDump);
+    }
+
+    /**
+     * 函数体中的语法错误和 break、... 的误用仍在加载时报告
+     */
+    @Test
+    public void errorsAtLoadTime() {
+        for (String chunk : new String[]{
+            "local function f() return ( end",
+            "local function f() break end",
+            "local function f() return ... end"}) {
+            try {
+                Compiler.compile(chunk, "=t");
+                fail(chunk);
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+    }
+
+}
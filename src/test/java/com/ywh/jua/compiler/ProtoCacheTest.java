@@ -0,0 +1,114 @@
+package com.ywh.jua.compiler;
+
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.state.LuaStateImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ywh.jua.api.ThreadStatus.LUA_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author ywh
+ * @since 2020/8/18 11:26
+ */
+public class ProtoCacheTest {
+
+    private int optLevel;
+
+    @Before
+    public void enable() {
+        optLevel = Compiler.getOptLevel();
+        ProtoCache.clear();
+        ProtoCache.setMaxSize(4);
+    }
+
+    @After
+    public void disable() {
+        Compiler.setOptLevel(optLevel);
+        ProtoCache.setMaxSize(0);
+        ProtoCache.clear();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        ProtoCache.setMaxSize(0);
+        AtomicInteger compiles = new AtomicInteger();
+        get("return 1", compiles);
+        get("return 1", compiles);
+        assertEquals(2, compiles.get());
+    }
+
+    @Test
+    public void keyedByContentAndOptions() {
+        AtomicInteger compiles = new AtomicInteger();
+        Prototype p1 = get("return 1", compiles);
+        assertSame(p1, get("return 1", compiles));
+        assertEquals(1, compiles.get());
+
+        assertNotSame(p1, get("return 2", compiles));
+        assertEquals(2, compiles.get());
+
+        Compiler.setOptLevel(optLevel == 0 ? 1 : 0);
+        assertNotSame(p1, get("return 1", compiles));
+        assertEquals(3, compiles.get());
+    }
+
+    @Test
+    public void lruEviction() {
+        AtomicInteger compiles = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            get("return " + i, compiles);
+        }
+        get("return 4", compiles);
+        assertEquals(5, compiles.get());
+        get("return 0", compiles);
+        assertEquals(6, compiles.get());
+    }
+
+    /**
+     * 修改时间和大小都不变的修改也不能命中旧的原型
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sameSizeFileEdit() throws Exception {
+        Path file = Files.createTempFile("jua", ".lua");
+        try {
+            Files.write(file, "return 'a'".getBytes(StandardCharsets.ISO_8859_1));
+            FileTime mtime = Files.getLastModifiedTime(file);
+            assertEquals("a", runFile(file));
+
+            Files.write(file, "return 'b'".getBytes(StandardCharsets.ISO_8859_1));
+            Files.setLastModifiedTime(file, mtime);
+            assertEquals("b", runFile(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Prototype get(String chunk, AtomicInteger compiles) {
+        return ProtoCache.get(chunk.getBytes(StandardCharsets.ISO_8859_1), "=test", () -> {
+            compiles.incrementAndGet();
+            return Compiler.compile(chunk, "=test");
+        });
+    }
+
+    private static String runFile(Path file) {
+        LuaState ls = new LuaStateImpl();
+        assertEquals(LUA_OK, ls.loadFile(file.toString()));
+        ls.call(0, 1);
+        return ls.toString(-1);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.ywh.jua.compiler.ast.exps;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.compiler.ast.BaseExp;
+import com.ywh.jua.compiler.lexer.Lexer;
+import com.ywh.jua.compiler.lexer.Token;
+import com.ywh.jua.compiler.parser.Parser;
+import org.junit.Test;
+
+import static com.ywh.jua.compiler.lexer.TokenKind.TOKEN_EOF;
+import static com.ywh.jua.compiler.lexer.TokenKind.TOKEN_IDENTIFIER;
+import static com.ywh.jua.compiler.lexer.TokenKind.TOKEN_STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class TableConstructorExpTest {
+
+    /**
+     * 字面量字段按需还原为节点，非字面量字段保留原节点
+     */
+    @Test
+    public void fields() {
+        TableConstructorExp tc = parse("return {1, 2.5, 'a', nil, true, false, x = 1, [2] = 'b', [f()] = g, {3}, ...}");
+        assertEquals(11, tc.size());
+
+        assertTrue(tc.isArrayField(0));
+        assertNull(tc.getKeyExp(0));
+        assertEquals(1, ((IntegerExp) tc.getValExp(0)).getVal());
+        assertEquals(2.5, ((FloatExp) tc.getValExp(1)).getVal(), 0);
+        assertEquals("a", ((StringExp) tc.getValExp(2)).getStr());
+        assertTrue(tc.getValExp(3) instanceof NilExp);
+        assertTrue(tc.getValExp(4) instanceof TrueExp);
+        assertTrue(tc.getValExp(5) instanceof FalseExp);
+
+        assertFalse(tc.isArrayField(6));
+        assertFalse(tc.hasKeyNode(6));
+        assertEquals("x", ((StringExp) tc.getKeyExp(6)).getStr());
+        assertEquals(2, ((IntegerExp) tc.getKeyExp(7)).getVal());
+        assertEquals("b", ((StringExp) tc.getValExp(7)).getStr());
+
+        assertTrue(tc.hasKeyNode(8));
+        assertTrue(tc.hasValNode(8));
+        assertTrue(tc.getKeyExp(8) instanceof FuncCallExp);
+        assertEquals("g", ((NameExp) tc.getValExp(8)).getName());
+
+        assertTrue(tc.getValExp(9) instanceof TableConstructorExp);
+        assertTrue(tc.getValExp(10) instanceof VarargExp);
+        assertEquals(1, tc.getValExp(10).getLine());
+    }
+
+    /**
+     * 替换字段时复用引用槽位，字面量与节点可以互相替换
+     */
+    @Test
+    public void replaceFields() {
+        TableConstructorExp tc = parse("return {a, 'x', 3}");
+        tc.setValExp(0, new IntegerExp(1, 7));
+        tc.setValExp(1, new NameExp(1, "y"));
+        tc.setValExp(2, new StringExp(1, "z"));
+        assertFalse(tc.hasValNode(0));
+        assertEquals(7, ((IntegerExp) tc.getValExp(0)).getVal());
+        assertEquals("y", ((NameExp) tc.getValExp(1)).getName());
+        assertEquals("z", ((StringExp) tc.getValExp(2)).getStr());
+    }
+
+    /**
+     * 超过初始容量的字段、嵌套表和多返回值展开得到正确的表
+     */
+    @Test
+    public void eval() {
+        StringBuilder sb = new StringBuilder("local function f() return 'p', 'q' end local t = {");
+        for (int i = 1; i <= 100; i++) {
+            sb.append(i % 3 == 0 ? "k" + i + " = " + i : String.valueOf(i)).append(", ");
+        }
+        sb.append("n = {m = {1.5, 'deep'}}, [100 + 100] = 'k', f()} ");
+        sb.append("return #t, t[1], t[2], t.k99, t.n.m[1], t.n.m[2], t[68], t[69], t[200]");
+        // 数组部分共 67 个整数字段，f() 展开到 68、69
+        assertEquals("69\t1\t2\t99\t1.50000\tdeep\tp\tq\tk", LuaScript.eval(sb.toString()));
+    }
+
+    /**
+     * 同一 chunk 中相同的名字和字符串共享同一实例
+     */
+    @Test
+    public void lexerInternsStrings() {
+        Lexer lexer = new Lexer("local abc = 'abc' .. abc", "=t");
+        String ident = null;
+        String str = null;
+        for (Token token = lexer.nextToken(); token.getKind() != TOKEN_EOF; token = lexer.nextToken()) {
+            if (token.getKind() == TOKEN_IDENTIFIER) {
+                if (ident != null) {
+                    assertSame(ident, token.getValue());
+                }
+                ident = token.getValue();
+            } else if (token.getKind() == TOKEN_STRING) {
+                str = token.getValue();
+            }
+        }
+        assertSame(ident, str);
+    }
+
+    private static TableConstructorExp parse(String chunk) {
+        BaseExp exp = Parser.parse(chunk, "=t").getRetExps().get(0);
+        return (TableConstructorExp) exp;
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.ywh.jua.compiler.codegen;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.Compiler;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static com.ywh.jua.vm.Instruction.getA;
+import static com.ywh.jua.vm.Instruction.getOpCode;
+import static com.ywh.jua.vm.Instruction.getSBx;
+import static com.ywh.jua.vm.OpCode.JMP;
+import static com.ywh.jua.vm.OpCode.LOADBOOL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class PeepholeTest {
+
+    /**
+     * 分支、循环、交换赋值、被闭包捕获的局部变量等优化后仍得到相同的结果
+     */
+    @Test
+    public void scripts() {
+        for (Path file : LuaScript.list("/opt")) {
+            String chunk = LuaScript.read(file);
+            assertEquals(file.toString(), LuaScript.expected(chunk), LuaScript.eval(chunk));
+        }
+    }
+
+    /**
+     * 无条件跳转不会跳到下一条指令，也不会跳到另一条无条件跳转
+     */
+    @Test
+    public void jumpsThreaded() {
+        for (Path file : LuaScript.list("/opt")) {
+            checkJumps(file.toString(), Compiler.compile(LuaScript.read(file), "@" + file));
+        }
+    }
+
+    /**
+     * 只被 TEST 使用的比较结果直接用比较指令跳转，不再物化为布尔值
+     */
+    @Test
+    public void branchOnCompare() {
+        Prototype proto = Compiler.compile("local a, b = ... if a < b then return 1 end return 2", "=t");
+        for (int i : proto.getCode()) {
+            assertNotEquals(LOADBOOL, getOpCode(i));
+        }
+    }
+
+    private static void checkJumps(String name, Prototype proto) {
+        int[] code = proto.getCode();
+        for (int pc = 0; pc < code.length; pc++) {
+            if (getOpCode(code[pc]) != JMP || getA(code[pc]) != 0) {
+                continue;
+            }
+            int target = pc + 1 + getSBx(code[pc]);
+            assertNotEquals(name + " pc " + pc, pc + 1, target);
+            assertFalse(name + " pc " + pc, getOpCode(code[target]) == JMP && getA(code[target]) == 0);
+        }
+        for (Prototype p : proto.getProtos()) {
+            checkJumps(name, p);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.ywh.jua.compiler.lexer;
+
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.Compiler;
+import org.junit.Test;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ywh.jua.compiler.lexer.TokenKind.TOKEN_EOF;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/24 11:26
+ */
+public class LexerTest {
+
+    /**
+     * 跨越读取块边界的长注释、长字符串、运算符
+     */
+    private static final String CHUNK = source();
+
+    @Test
+    public void readerTokensMatchString() {
+        assertEquals(tokens(new Lexer(CHUNK, "@t.lua")), tokens(new Lexer(new StringReader(CHUNK), "@t.lua")));
+        assertEquals(tokens(new Lexer(CHUNK, "@t.lua")), tokens(new Lexer(new SlowReader(CHUNK), "@t.lua")));
+    }
+
+    @Test
+    public void readerCompileMatchesString() {
+        Prototype expected = Compiler.compile(CHUNK, "@t.lua");
+        Prototype actual = Compiler.compile(new SlowReader(CHUNK), "@t.lua");
+        assertArrayEquals(expected.getCode(), actual.getCode());
+        assertArrayEquals(expected.getConstants(), actual.getConstants());
+        assertArrayEquals(expected.getLineInfo(), actual.getLineInfo());
+    }
+
+    private static String source() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("local t = {}\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("t[").append(i).append("] = 'v").append(i).append("' .. ... ~= nil and 31 or 1.5e3 -- c\n");
+        }
+        sb.append("--[==[ long comment ");
+        for (int i = 0; i < 10000; i++) {
+            sb.append(i % 10 == 0 ? '\n' : 'c');
+        }
+        sb.append(" ]==]\nlocal s = [[");
+        for (int i = 0; i < 10000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        sb.append("]]\nreturn t, s, a // b >> 2, a <= b, \"x\\\"y\\n\"\n");
+        return sb.toString();
+    }
+
+    private static List<String> tokens(Lexer lexer) {
+        List<String> tokens = new ArrayList<>();
+        for (; ; ) {
+            Token token = lexer.nextToken();
+            tokens.add(token.getLine() + " " + token.getKind() + " " + token.getValue());
+            if (token.getKind() == TOKEN_EOF) {
+                return tokens;
+            }
+        }
+    }
+
+    /**
+     * 每次最多返回 7 个字符的 Reader，使 token 尽可能跨越读取边界
+     */
+    private static class SlowReader extends FilterReader {
+
+        SlowReader(String s) {
+            super(new StringReader(s));
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, 7));
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.ywh.jua.compiler.parser;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.Compiler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.ywh.jua.compiler.parser.AstOptimizer.LEVEL_FOLD;
+import static com.ywh.jua.compiler.parser.AstOptimizer.LEVEL_INLINE;
+import static com.ywh.jua.compiler.parser.AstOptimizer.LEVEL_NONE;
+import static com.ywh.jua.compiler.parser.AstOptimizer.LEVEL_PROPAGATE;
+import static com.ywh.jua.vm.Instruction.getOpCode;
+import static com.ywh.jua.vm.OpCode.CALL;
+import static com.ywh.jua.vm.OpCode.TAILCALL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class AstOptimizerTest {
+
+    private final int optLevel = Compiler.getOptLevel();
+
+    @After
+    public void restore() {
+        Compiler.setOptLevel(optLevel);
+    }
+
+    /**
+     * 各个优化级别得到与不优化相同的结果
+     */
+    @Test
+    public void levelsAgree() {
+        for (Path file : LuaScript.list("/opt")) {
+            String chunk = LuaScript.read(file);
+            for (int level = LEVEL_NONE; level <= LEVEL_INLINE; level++) {
+                Compiler.setOptLevel(level);
+                assertEquals(file + " level " + level, LuaScript.expected(chunk), LuaScript.eval(chunk));
+            }
+        }
+    }
+
+    /**
+     * 拼接从右向左进行，左边的字面量不能与右边的非字面量之前的字面量合并
+     */
+    @Test
+    public void concatKeepsMetamethodOperands() {
+        Compiler.setOptLevel(LEVEL_FOLD);
+        String chunk = "local o = ... return 'a' .. 'b' .. o, o .. 'c' .. 'd', 'e' .. 'f'";
+        assertTrue(hasConstant(chunk, "a"));
+        assertTrue(hasConstant(chunk, "b"));
+        assertTrue(hasConstant(chunk, "cd"));
+        assertTrue(hasConstant(chunk, "ef"));
+        assertFalse(hasConstant(chunk, "ab"));
+    }
+
+    @Test
+    public void deadBranches() {
+        String chunk = "local DEBUG = false if DEBUG then print('debug') end "
+            + "if false then print('dead') elseif 1 < 2 then return 'live' else print('else') end";
+        Compiler.setOptLevel(LEVEL_NONE);
+        assertTrue(hasConstant(chunk, "debug"));
+        assertTrue(hasConstant(chunk, "dead"));
+
+        Compiler.setOptLevel(LEVEL_FOLD);
+        assertTrue(hasConstant(chunk, "debug"));
+        assertFalse(hasConstant(chunk, "dead"));
+        assertFalse(hasConstant(chunk, "else"));
+
+        Compiler.setOptLevel(LEVEL_PROPAGATE);
+        assertFalse(hasConstant(chunk, "debug"));
+        assertEquals("live", LuaScript.eval(chunk));
+    }
+
+    /**
+     * 被重新赋值（包括在闭包中）或被同名局部变量遮蔽的局部变量不做常量传播
+     */
+    @Test
+    public void propagationRespectsAssignmentAndScope() {
+        Compiler.setOptLevel(LEVEL_PROPAGATE);
+        assertEquals("1\t2\t3", LuaScript.eval(
+            "local a = 1 local b = 1 local c = 1 "
+                + "local function f() b = 2 end f() "
+                + "do local a = 3 c = a end "
+                + "return a, b, c"));
+        assertEquals("1\t2", LuaScript.eval("local x = 1 local y repeat local x = 2 y = x until x == 2 return x, y"));
+    }
+
+    /**
+     * 小型局部函数在调用处展开，递归函数不展开
+     */
+    @Test
+    public void inlining() {
+        String chunk = "local function sq(x) return x * x end return sq(3)";
+        Compiler.setOptLevel(LEVEL_PROPAGATE);
+        assertTrue(hasCall(Compiler.compile(chunk, "=t")));
+        Compiler.setOptLevel(LEVEL_INLINE);
+        assertFalse(hasCall(Compiler.compile(chunk, "=t")));
+        assertEquals("9", LuaScript.eval(chunk));
+
+        String recursive = "local function f(n) if n == 0 then return 'done' end return f(n - 1) end return f(3)";
+        assertTrue(hasCall(Compiler.compile(recursive, "=t")));
+        assertEquals("done", LuaScript.eval(recursive));
+    }
+
+    private static boolean hasCall(Prototype proto) {
+        for (int i : proto.getCode()) {
+            if (getOpCode(i) == CALL || getOpCode(i) == TAILCALL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasConstant(String chunk, Object k) {
+        Prototype proto = Compiler.compile(chunk, "=t");
+        return Arrays.asList(proto.getConstants()).contains(k);
+    }
+
+}
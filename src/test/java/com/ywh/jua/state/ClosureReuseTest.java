@@ -0,0 +1,99 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.chunk.BinaryChunk;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.chunk.Upvalue;
+import com.ywh.jua.compiler.Compiler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class ClosureReuseTest {
+
+    /**
+     * Upvalue 相同的闭包被复用，不同则新建
+     */
+    @Test
+    public void reuse() {
+        assertEquals("true\ttrue\tfalse\t1\t2", LuaScript.eval(
+            "local function mk() return function() return 1 end end "
+                + "local function cap(v) local x = v return function() return x end end "
+                + "local a, b = cap(1), cap(2) "
+                + "return mk() == mk(), cap(1) == cap(1), a == b, a(), b()"));
+    }
+
+    /**
+     * 捕获可变局部变量的闭包不复用，各自拥有独立的状态
+     */
+    @Test
+    public void mutableCapture() {
+        assertEquals("false\t2\t1", LuaScript.eval(
+            "local function counter() local n = 0 return function() n = n + 1 return n end end "
+                + "local c1, c2 = counter(), counter() c1() "
+                + "return c1 == c2, c1(), c2()"));
+    }
+
+    /**
+     * 循环中按值捕获的循环变量每次不同，闭包各自保存自己的值
+     */
+    @Test
+    public void loop() {
+        assertEquals("1 2 3", LuaScript.eval(
+            "local fs = {} for i = 1, 3 do local j = i fs[i] = function() return j end end "
+                + "return fs[1]() .. ' ' .. fs[2]() .. ' ' .. fs[3]()"));
+    }
+
+    /**
+     * string.dump 的结果不带按值捕获标记（与 luac 一致），加载后按引用捕获，
+     * 循环中的闭包依靠离开作用域时的闭合各自保存自己的值
+     */
+    @Test
+    public void dumpedLoop() {
+        String src = "local fs = {} for i = 1, 3 do local j = i fs[i] = function() return j end end "
+            + "return fs[1]() .. ' ' .. fs[2]() .. ' ' .. fs[3]()";
+        Prototype proto = BinaryChunk.undump(BinaryChunk.dump(Compiler.compile(src, "=t"), false));
+        for (Upvalue uv : proto.getProtos()[0].getUpvalues()) {
+            assertFalse(uv.isByValue());
+        }
+        assertEquals("1 2 3", LuaScript.eval("return load(string.dump(function() " + src + " end))()"));
+    }
+
+    /**
+     * 多个状态共享函数原型时各自实例化闭包，闭包看到的是自己状态的全局变量
+     */
+    @Test
+    public void sharedPrototype() {
+        Prototype proto = Compiler.compile("local function f() return function() return x end end return f()", "=t");
+        LuaState a = newState("a");
+        LuaState b = newState("b");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("a", run(a, proto));
+            assertEquals("b", run(b, proto));
+        }
+    }
+
+    private static LuaState newState(String x) {
+        LuaState ls = new LuaStateImpl();
+        ls.openLibs();
+        ls.pushString(x);
+        ls.setGlobal("x");
+        return ls;
+    }
+
+    private static String run(LuaState ls, Prototype proto) {
+        ls.load(proto);
+        ls.call(0, 1);
+        ls.call(0, 1);
+        String s = ls.toString(-1);
+        ls.pop(1);
+        return s;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class ConcatTest {
+
+    private static final String[][] CASES = {
+        {"return 'a' .. 'b' .. 1 .. 2", "ab12"},
+        {"local mt = {__concat = function(x, y) "
+            + "return (type(x) == 'table' and 'T' or x) .. '+' .. (type(y) == 'table' and 'T' or y) end} "
+            + "local o = setmetatable({}, mt) return 'a' .. o .. 'b' .. 'c', o .. o, 1 .. o",
+            "aT+bc\tT+T\t1+T"},
+        // 循环中追加得到长字符串
+        {"local s = '' for i = 1, 1000 do s = s .. (i % 10) end return #s, s:sub(1, 12), s:sub(-3)",
+            "1000\t123456789012\t890"},
+        // 同一个 rope 被两次扩展，互不影响
+        {"local s = ('x'):rep(200) .. '' local a = s .. 'a' local b = s .. 'b' local c = a .. 'c' "
+            + "return #s, a:sub(-1), b:sub(-1), c:sub(-2), #a, #c",
+            "200\ta\tb\tac\t201\t202"},
+        // 长字符串用作表键、Upvalue、参数、比较
+        {"local s = ('k'):rep(150) local k = s .. '!' local t = {[k] = 1} "
+            + "local function f() return k end local function len(x) return #x end "
+            + "return t[s .. '!'], f() == k, len(k), k == s .. '!', k < s .. '~'",
+            "1\ttrue\t151\ttrue\ttrue"},
+        // 拼接结果写入表后继续追加，表中的值不变
+        {"local s = ('y'):rep(130) .. 'z' local t = {s} s = s .. 'w' return #t[1], #s, t[1]:sub(-1)",
+            "131\t132\tz"},
+    };
+
+    private final boolean enabled = LuaRope.isEnabled();
+
+    @After
+    public void restore() {
+        LuaRope.setEnabled(enabled);
+    }
+
+    @Test
+    public void ropes() {
+        LuaRope.setEnabled(true);
+        check();
+    }
+
+    @Test
+    public void plain() {
+        LuaRope.setEnabled(false);
+        check();
+    }
+
+    @Test
+    public void errors() {
+        try {
+            LuaScript.eval("return 'a' .. {}");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("concatenation"));
+        }
+    }
+
+    private static void check() {
+        for (String[] c : CASES) {
+            assertEquals(c[0], c[1], LuaScript.eval(c[0]));
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.string.LuaString;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.ywh.jua.api.ThreadStatus.LUA_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class DataChunkLoaderTest {
+
+    private static final String[] CHUNKS = {
+        "return {}",
+        "return {1, 2.5, 'a', true, false, x = 'y', [10] = -3, ['k'] = {n = {1, 2, 3}}};",
+        "-- comment\nreturn { 1, [1] = 2 }",
+        "return {[1] = 2, 1}",
+        "return {nil, nil, 3}",
+        "return {-1, - 2.5, \"s\\n\", [[long]]}",
+    };
+
+    /**
+     * 把全局变量 t 按键排序后序列化
+     */
+    private static final String DUMP = "local function dump(v) "
+        + "if type(v) ~= 'table' then return type(v) .. ':' .. tostring(v) end "
+        + "local keys = {} for k in pairs(v) do keys[#keys + 1] = k end "
+        + "local function less(a, b) return type(a) .. tostring(a) < type(b) .. tostring(b) end "
+        + "for i = 2, #keys do local k, j = keys[i], i - 1 "
+        + "while j > 0 and less(k, keys[j]) do keys[j + 1] = keys[j] j = j - 1 end keys[j + 1] = k end "
+        + "local s = '{' for _, k in ipairs(keys) do s = s .. dump(k) .. '=' .. dump(v[k]) .. ',' end "
+        + "return s .. '}' end return dump(t)";
+
+    private final boolean enabled = DataChunkLoader.isEnabled();
+
+    @After
+    public void restore() {
+        DataChunkLoader.setEnabled(enabled);
+    }
+
+    /**
+     * 快速加载与编译执行得到相同的表
+     */
+    @Test
+    public void matchesCompiled() {
+        for (String chunk : CHUNKS) {
+            assertNotNull(chunk, DataChunkLoader.load(chunk, "=t"));
+            DataChunkLoader.setEnabled(true);
+            String fast = run(chunk);
+            DataChunkLoader.setEnabled(false);
+            assertEquals(chunk, run(chunk), fast);
+        }
+    }
+
+    @Test
+    public void notData() {
+        for (String chunk : new String[]{
+            "return {x}", "return {f()}", "return {1 + 1}", "return {}, 1", "return {} x = 1",
+            "returnx = {}", "local t = {} return t", "return {...}"}) {
+            assertNull(chunk, DataChunkLoader.load(chunk, "=t"));
+        }
+        assertFalse(DataChunkLoader.maybeData("local t = {}"));
+        assertFalse(DataChunkLoader.maybeData("return1"));
+        assertTrue(DataChunkLoader.maybeData("  -- c\n return  {"));
+        assertTrue(DataChunkLoader.maybeData("--[[ c ]] return {"));
+    }
+
+    /**
+     * 每次调用都得到新的表
+     */
+    @Test
+    public void freshTablePerCall() {
+        DataChunkLoader.setEnabled(true);
+        assertEquals("true\t1", LuaScript.eval(
+            "local f = load('return {a = {1}}') local x, y = f(), f() x.a[1] = 2 return x ~= y, y.a[1]"));
+    }
+
+    /**
+     * 默认关闭时数据型 chunk 仍编译为 Lua 函数，可以 string.dump
+     */
+    @Test
+    public void dumpByDefault() {
+        assertFalse(DataChunkLoader.isEnabled());
+        assertEquals("1\t2\t3", LuaScript.eval(
+            "local f = load('return {1, 2, {x = 3}}') local t = load(string.dump(f))() return t[1], t[2], t[3].x"));
+    }
+
+    @Test
+    public void loadFile() throws IOException {
+        DataChunkLoader.setEnabled(true);
+        Path file = Files.createTempFile("jua-data", ".lua");
+        try {
+            Files.write(file, LuaString.getBytes(CHUNKS[1]));
+            LuaState ls = new LuaStateImpl();
+            ls.openLibs();
+            assertEquals(LUA_OK, ls.loadFileX(file.toString(), "bt"));
+            ls.call(0, 1);
+            ls.setGlobal("t");
+            String fast = LuaScript.eval(ls, DUMP);
+            DataChunkLoader.setEnabled(false);
+            assertEquals(run(CHUNKS[1]), fast);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String run(String chunk) {
+        LuaState ls = new LuaStateImpl();
+        ls.openLibs();
+        assertEquals(LUA_OK, ls.load(LuaString.getBytes(chunk), "=t", "bt"));
+        ls.call(0, 1);
+        ls.setGlobal("t");
+        return LuaScript.eval(ls, DUMP);
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.Compiler;
+import org.junit.Test;
+
+import static com.ywh.jua.api.LuaState.LUA_RIDX_GLOBALS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class GlobalCellTest {
+
+    /**
+     * 缓存的单元跟随表的各种写入方式
+     */
+    @Test
+    public void writesVisible() {
+        assertEquals("1\t2\t3\tnil\t5\t6", LuaScript.eval(
+            "local r = {} "
+                + "for i = 1, 3 do x = i r[i] = x end "
+                + "x = nil r[4] = x "
+                + "rawset(_ENV, 'x', 5) r[5] = x "
+                + "_G['x'] = 6 r[6] = x "
+                + "return r[1], r[2], r[3], tostring(r[4]), r[5], r[6]"));
+    }
+
+    /**
+     * 值为 nil 的全局变量仍然经过元方法
+     */
+    @Test
+    public void metamethods() {
+        assertEquals("1\tdef\tset\tnil", LuaScript.eval(
+            "local function get() return y end "
+                + "y = 1 local a = get() y = nil "
+                + "local log = {} "
+                + "setmetatable(_ENV, {__index = function(t, k) return 'def' end, "
+                + "__newindex = function(t, k, v) log[k] = 'set' end}) "
+                + "local b = get() z = 1 "
+                + "return a, b, log.z, rawget(_ENV, 'z')"));
+    }
+
+    /**
+     * 同一个闭包在不同的 _ENV 中执行
+     */
+    @Test
+    public void differentEnv() {
+        assertEquals("a\tb\tg\ta", LuaScript.eval(
+            "v = 'g' local function f(_ENV) return v end "
+                + "local a = {v = 'a'} "
+                + "return f(a), f({v = 'b'}), f(_G), f(a)"));
+    }
+
+    /**
+     * 单元是全局变量唯一的存储：缓存的写入只改单元，表的读取和遍历看到的是单元中的值
+     */
+    @Test
+    public void cellIsStorage() {
+        LuaStateImpl ls = (LuaStateImpl) newState();
+        LuaScript.eval(ls, "for i = 1, 1000 do x = i end");
+        LuaTable g = (LuaTable) ls.registry.get(LUA_RIDX_GLOBALS);
+        GlobalCell cell = g.cell("x");
+        assertEquals(1000L, cell.value);
+        assertEquals(1000L, g.get("x"));
+        cell.value = 7L;
+        assertEquals("7\t1", LuaScript.eval(ls,
+            "local n = 0 for k, v in pairs(_G) do if k == 'x' then n = n + 1 end end return x, n"));
+        assertEquals("nil", LuaScript.eval(ls, "x = nil return tostring(rawget(_G, 'x'))"));
+        assertSame(cell, g.cell("x"));
+        assertEquals(null, cell.value);
+    }
+
+    /**
+     * 只有全局环境发放单元，其他作为 Upvalue 访问的表不受影响
+     */
+    @Test
+    public void onlyGlobals() {
+        LuaStateImpl ls = (LuaStateImpl) newState();
+        assertEquals("1\t2", LuaScript.eval(ls,
+            "local t = {} local function f(v) t.a = v return t.a end f(1) t0 = t return f(1), f(2)"));
+        LuaTable g = (LuaTable) ls.registry.get(LUA_RIDX_GLOBALS);
+        assertTrue(g.hasCells);
+        assertFalse(((LuaTable) g.get("t0")).hasCells);
+    }
+
+    /**
+     * 多个状态共享同一个函数原型，各自的全局变量互不干扰
+     */
+    @Test
+    public void sharedPrototype() {
+        Prototype proto = Compiler.compile("n = (n or 0) + 1 return n", "=t");
+        LuaState a = newState();
+        LuaState b = newState();
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, run(a, proto));
+            assertEquals(i, run(b, proto));
+        }
+        assertEquals(4, run(a, proto));
+    }
+
+    private static LuaState newState() {
+        LuaState ls = new LuaStateImpl();
+        ls.openLibs();
+        return ls;
+    }
+
+    private static long run(LuaState ls, Prototype proto) {
+        ls.load(proto);
+        ls.call(0, 1);
+        long n = ls.toInteger(-1);
+        ls.pop(1);
+        return n;
+    }
+
+}
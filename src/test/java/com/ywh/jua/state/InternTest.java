@@ -0,0 +1,79 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.chunk.BinaryChunk;
+import com.ywh.jua.chunk.Prototype;
+import com.ywh.jua.compiler.Compiler;
+import com.ywh.jua.string.LuaString;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class InternTest {
+
+    /**
+     * 编译和反序列化得到的短字符串常量已驻留
+     */
+    @Test
+    public void constants() {
+        Prototype a = Compiler.compile("return 'name'", "=a");
+        Prototype b = Compiler.compile("local t = {} t.name = 1 return t", "=b");
+        Prototype c = BinaryChunk.undump(BinaryChunk.dump(a, false));
+        assertSame(constant(a, "name"), constant(b, "name"));
+        assertSame(constant(a, "name"), constant(c, "name"));
+    }
+
+    /**
+     * 短字符串驻留为同一个实例，长字符串原样返回
+     */
+    @Test
+    public void intern() {
+        String a = new String(new char[]{'k', 'e', 'y'});
+        assertSame(LuaString.intern("key"), LuaString.intern(a));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= LuaString.MAX_SHORT_LEN; i++) {
+            sb.append('x');
+        }
+        String longStr = sb.toString();
+        assertSame(longStr, LuaString.intern(longStr));
+    }
+
+    /**
+     * 运行时生成的字符串键原样保存，不做驻留
+     */
+    @Test
+    public void runtimeKeysNotInterned() {
+        String key = new String(new char[]{'k', 'e', 'y'});
+        LuaTable t = new LuaTable(0, 0);
+        t.put(key, 1L);
+        assertSame(key, t.nextKey(null));
+        assertEquals(1L, t.get("key"));
+    }
+
+    /**
+     * 运行时拼接的字符串与常量作为键、比较时相等
+     */
+    @Test
+    public void equality() {
+        assertEquals("true\t1\t2", LuaScript.eval(
+            "local t = {} local k = 'ke' .. ('y'):rep(1) t[k] = 1 t.key = (t.key or 0) + 1 "
+                + "return k == 'key', #k - 2, t.key"));
+    }
+
+    private static String constant(Prototype proto, String s) {
+        for (Object k : proto.getConstants()) {
+            if (s.equals(k)) {
+                return (String) k;
+            }
+        }
+        fail(s);
+        return null;
+    }
+
+}
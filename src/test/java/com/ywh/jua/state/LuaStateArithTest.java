@@ -57,9 +57,8 @@ public class LuaStateArithTest {
     }
 
     private Object getResult(LuaState ls) {
-        Long i = ls.toIntegerX(1);
-        if (i != null) {
-            return i;
+        if (ls.isInteger(1)) {
+            return ls.toInteger(1);
         }
         return ls.toNumber(1);
     }
@@ -0,0 +1,67 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class UpvalueTest {
+
+    /**
+     * 多个闭包共享同一个开放 Upvalue，闭合后仍然共享
+     */
+    @Test
+    public void shared() {
+        assertEquals("3\t3\t13", LuaScript.eval(
+            "local function counter() local n = 0 "
+                + "return function() n = n + 1 return n end, function() return n end, function(v) n = v end end "
+                + "local inc, get, set = counter() inc() inc() "
+                + "local a = inc() local b = get() set(12) inc() "
+                + "return a, b, get()"));
+    }
+
+    /**
+     * 捕获不同寄存器的 Upvalue 按任意顺序创建，链表保持有序
+     */
+    @Test
+    public void captureOrder() {
+        assertEquals("1 2 3 4 20 30", LuaScript.eval(
+            "local a, b, c, d = 1, 2, 3, 4 "
+                + "local fc = function() return c end local fa = function() return a end "
+                + "local fd = function() return d end local fb = function() return b end "
+                + "local fcb = function() return c * 10, b * 10 end "
+                + "a, b, c, d = a, b, c, d "
+                + "local x, y = fcb() "
+                + "return fa() .. ' ' .. fb() .. ' ' .. fc() .. ' ' .. fd() .. ' ' .. y .. ' ' .. x"));
+    }
+
+    /**
+     * 每次循环迭代的局部变量是新的 Upvalue，break 和嵌套块退出时闭合
+     */
+    @Test
+    public void loopsClose() {
+        assertEquals("1 2 3 | 10 20 | 5", LuaScript.eval(
+            "local fs = {} "
+                + "for i = 1, 10 do local j = i fs[i] = function() j = j + 0 return j end if i == 3 then break end end "
+                + "local gs = {} local k = 0 "
+                + "while k < 2 do k = k + 1 do local v = k * 10 gs[k] = function() return v end v = v end end "
+                + "local h do local w = 4 h = function() w = w + 1 return w end end "
+                + "return fs[1]() .. ' ' .. fs[2]() .. ' ' .. fs[3]() .. ' | ' .. gs[1]() .. ' ' .. gs[2]() .. ' | ' .. h()"));
+    }
+
+    /**
+     * 深层嵌套的函数通过外围闭包的 Upvalue 继承
+     */
+    @Test
+    public void nested() {
+        assertEquals("6\t7", LuaScript.eval(
+            "local x = 1 "
+                + "local function f() return function() return function() x = x + 5 return x end end end "
+                + "local r = f()()() x = x + 1 return r, x"));
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.ywh.jua.state;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class VarargTest {
+
+    @Test
+    public void select() {
+        assertEquals("4\t3\tnil\t0\tc\tc", LuaScript.eval(
+            "local function n(...) return select('#', ...) end "
+                + "local function last(...) return (select(-1, ...)) end "
+                + "return n(1, 2, 3, nil), n(nil, nil, nil), tostring((select(2, 'a'))), n(), "
+                + "last('a', 'b', 'c'), select(3, 'a', 'b', 'c')"));
+    }
+
+    /**
+     * 变长参数与固定参数混合，多余的、不足的参数
+     */
+    @Test
+    public void fixedAndVararg() {
+        assertEquals("1 nil 0|1 2 2|a b c", LuaScript.eval(
+            "local function f(a, b, ...) return a .. ' ' .. tostring(b) .. ' ' .. select('#', ...) end "
+                + "local function j(...) local t = {...} local s = t[1] for i = 2, #t do s = s .. ' ' .. t[i] end return s end "
+                + "return f(1) .. '|' .. f(1, 2, 3, 4) .. '|' .. j('a', 'b', 'c')"));
+    }
+
+    /**
+     * 变长参数展开到调用、表构造器、返回值和多重赋值中
+     */
+    @Test
+    public void expand() {
+        assertEquals("6\t4\t3\t1\t2\t3", LuaScript.eval(
+            "local function sum(...) local s = 0 for _, v in ipairs({...}) do s = s + v end return s end "
+                + "local function id(...) return ... end "
+                + "local function pass(...) return sum(...), select('#', 0, ...), #{...}, id(...) end "
+                + "return pass(1, 2, 3)"));
+        assertEquals("1\t2\tnil", LuaScript.eval(
+            "local function f(...) local a, b, c = ... return a, b, tostring(c) end return f(1, 2)"));
+    }
+
+    /**
+     * 被调用函数返回后变长参数仍然正确（调用者的栈帧被复用），深层递归
+     */
+    @Test
+    public void nested() {
+        assertEquals("10\t3\t1", LuaScript.eval(
+            "local function count(n, ...) if n == 0 then return select('#', ...) end return count(n - 1, n, ...) end "
+                + "local function outer(...) local x = count(0, 7) return select('#', ...), x, ... end "
+                + "local a, b = outer(1, 2, 3) "
+                + "return count(10), a, select(3, outer(1))"));
+    }
+
+    /**
+     * 闭包不捕获变长参数，每次调用各自独立
+     */
+    @Test
+    public void perCall() {
+        assertEquals("a b|c", LuaScript.eval(
+            "local function f(...) local t = {...} return function() return t[2] and t[1] .. ' ' .. t[2] or t[1] end end "
+                + "local x, y = f('a', 'b'), f('c') return x() .. '|' .. y()"));
+    }
+
+}
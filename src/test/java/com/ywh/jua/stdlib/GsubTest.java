@@ -0,0 +1,64 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 期望值取自 Lua 5.3
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class GsubTest {
+
+    private static final String[][] VECTORS = {
+        {"string.gsub('$name is $age', '%$(%w+)', {name = 'bob', age = 3})", "bob is 3\t2"},
+        {"string.gsub('$x $y', '%$(%w+)', {x = '1'})", "1 $y\t2"},
+        {"string.gsub('$x', '%$(%w+)', {x = false})", "$x\t1"},
+        {"string.gsub('hello world', '%w+', {hello = 'HI'})", "HI world\t2"},
+        {"string.gsub('abc', '%w', function(c) return c:upper() .. '.' end)", "A.B.C.\t3"},
+        {"string.gsub('abc', 'b', function() end)", "abc\t1"},
+        {"string.gsub('a=1,b=2', '(%w)=(%w)', function(k, v) return v .. k end)", "1a,2b\t2"},
+        {"string.gsub('abc', '()b', function(p) return p * 10 end)", "a20c\t1"},
+        {"string.gsub('abc', '%w', {a = 1}, 2)", "1bc\t2"},
+        {"string.gsub('a', 'a', '%%')", "%\t1"},
+    };
+
+    @Test
+    public void vectors() {
+        for (String[] v : VECTORS) {
+            assertEquals(v[0], v[1], LuaScript.eval("return " + v[0]));
+        }
+    }
+
+    /**
+     * 替换函数中可以再次调用 gsub
+     */
+    @Test
+    public void reentrant() {
+        assertEquals("<A-B> <C>\t2", LuaScript.eval(
+            "return string.gsub('a-b c', '[%w-]+', function(w) return '<' .. w:gsub('%w', string.upper) .. '>' end)"));
+    }
+
+    @Test
+    public void errors() {
+        String[][] cases = {
+            {"string.gsub('a', 'a', {a = {}})", "invalid replacement value (a table)"},
+            {"string.gsub('a', 'a', true)", "string/function/table expected"},
+            {"string.gsub('a', 'a', '%2')", "invalid capture index %2"},
+        };
+        for (String[] c : cases) {
+            try {
+                LuaScript.eval("return " + c[0]);
+                fail(c[0]);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(c[1]));
+            }
+        }
+    }
+
+}
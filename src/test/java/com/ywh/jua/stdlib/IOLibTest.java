@@ -0,0 +1,128 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class IOLibTest {
+
+    private Path file;
+
+    private final boolean mmap = LuaFile.isMmapEnabled();
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("jua-io", ".txt");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        LuaFile.setMmapEnabled(mmap);
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void writeThenRead() {
+        assertEquals("line1\tline2\n\t42\t3.5\trest\n\tnil", eval(
+            "local f = io.open(path, 'w') f:write('line1\\n', 'line2\\n', 42, ' ', 3.5, '\\nrest\\n') f:close() "
+                + "f = io.open(path) local a, b, n, x = f:read('l', 'L', 'n', 'n') f:read('l') "
+                + "local r = f:read('a') local e = f:read('l') f:close() "
+                + "return a, b, n, string.format('%.1f', x), r, tostring(e)"));
+    }
+
+    @Test
+    public void seek() {
+        assertEquals("10\t3\tdefg\t0\tabcXYZ\t4", eval(
+            "local f = io.open(path, 'w+') f:write('abcdefghij') local size = f:seek('end') "
+                + "local p = f:seek('set', 3) local s = f:read(4) "
+                + "f:seek('set', 3) f:write('XYZ') local h = f:seek('set') "
+                + "local head = f:read(6) f:seek('set', 4) local cur = f:seek() f:close() "
+                + "return size, p, s, h, head, cur"));
+    }
+
+    @Test
+    public void append() {
+        assertEquals("ab|c", eval(
+            "local f = io.open(path, 'w') f:write('ab') f:close() "
+                + "f = io.open(path, 'a') f:write('|') f:close() "
+                + "f = io.open(path, 'a+') f:write('c') f:seek('set') local s = f:read('a') f:close() "
+                + "return s"));
+    }
+
+    /**
+     * 超过初始写缓冲区和读缓冲区的内容，按行读取与 io.lines
+     */
+    @Test
+    public void large() {
+        assertEquals("100000\t100000\tline 77777\t1088895", eval(
+            "local f = io.open(path, 'w') for i = 1, 100000 do f:write('line ', i, '\\n') end f:close() "
+                + "local n, last = 0 for l in io.lines(path) do n = n + 1 if n == 77777 then last = l end end "
+                + "f = io.open(path) local m = 0 for l in f:lines() do m = m + 1 end local size = f:seek('end') f:close() "
+                + "return n, m, last, size"));
+    }
+
+    /**
+     * 内存映射读取（文件不小于 1 MiB 时）与普通读取结果相同
+     */
+    @Test
+    public void mmap() {
+        String write = "local f = io.open(path, 'w') for i = 1, 600000 do f:write(i % 10, '\\n') end f:close() ";
+        String read = "local f = io.open(path) local n, s = 0, 0 for l in f:lines() do n = n + 1 s = s + tonumber(l) end "
+            + "f:seek('set', 2) local x = f:read('l') local size = f:seek('end') f:close() return n, s, x, size";
+        LuaFile.setMmapEnabled(false);
+        String plain = eval(write + read);
+        LuaFile.setMmapEnabled(true);
+        assertEquals(plain, eval(read));
+        assertEquals("600000\t2700000\t2\t1200000", plain);
+    }
+
+    @Test
+    public void closeAndGc() {
+        assertEquals("file (closed)\ttrue\tnil\tfile (closed)\tclosed file\tx", eval(
+            "local f = io.open(path, 'w') f:close() local s = tostring(f) local t = io.type(f) == 'closed file' "
+                + "local g = io.open(path, 'w') g:write('x') getmetatable(g).__gc(g) "
+                + "return s, t, tostring(io.open(path .. '.missing')), tostring(g), io.type(g), io.open(path):read('a')"));
+    }
+
+    /**
+     * 未关闭、不再被引用的文件被回收后写出数据
+     */
+    @Test
+    public void unreferencedFileIsFlushed() throws Exception {
+        LuaFile f = LuaFile.open(file.toString(), "w");
+        f.write("data");
+        f = null;
+        for (int i = 0; i < 100 && Files.size(file) == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            // 打开文件时关闭已被回收的文件
+            LuaFile.open(file.toString(), "r").close();
+        }
+        assertEquals("data", new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void errors() {
+        assertEquals("nil\ttrue\t2\tnil\ttrue", eval(
+            "local f, err, errno = io.open(path .. '.missing') "
+                + "local w = io.open(path, 'w') local r, e = w:read('l') w:close() "
+                + "return tostring(f), err:find('missing', 1, true) ~= nil, errno, tostring(r), e ~= nil"));
+    }
+
+    private String eval(String chunk) {
+        return LuaScript.eval("local path = '" + file.toString().replace("\\", "\\\\") + "' " + chunk);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 期望值取自 Lua 5.3
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class LuaFormatTest {
+
+    private static final String[][] VECTORS = {
+        {"'%5d|%-5d|%05d', 42, 42, 42", "   42|42   |00042"},
+        {"'%+d % d %i', 5, 5, 7", "+5  5 7"},
+        {"'%x %X %o %u', 255, 255, 8, 9", "ff FF 10 9"},
+        {"'%#x %#o', 255, 8", "0xff 010"},
+        {"'%d %x', -1, 1", "-1 1"},
+        {"'%c%c', 72, 105", "Hi"},
+        // 有整数值的浮点数、数字字符串与整数一样格式化
+        {"'%d %d %x %c %i', 3.0, 2^31, '10', 65.0, ' 7 '", "3 2147483648 a A 7"},
+        {"'%.1f %5.2f', '2.5', 1", "2.5  1.00"},
+        {"'%.3f', 3.14159", "3.142"},
+        {"'%10.2f|', -1.5", "     -1.50|"},
+        {"'%e', 12345.678", "1.234568e+04"},
+        {"'%g %g %g %g', 100000, 1e20, 0.0001, 1e-5", "100000 1e+20 0.0001 1e-05"},
+        {"'%.3g %g', 2 / 3, 0.5", "0.667 0.5"},
+        {"'%s|%10s|%-4s|', 'a', 'b', 'c'", "a|         b|c   |"},
+        {"'%.2s|%5.1s|', 'abc', 'xyz'", "ab|    x|"},
+        {"'%s %s', 1, true", "1 true"},
+        {"'100%%'", "100%"},
+        {"'%q', 'a\\nb\\r\\0c\"\\\\'", "\"a\\\nb\\13\\0c\\\"\\\\\""},
+        {"'%q', '\\r9\\0001'", "\"\\0139\\0001\""},
+        {"'%q', 255", "255"},
+        {"'%q', -9223372036854775807 - 1", "0x8000000000000000"},
+    };
+
+    @Test
+    public void vectors() {
+        for (String[] v : VECTORS) {
+            assertEquals(v[0], v[1], LuaScript.eval("return string.format(" + v[0] + ")"));
+        }
+    }
+
+    /**
+     * 编译后的格式串被缓存，重复使用结果不变
+     */
+    @Test
+    public void cached() {
+        assertEquals("1-a 2-b 3-c", LuaScript.eval(
+            "local t = {} for i, s in ipairs({'a', 'b', 'c'}) do t[i] = string.format('%d-%s', i, s) end "
+                + "return t[1] .. ' ' .. t[2] .. ' ' .. t[3]"));
+    }
+
+    @Test
+    public void errors() {
+        String[][] cases = {
+            {"'%d', 1.5", "number has no integer representation"},
+            {"'%d', 2^63", "number has no integer representation"},
+            {"'%x', '1.5'", "number has no integer representation"},
+            {"'%x', 'ten'", "number expected, got string"},
+            {"'%y', 1", "invalid option '%y' to 'format'"},
+            {"'%d'", "bad argument #2"},
+        };
+        for (String[] c : cases) {
+            try {
+                LuaScript.eval("return string.format(" + c[0] + ")");
+                fail(c[0]);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(c[1]));
+            }
+        }
+    }
+
+}
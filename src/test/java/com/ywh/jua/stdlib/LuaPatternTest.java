@@ -0,0 +1,101 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 期望值取自 Lua 5.3
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class LuaPatternTest {
+
+    private static final String[][] VECTORS = {
+        {"string.find('hello world', 'o w')", "5\t7"},
+        {"string.find('hello', 'l+')", "3\t4"},
+        {"string.find('abcabc', 'b', -2)", "5\t5"},
+        {"string.find('a.b', '.', 1, true)", "2\t2"},
+        {"string.find('a^a', '^a')", "1\t1"},
+        {"string.find('ba', '^a')", "nil"},
+        {"string.match('key = value', '(%w+)%s*=%s*(%w+)')", "key\tvalue"},
+        {"string.match('  trim  ', '^%s*(.-)%s*$')", "trim"},
+        {"string.match('x[[nested]]y', '%b[]')", "[[nested]]"},
+        {"string.find('THE (quick) fox', '%f[%a]%a+', 5)", "6\t10"},
+        {"string.match('hello', '()ll()')", "3\t5"},
+        {"string.match('abcabc', '(a)(b)(c)%1%2%3')", "a\tb\tc"},
+        {"string.match('2020-08-25', '(%d+)-(%d+)-(%d+)')", "2020\t08\t25"},
+        {"string.match('hello', '.-(l+)(.*)')", "ll\to"},
+        {"string.match('  x', '^%s*$')", "nil"},
+        {"string.match('[a-z]', '[%[%]]')", "["},
+        {"string.match('x=1, y=22', '[^%d]*(%d%d)')", "22"},
+        {"string.gsub('hello world', 'o', '0')", "hell0 w0rld\t2"},
+        {"string.gsub('abc', '%w', '%0%0')", "aabbcc\t3"},
+        {"string.gsub('hello world', '(%w+)', '<%1>')", "<hello> <world>\t2"},
+        {"string.gsub('abc', '', '-')", "-a-b-c-\t4"},
+        {"string.gsub('abc', '^.', 'x')", "xbc\t1"},
+        {"string.gsub('a b c', ' ', '', 1)", "ab c\t1"},
+    };
+
+    @Test
+    public void vectors() {
+        for (String[] v : VECTORS) {
+            assertEquals(v[0], v[1], LuaScript.eval("return " + v[0]));
+        }
+    }
+
+    /**
+     * gmatch 中开头的 ^ 是普通字符
+     */
+    @Test
+    public void gmatch() {
+        assertEquals("one,two,three", LuaScript.eval(
+            "local s = '' for w in ('one two  three'):gmatch('%a+') do s = s .. (s == '' and '' or ',') .. w end return s"));
+        assertEquals("k=v;a=b", LuaScript.eval(
+            "local s = '' for k, v in ('k=v, a=b'):gmatch('(%w+)=(%w+)') do s = s .. (s == '' and '' or ';') .. k .. '=' .. v end "
+                + "return s"));
+        assertEquals("2", LuaScript.eval("local n = 0 for _ in ('^a^a'):gmatch('^a') do n = n + 1 end return n"));
+    }
+
+    /**
+     * 锚定与不锚定的编译结果分开缓存，以 \0 开头的模式不会与之混淆
+     */
+    @Test
+    public void cacheKey() {
+        LuaPattern unanchored = LuaPattern.compile("^a", false);
+        assertFalse(unanchored.anchor);
+        assertTrue(LuaPattern.compile("^a", true).anchor);
+        assertNotSame(unanchored, LuaPattern.compile("\0^a", true));
+        assertSame(LuaPattern.compile("a+", false), LuaPattern.compile("a+", true));
+
+        assertEquals("2\t4\t2", LuaScript.eval(
+            "local n = 0 for _ in ('^a^a'):gmatch('^a') do n = n + 1 end "
+                + "local i, j = string.find('x\\0^a^a', '\\0^a') return i, j, n"));
+    }
+
+    @Test
+    public void errors() {
+        String[][] cases = {
+            {"string.find('a', '(')", "unfinished capture"},
+            {"string.find('a', '%')", "malformed pattern (ends with '%')"},
+            {"string.find('a', '[a')", "malformed pattern (missing ']')"},
+            {"string.find('a', '%1')", "invalid capture index"},
+        };
+        for (String[] c : cases) {
+            try {
+                LuaScript.eval("return " + c[0]);
+                fail(c[0]);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(c[1]));
+            }
+        }
+    }
+
+}
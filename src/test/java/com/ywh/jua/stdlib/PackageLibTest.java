@@ -0,0 +1,89 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.api.LuaState;
+import com.ywh.jua.state.LuaStateImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static com.ywh.jua.api.LuaType.LUA_TNIL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 26/08/2020
+ */
+public class PackageLibTest {
+
+    private Path dir;
+
+    private LuaState ls;
+
+    @Before
+    public void createModules() throws IOException {
+        dir = Files.createTempDirectory("jua-modules");
+        write("a.lua", "return 'a'");
+        write("sub/b.lua", "return 'b'");
+        write("c/init.lua", "return 'c'");
+        write("bad.lua", "return (");
+        write(".git/d.lua", "return 'd'");
+        ls = new LuaStateImpl();
+        ls.openLibs();
+    }
+
+    @After
+    public void deleteModules() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void preload() {
+        assertEquals(5, PackageLib.preloadModules(ls, dir.toString()));
+        assertEquals("a", require("a"));
+        assertEquals("b", require("sub.b"));
+        assertEquals("c", require("c"));
+        assertEquals("c", require("c.init"));
+        ls.getField(LuaState.LUA_REGISTRYINDEX, "_PRELOAD");
+        assertEquals(LUA_TNIL, ls.getField(-1, ".git.d"));
+    }
+
+    /**
+     * 编译失败的模块只在 require 时报错，不影响其他模块
+     */
+    @Test
+    public void compileErrorIsDeferred() {
+        PackageLib.preloadModules(ls, dir.toString());
+        assertEquals("a", require("a"));
+        try {
+            require("bad");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("error loading module 'bad'"));
+        }
+    }
+
+    private String require(String name) {
+        ls.getGlobal("require");
+        ls.pushString(name);
+        ls.call(1, 1);
+        return ls.toString(-1);
+    }
+
+    private void write(String name, String chunk) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, chunk.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+}
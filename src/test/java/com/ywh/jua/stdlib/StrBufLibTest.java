@@ -0,0 +1,83 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import com.ywh.jua.string.LuaBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class StrBufLibTest {
+
+    @Test
+    public void putAndFormat() {
+        assertEquals("a1 2|[ 3]|9|9", LuaScript.eval(
+            "local b = strbuf.new() b:put('a', 1, ' ', 2):put('|'):putf('[%2d]', 3) "
+                + "return b:tostring() .. '|' .. b:len() .. '|' .. #b"));
+    }
+
+    /**
+     * 超过初始容量后扩容，reset 后复用
+     */
+    @Test
+    public void growAndReset() {
+        assertEquals("1000\t0123\t0\tx", LuaScript.eval(
+            "local b = strbuf.new(4) for i = 0, 999 do b:put(i % 10) end "
+                + "local s = b:tostring() b:reset() local n = b:len() b:put('x') "
+                + "return #s, s:sub(1, 4), n, tostring(b)"));
+    }
+
+    /**
+     * 任意字节原样保存
+     */
+    @Test
+    public void bytes() {
+        assertEquals("3\t0\t255\t200", LuaScript.eval(
+            "local b = strbuf.new() b:put(string.char(0, 255), string.char(200)) local s = b:tostring() "
+                + "return #s, s:byte(1, 3)"));
+    }
+
+    @Test
+    public void rep() {
+        assertEquals("ababab\tx,x,x\t\t0", LuaScript.eval(
+            "return string.rep('ab', 3), string.rep('x', 3, ','), string.rep('x', 0), #string.rep('', 100)"));
+        try {
+            LuaScript.eval("return string.rep('x', 1 << 40)");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("resulting string too large"));
+        }
+    }
+
+    @Test
+    public void errors() {
+        try {
+            LuaScript.eval("local b = strbuf.new() b:put({})");
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void buffer() throws IOException {
+        LuaBuffer b = new LuaBuffer(1);
+        b.append('a').append("abcd", 1, 3).append(-42L).append("\u00ff");
+        assertEquals("abc-42\u00ff", b.toString());
+        assertEquals(7, b.length());
+        b.setLength(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.writeTo(out);
+        assertArrayEquals(new byte[]{'a', 'b', 'c'}, out.toByteArray());
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 期望值取自 Lua 5.3
+ *
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class TableLibTest {
+
+    private static final String[][] VECTORS = {
+        {"local t = {1, 2, 3} table.insert(t, 4) table.insert(t, 1, 0) return table.concat(t, ',')", "0,1,2,3,4"},
+        {"local t = {1, 2, 3} table.insert(t, 4, 'x') return table.concat(t, ',')", "1,2,3,x"},
+        {"local t = {1, 2, 3} return table.remove(t), table.remove(t, 1), table.concat(t, ',')", "3\t1\t2"},
+        {"local t = {} return tostring(table.remove(t)), #t", "nil\t0"},
+        {"local t = {1, 2, 3} return table.remove(t, 4), #t", "nil\t3"},
+        {"return table.concat({1, 'a', 2}), table.concat({1, 2, 3}, '-', 2, 3), table.concat({}, 'x')", "1a2\t2-3\t"},
+        {"local t = table.move({1, 2, 3}, 1, 3, 2) return table.concat(t, ',')", "1,1,2,3"},
+        {"local t = table.move({1, 2, 3, 4}, 2, 4, 1) return table.concat(t, ',')", "2,3,4,4"},
+        {"local t = table.move({1, 2}, 1, 2, 3, {9}) return t[1], tostring(t[2]), t[3], t[4]", "9\tnil\t1\t2"},
+        {"local p = table.pack(1, nil, 3) return p.n, p[1], tostring(p[2]), p[3]", "3\t1\tnil\t3"},
+        {"return table.unpack({1, 2, 3})", "1\t2\t3"},
+        {"return table.unpack({1, 2, 3}, 2)", "2\t3"},
+        {"return select('#', table.unpack({}, 1, 3))", "3"},
+        // 有整数值的浮点数、数字字符串可以作为位置
+        {"return table.unpack({1, 2, 3}, 2.0, 3.0)", "2\t3"},
+        {"local t = table.move({1, 2, 3}, 1.0, '3', 2.0) return table.concat(t, ',')", "1,1,2,3"},
+        {"local t = {1, 2} table.insert(t, 1.0, 0) return table.concat(t, ','), table.remove(t, 3.0)", "0,1,2\t2"},
+    };
+
+    @Test
+    public void vectors() {
+        for (String[] v : VECTORS) {
+            assertEquals(v[0], v[1], LuaScript.eval(v[0]));
+        }
+    }
+
+    /**
+     * 带元方法的表走通用路径，结果与普通表一致
+     */
+    @Test
+    public void metamethods() {
+        assertEquals("a,b,c\t3\tz", LuaScript.eval(
+            "local store = {'a', 'b'} "
+                + "local p = setmetatable({}, {__index = store, __newindex = store, __len = function() return #store end}) "
+                + "table.insert(p, 'c') local s = table.concat(p, ',') local n = #store "
+                + "table.insert(p, 1, 'z') return s, n, store[1]"));
+    }
+
+    /**
+     * 数组部分很大时插入、删除仍然正确
+     */
+    @Test
+    public void large() {
+        assertEquals("10000\t5000\t1\t4999\t5000", LuaScript.eval(
+            "local t = {} for i = 1, 10000 do table.insert(t, i) end "
+                + "local n = #t for i = 1, 5000 do table.remove(t) end local m = #t "
+                + "table.insert(t, 1, 0) table.remove(t, 1) "
+                + "local u = table.move(t, 1, #t, 5001) "
+                + "return n, m, u[1], u[9999], u[10000]"));
+    }
+
+    @Test
+    public void errors() {
+        String[][] cases = {
+            {"table.insert({}, 1, 2, 3)", "wrong number of arguments to 'insert'"},
+            {"table.insert({}, 5, 1)", "position out of bounds"},
+            {"table.concat({1, {}, 3})", "invalid value (at index 2) in table for 'concat'"},
+        };
+        for (String[] c : cases) {
+            try {
+                LuaScript.eval(c[0]);
+                fail(c[0]);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(c[1]));
+            }
+        }
+    }
+
+}
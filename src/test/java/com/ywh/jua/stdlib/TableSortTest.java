@@ -0,0 +1,114 @@
+package com.ywh.jua.stdlib;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class TableSortTest {
+
+    /**
+     * 检查数组 t 是否按 lt 有序
+     */
+    private static final String CHECK = "local function sorted(t, lt) lt = lt or function(a, b) return a < b end "
+        + "for i = 2, #t do if lt(t[i], t[i - 1]) then return false end end return true end ";
+
+    @Test
+    public void defaultOrder() {
+        assertEquals("1,2,3,5,8\ta,b,c\t-1.5,0,2,2.5", LuaScript.eval(
+            "local a = {5, 3, 8, 1, 2} table.sort(a) "
+                + "local s = {'c', 'a', 'b'} table.sort(s) "
+                + "local m = {2, -1.5, 2.5, 0} table.sort(m) "
+                + "return table.concat(a, ','), table.concat(s, ','), string.format('%g,%g,%g,%g', m[1], m[2], m[3], m[4])"));
+    }
+
+    @Test
+    public void comparator() {
+        assertEquals("5,4,3,2,1\ta,bb,ccc", LuaScript.eval(
+            "local t = {1, 2, 3, 4, 5} table.sort(t, function(a, b) return a > b end) "
+                + "local s = {'ccc', 'a', 'bb'} table.sort(s, function(a, b) return #a < #b end) "
+                + "return table.concat(t, ','), table.concat(s, ',')"));
+    }
+
+    /**
+     * 较大的随机、有序、逆序、重复元素数组
+     */
+    @Test
+    public void large() {
+        assertEquals("true\ttrue\ttrue\ttrue\ttrue", LuaScript.eval(CHECK
+            + "local function gen(n, f) local t = {} for i = 1, n do t[i] = f(i) end return t end "
+            + "local seed = 7 local function rnd() seed = (seed * 1103515245 + 12345) % 2147483648 return seed end "
+            + "local r = gen(5000, rnd) table.sort(r) "
+            + "local asc = gen(3000, function(i) return i end) table.sort(asc) "
+            + "local desc = gen(3000, function(i) return -i end) table.sort(desc) "
+            + "local dup = gen(3000, function(i) return i % 3 end) table.sort(dup) "
+            + "local gt = function(a, b) return a > b end local c = gen(3000, rnd) table.sort(c, gt) "
+            + "return sorted(r), sorted(asc), sorted(desc), sorted(dup), sorted(c, gt)"));
+    }
+
+    /**
+     * 带 __lt 元方法的元素和带元方法的表走通用路径
+     */
+    @Test
+    public void metamethods() {
+        assertEquals("1,2,3\t1,2,3", LuaScript.eval(
+            "local mt = {__lt = function(a, b) return a.v < b.v end} "
+                + "local function o(v) return setmetatable({v = v}, mt) end "
+                + "local t = {o(3), o(1), o(2)} table.sort(t) "
+                + "local store = {3, 1, 2} local p = setmetatable({}, {__index = store, __newindex = store, "
+                + "__len = function() return #store end}) table.sort(p) "
+                + "return t[1].v .. ',' .. t[2].v .. ',' .. t[3].v, table.concat(store, ',')"));
+    }
+
+    /**
+     * 不一致的比较函数报错而不是越界或死循环
+     */
+    @Test
+    public void invalidOrder() {
+        try {
+            LuaScript.eval("local t = {} for i = 1, 100 do t[i] = i % 7 end "
+                + "table.sort(t, function(a, b) return true end)");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("invalid order function for sorting"));
+        }
+    }
+
+    /**
+     * 比较函数出错后调用帧被弹出、Upvalue 被闭合，之后的调用正常
+     */
+    @Test
+    public void comparatorError() {
+        assertEquals("false\tcmp\ttrue\t1,2,3\t3,2,1", LuaScript.eval(
+            "local saved, fail = nil, true "
+                + "local function cmp(a, b) local v = a v = v * 10 "
+                + "if fail then saved = function() return v end error('cmp') end return a < b end "
+                + "local t = {3, 1, 2} local ok, err = pcall(table.sort, t, cmp) "
+                + "local v = saved() fail = false table.sort(t, cmp) local s = table.concat(t, ',') "
+                + "table.sort(t, function(a, b) return a > b end) "
+                + "return ok, err, v % 10 == 0 and v >= 10 and v <= 30 and saved() == v, s, table.concat(t, ',')"));
+    }
+
+    @Test
+    public void errors() {
+        String[][] cases = {
+            {"table.sort({1, 'a', 2})", "comparison error"},
+            {"table.sort({1, 2}, 3)", "bad argument #2"},
+        };
+        for (String[] c : cases) {
+            try {
+                LuaScript.eval(c[0]);
+                fail(c[0]);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(c[1]));
+            }
+        }
+    }
+
+}
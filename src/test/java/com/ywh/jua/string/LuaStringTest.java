@@ -0,0 +1,52 @@
+package com.ywh.jua.string;
+
+import com.ywh.jua.LuaScript;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ywh
+ * @since 2020/8/25 11:26
+ */
+public class LuaStringTest {
+
+    @Test
+    public void bytesRoundTrip() {
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        String s = LuaString.valueOf(all);
+        assertEquals(256, s.length());
+        assertArrayEquals(all, LuaString.getBytes(s));
+        assertEquals("\u00ff", LuaString.valueOf(all, 255, 1));
+    }
+
+    /**
+     * 字符串函数按字节工作，UTF-8 源码中的字符串按字节计长度
+     */
+    @Test
+    public void byteSemantics() {
+        String chunk = "local s = '\u00e9' "
+            + "return #s, #string.char(200, 0, 1), s:upper() == s, s:sub(2, 2):byte(), s:rep(2):len(), s:byte(1, -1)";
+        assertEquals("2\t3\ttrue\t169\t4\t195\t169", LuaScript.eval(LuaString.valueOf(chunk.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * 所有字节值经过 string.char、string.dump、load 保持不变
+     */
+    @Test
+    public void dumpPreservesBytes() {
+        assertEquals("256\ttrue", LuaScript.eval(
+            "local s = '' for i = 0, 255 do s = s .. string.char(i) end "
+                + "local f = load(string.dump(load('return ...'))) "
+                + "local r = f(s) local ok = true "
+                + "for i = 1, 256 do if r:byte(i) ~= i - 1 then ok = false end end "
+                + "return #r, ok"));
+    }
+
+}
@@ -0,0 +1,18 @@
+-- expect: 1,2,f,4,b,f,7,8,f,b,11,f,13,14,fb,16,17,f,19,b
+local out = {}
+for i = 1, 20 do
+    if i % 3 == 0 and i % 5 == 0 then
+        out[#out + 1] = 'fb'
+    elseif i % 3 == 0 then
+        out[#out + 1] = 'f'
+    elseif not (i % 5 ~= 0) then
+        out[#out + 1] = 'b'
+    else
+        out[#out + 1] = i
+    end
+end
+local s = out[1]
+for i = 2, #out do
+    s = s .. ',' .. out[i]
+end
+return s
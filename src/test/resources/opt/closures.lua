@@ -0,0 +1,15 @@
+-- expect: 4 5 7 10 4
+local fs = {}
+for i = 1, 3 do
+    local j = i * 2
+    fs[i] = function()
+        j = j + 1
+        return i + j
+    end
+end
+local acc = 0
+local function add(n)
+    acc = acc + n
+    return acc
+end
+return fs[1]() .. ' ' .. fs[1]() .. ' ' .. fs[2]() .. ' ' .. fs[3]() .. ' ' .. (add(2) + add(3) - 3)
@@ -0,0 +1,15 @@
+-- expect: (a+(b+o)) (o+cd) 12x (x+(o+y)) abc1
+local mt = {}
+local function val(v)
+    return type(v) == 'table' and v.v or v
+end
+mt.__concat = function(a, b)
+    return setmetatable({ v = '(' .. val(a) .. '+' .. val(b) .. ')' }, mt)
+end
+local obj = setmetatable({ v = 'o' }, mt)
+local r1 = 'a' .. 'b' .. obj
+local r2 = obj .. 'c' .. 'd'
+local r3 = 1 .. 2 .. 'x'
+local r4 = 'x' .. obj .. 'y'
+local s = 'a'
+return r1.v .. ' ' .. r2.v .. ' ' .. r3 .. ' ' .. r4.v .. ' ' .. s .. 'b' .. 'c' .. 1
@@ -0,0 +1,43 @@
+-- expect: 385 y n 1 12 21 nil 21 65
+local function sq(x)
+    return x * x
+end
+local function add(a, b)
+    return a + b
+end
+local function pick(c, a, b)
+    if c then
+        return a
+    end
+    return b
+end
+local t = 0
+for i = 1, 10 do
+    t = add(t, sq(i))
+end
+local log = {}
+local function f(x)
+    log[#log + 1] = x
+    return x
+end
+local function swap(a, b)
+    return b, a
+end
+local p, q = swap(f(1), f(2))
+local function none()
+end
+local n = 0
+local function inc()
+    n = n + 1
+    return n
+end
+local function twice(x)
+    return x + x
+end
+local function m(x)
+    x = x + 1
+    return x
+end
+local v = 5
+return t .. ' ' .. pick(true, 'y', 'n') .. ' ' .. pick(false, 'y', 'n') .. ' ' .. select('#', sq(2)) .. ' '
+    .. log[1] .. log[2] .. ' ' .. p .. q .. ' ' .. tostring((none())) .. ' ' .. twice(inc()) .. n .. ' ' .. m(v) .. v
@@ -0,0 +1,20 @@
+-- expect: falsenilnil2falsetrue truetruetruefalse 3 10,7,4,1, 610
+local a, b = nil, false
+local r1 = tostring(a or b) .. tostring(b or a) .. tostring(a and 1) .. tostring(1 and 2)
+    .. tostring(nil == false) .. tostring(not nil)
+local r2 = tostring(1 < 2) .. tostring('a' < 'b') .. tostring(2 == 2.0) .. tostring('1' == 1)
+local function f(...)
+    return select('#', ...), ...
+end
+local n = f(1, nil, 3)
+local s = ''
+for i = 10, 1, -3 do
+    s = s .. i .. ','
+end
+local function fib(k)
+    if k < 2 then
+        return k
+    end
+    return fib(k - 1) + fib(k - 2)
+end
+return r1 .. ' ' .. r2 .. ' ' .. n .. ' ' .. s .. ' ' .. fib(15)
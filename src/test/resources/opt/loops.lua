@@ -0,0 +1,28 @@
+-- expect: 12345<2
+local n, s = 0, ''
+while true do
+    n = n + 1
+    if n > 5 then
+        break
+    end
+    s = s .. n
+end
+repeat
+    local k = n
+    n = n - 1
+until k < 4
+if false then
+    s = 'dead'
+end
+while false do
+    s = 'dead'
+end
+local DEBUG = false
+if DEBUG then
+    s = s .. 'debug'
+elseif 1 < 2 then
+    s = s .. '<'
+else
+    s = s .. '>'
+end
+return s .. n
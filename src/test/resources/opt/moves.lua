@@ -0,0 +1,14 @@
+-- expect: 1327 1 1 3
+local a, b, c = 1, 2, 3
+a, b, c = c, a, b
+local d = a
+a = b
+b = d
+local x = a + b * c
+local y = x
+x = 1
+local t = {}
+t.k = y
+y = nil
+local z = t.k
+return a .. b .. c .. z .. ' ' .. x .. ' ' .. a .. ' ' .. #tostring(y)